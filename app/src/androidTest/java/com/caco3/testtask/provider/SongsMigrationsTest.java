@@ -0,0 +1,213 @@
+package com.caco3.testtask.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumentation test of {@link SongsMigrations}.
+ * Databases of old versions are created with the schema they were released with
+ * and then opened with {@link SongsDatabase}
+ */
+@RunWith(AndroidJUnit4.class)
+public class SongsMigrationsTest {
+    private static final String OLD_DB_NAME = "songs_migrations_old_test.db";
+    private static final String NEW_DB_NAME = "songs_migrations_new_test.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabases();
+    }
+
+    private void deleteDatabases() {
+        mContext.deleteDatabase(OLD_DB_NAME);
+        mContext.deleteDatabase(NEW_DB_NAME);
+    }
+
+    /**
+     * Creates database with the schema of version 3, the first migratable one
+     */
+    private void createVersion3() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(OLD_DB_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE songs("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "author TEXT, "
+                    + "name TEXT, "
+                    + "version INTEGER, "
+                    + "song_id INTEGER UNIQUE"
+                    + ")");
+            db.execSQL("INSERT INTO songs(author, name, version, song_id) VALUES ('author', 'name', 1, 42)");
+            db.setVersion(3);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Creates database with the schema of version 4, which added sync state
+     */
+    private void createVersion4() {
+        createVersion3();
+        SQLiteDatabase db = mContext.openOrCreateDatabase(OLD_DB_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE sync_state(name TEXT PRIMARY KEY, value TEXT)");
+            db.execSQL("INSERT INTO sync_state(name, value) VALUES ('watermark', '1000')");
+            db.setVersion(4);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Creates database with the schema of version 5, which added full-text search
+     */
+    private void createVersion5() {
+        createVersion4();
+        SQLiteDatabase db = mContext.openOrCreateDatabase(OLD_DB_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE songs_fts USING fts4(name, author)");
+            db.execSQL("INSERT INTO songs_fts(docid, name, author) SELECT _id, name, author FROM songs");
+            db.execSQL("INSERT INTO songs(author, name, version, song_id) VALUES ('author', 'other', 1, 43)");
+            db.execSQL("INSERT INTO songs_fts(docid, name, author)"
+                    + " SELECT _id, name, author FROM songs WHERE song_id = 43");
+            db.setVersion(5);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return columns and their types of every table in the database and tables of triggers
+     */
+    private static Map<String, Map<String, String>> getSchema(SQLiteDatabase db) {
+        Map<String, Map<String, String>> schema = new TreeMap<>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name NOT LIKE 'android_%'", null);
+        try {
+            while (tables.moveToNext()) {
+                Map<String, String> columns = new TreeMap<>();
+                Cursor info = db.rawQuery("PRAGMA table_info(" + tables.getString(0) + ")", null);
+                try {
+                    while (info.moveToNext()) {
+                        columns.put(info.getString(info.getColumnIndex("name")),
+                                info.getString(info.getColumnIndex("type")));
+                    }
+                } finally {
+                    info.close();
+                }
+                schema.put(tables.getString(0), columns);
+            }
+        } finally {
+            tables.close();
+        }
+        Map<String, String> triggers = new TreeMap<>();
+        Cursor cursor = db.rawQuery("SELECT name, tbl_name FROM sqlite_master WHERE type = 'trigger'", null);
+        try {
+            while (cursor.moveToNext()) {
+                triggers.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        schema.put("triggers", triggers);
+        return schema;
+    }
+
+    @Test
+    public void upgrade_keepsSongs() {
+        createVersion3();
+
+        SongsDatabase songsDatabase = new SongsDatabase(mContext, OLD_DB_NAME);
+        try {
+            SQLiteDatabase db = songsDatabase.getWritableDatabase();
+            assertEquals(SongsDatabase.DB_VERSION, db.getVersion());
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM songs WHERE song_id = 42 AND name = 'name'", null));
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM songs_fts WHERE songs_fts MATCH 'nam*'", null));
+            assertEquals(SongFingerprint.of("author", "name", 1), DatabaseUtils.longForQuery(db,
+                    "SELECT fingerprint FROM songs WHERE song_id = 42", null));
+        } finally {
+            songsDatabase.close();
+        }
+    }
+
+    @Test
+    public void upgrade_keepsWatermark() {
+        createVersion4();
+
+        SongsDatabase songsDatabase = new SongsDatabase(mContext, OLD_DB_NAME);
+        try {
+            SQLiteDatabase db = songsDatabase.getWritableDatabase();
+            assertEquals(1000, DatabaseUtils.longForQuery(db,
+                    "SELECT value FROM sync_state WHERE name = 'watermark'", null));
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, "songs"));
+        } finally {
+            songsDatabase.close();
+        }
+    }
+
+    @Test
+    public void upgrade_storesAuthorsOnce() {
+        createVersion5();
+
+        SongsDatabase songsDatabase = new SongsDatabase(mContext, OLD_DB_NAME);
+        try {
+            SQLiteDatabase db = songsDatabase.getWritableDatabase();
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, "authors"));
+            assertEquals(2, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM songs_with_authors WHERE author = 'author'", null));
+            assertEquals(2, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM songs_fts WHERE songs_fts MATCH 'author:auth*'", null));
+        } finally {
+            songsDatabase.close();
+        }
+    }
+
+    @Test
+    public void upgrade_producesSchemaOfNewDatabase() {
+        createVersion3();
+
+        SongsDatabase upgraded = new SongsDatabase(mContext, OLD_DB_NAME);
+        SongsDatabase created = new SongsDatabase(mContext, NEW_DB_NAME);
+        try {
+            assertEquals(getSchema(created.getWritableDatabase()), getSchema(upgraded.getWritableDatabase()));
+        } finally {
+            upgraded.close();
+            created.close();
+        }
+    }
+
+    @Test
+    public void canMigrate_onlySupportedVersions() {
+        assertTrue(SongsMigrations.canMigrate(SongsMigrations.FIRST_MIGRATABLE_VERSION, SongsDatabase.DB_VERSION));
+        assertTrue(SongsMigrations.canMigrate(SongsDatabase.DB_VERSION, SongsDatabase.DB_VERSION));
+        assertFalse(SongsMigrations.canMigrate(SongsMigrations.FIRST_MIGRATABLE_VERSION - 1, SongsDatabase.DB_VERSION));
+        assertFalse(SongsMigrations.canMigrate(SongsDatabase.DB_VERSION, SongsDatabase.DB_VERSION + 1));
+        assertFalse(SongsMigrations.canMigrate(SongsDatabase.DB_VERSION, SongsMigrations.FIRST_MIGRATABLE_VERSION));
+    }
+}
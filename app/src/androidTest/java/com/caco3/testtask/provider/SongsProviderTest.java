@@ -0,0 +1,735 @@
+package com.caco3.testtask.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumentation test of {@link SongsProvider} batch operations and concurrent reads.
+ * Runs against the real database on device storage, so the benchmark
+ * shows the cost of committing every row separately.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SongsProviderTest {
+    private static final String TAG = "SongsProviderTest";
+
+    private static final int BENCHMARK_ROWS = 2000;
+
+    private static final int SEARCH_BENCHMARK_ROWS = 100000;
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        clearSongs();
+    }
+
+    @After
+    public void tearDown() {
+        clearSongs();
+    }
+
+    private void clearSongs() {
+        mContentResolver.delete(SongsProvider.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues song(long id) {
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_AUTHOR, "author " + id);
+        values.put(SongsDatabase.Songs.KEY_NAME, "name " + id);
+        values.put(SongsDatabase.Songs.KEY_VERSION, 1);
+        values.put(SongsDatabase.Songs.KEY_SONG_ID, id);
+        return values;
+    }
+
+    private int countSongs() {
+        Cursor cursor = mContentResolver.query(SongsProvider.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bulkInsert_insertsAllRows() {
+        ContentValues[] values = new ContentValues[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = song(i);
+        }
+
+        assertEquals(100, mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, values));
+        assertEquals(100, countSongs());
+    }
+
+    @Test
+    public void failedBatch_isRolledBack() throws Exception {
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(ContentProviderOperation.newInsert(SongsProvider.CONTENT_URI)
+                    .withValues(song(i))
+                    .build());
+        }
+        // fails, since there is no such song
+        batch.add(ContentProviderOperation.newUpdate(SongsProvider.CONTENT_URI)
+                .withValues(song(100))
+                .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?", new String[]{"100"})
+                .withExpectedCount(1)
+                .build());
+
+        try {
+            mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+            fail();
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals(0, countSongs());
+    }
+
+    private static ContentValues song(long id, int version) {
+        ContentValues values = song(id);
+        values.put(SongsDatabase.Songs.KEY_VERSION, version);
+        return values;
+    }
+
+    /**
+     * @return version of the song or -1 if there is no such song
+     */
+    private int getVersion(long songId) {
+        Cursor cursor = mContentResolver.query(SongsProvider.CONTENT_URI,
+                new String[]{SongsDatabase.Songs.KEY_VERSION},
+                SongsDatabase.Songs.KEY_SONG_ID + " = ?", new String[]{String.valueOf(songId)}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sync_insertsUpdatesAndDeletes() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI,
+                new ContentValues[]{song(1, 1), song(2, 1), song(3, 1)});
+
+        int changed = mContentResolver.bulkInsert(SongsProvider.SYNC_URI,
+                new ContentValues[]{song(2, 1), song(3, 2), song(4, 1)});
+
+        // 1 deleted, 3 updated, 4 inserted, 2 untouched
+        assertEquals(3, changed);
+        assertEquals(-1, getVersion(1));
+        assertEquals(1, getVersion(2));
+        assertEquals(2, getVersion(3));
+        assertEquals(1, getVersion(4));
+        assertEquals(3, countSongs());
+    }
+
+    @Test
+    public void sync_isLimitedToRange() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI,
+                new ContentValues[]{song(1, 1), song(5, 1), song(10, 1)});
+
+        mContentResolver.bulkInsert(SongsProvider.SYNC_URI.buildUpon()
+                        .appendQueryParameter(SongsProvider.PARAM_AFTER_ID, "1")
+                        .appendQueryParameter(SongsProvider.PARAM_LAST_ID, "6")
+                        .build(),
+                new ContentValues[]{song(6, 1)});
+
+        assertEquals(1, getVersion(1));
+        assertEquals(-1, getVersion(5));
+        assertEquals(1, getVersion(6));
+        assertEquals(1, getVersion(10));
+    }
+
+    @Test
+    public void sync_withNoSongs_clearsTable() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1), song(2)});
+
+        assertEquals(2, mContentResolver.bulkInsert(SongsProvider.SYNC_URI, new ContentValues[0]));
+        assertEquals(0, countSongs());
+    }
+
+    @Test
+    public void shadowTable_isInvisibleUntilSwapped() throws Exception {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1), song(2)});
+        mContentResolver.delete(SongsProvider.SHADOW_URI, null, null);
+
+        mContentResolver.bulkInsert(SongsProvider.SHADOW_URI,
+                new ContentValues[]{song(2, 2), song(3), song(4)});
+        assertEquals(2, countSongs());
+        assertEquals(1, getVersion(2));
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(SongsProvider.SHADOW_SWAP_URI).build());
+        mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+
+        assertEquals(3, countSongs());
+        assertEquals(-1, getVersion(1));
+        assertEquals(2, getVersion(2));
+    }
+
+    @Test
+    public void shadowTable_isResetByDelete() throws Exception {
+        mContentResolver.delete(SongsProvider.SHADOW_URI, null, null);
+        mContentResolver.bulkInsert(SongsProvider.SHADOW_URI, new ContentValues[]{song(1), song(2)});
+
+        assertEquals(2, mContentResolver.delete(SongsProvider.SHADOW_URI, null, null));
+        Cursor cursor = mContentResolver.query(SongsProvider.SHADOW_URI, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return song ids of the page
+     */
+    private List<Long> queryPage(Uri pageUri, Long afterId, int limit) {
+        Uri.Builder uri = pageUri.buildUpon()
+                .appendQueryParameter(SongsProvider.PARAM_LIMIT, String.valueOf(limit));
+        if (afterId != null) {
+            uri.appendQueryParameter(SongsProvider.PARAM_AFTER_ID, String.valueOf(afterId));
+        }
+        Cursor cursor = mContentResolver.query(uri.build(),
+                new String[]{SongsDatabase.Songs.KEY_SONG_ID}, null, null, null);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void pages_coverAllSongsInOrder() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI,
+                new ContentValues[]{song(5), song(1), song(4), song(2), song(3)});
+
+        assertEquals(Arrays.asList(1L, 2L), queryPage(SongsProvider.PAGE_URI, null, 2));
+        assertEquals(Arrays.asList(3L, 4L), queryPage(SongsProvider.PAGE_URI, 2L, 2));
+        assertEquals(Arrays.asList(5L), queryPage(SongsProvider.PAGE_URI, 4L, 2));
+        assertTrue(queryPage(SongsProvider.PAGE_URI, 5L, 2).isEmpty());
+    }
+
+    @Test
+    public void descendingPages_coverAllSongsInOrder() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI,
+                new ContentValues[]{song(5), song(1), song(4), song(2), song(3)});
+
+        assertEquals(Arrays.asList(5L, 4L, 3L), queryPage(SongsProvider.PAGE_DESC_URI, null, 3));
+        assertEquals(Arrays.asList(2L, 1L), queryPage(SongsProvider.PAGE_DESC_URI, 3L, 3));
+    }
+
+    @Test
+    public void page_isCombinedWithSelection() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI,
+                new ContentValues[]{song(1), song(2, 2), song(3), song(4, 2)});
+
+        Cursor cursor = mContentResolver.query(SongsProvider.PAGE_URI.buildUpon()
+                        .appendQueryParameter(SongsProvider.PARAM_AFTER_ID, "2")
+                        .build(),
+                new String[]{SongsDatabase.Songs.KEY_SONG_ID},
+                SongsDatabase.Songs.KEY_VERSION + " = ?", new String[]{"2"}, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(4, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues song(long id, String author, String name) {
+        ContentValues values = song(id);
+        values.put(SongsDatabase.Songs.KEY_AUTHOR, author);
+        values.put(SongsDatabase.Songs.KEY_NAME, name);
+        return values;
+    }
+
+    /**
+     * @return song ids found
+     */
+    private List<Long> search(String text) {
+        Cursor cursor = mContentResolver.query(SongsProvider.SEARCH_URI.buildUpon()
+                        .appendQueryParameter(SongsProvider.PARAM_QUERY, text)
+                        .build(),
+                new String[]{SongsDatabase.Songs.KEY_SONG_ID}, null, null, null);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    @Test
+    public void search_ranksNameMatchesFirst() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(1, "The Beatles", "Yellow Submarine"),
+                song(2, "Yellow Magic Orchestra", "Rydeen"),
+                song(3, "Coldplay", "Yellow"),
+                song(4, "Queen", "Bohemian Rhapsody")});
+
+        assertEquals(Arrays.asList(3L, 1L, 2L), search("yel"));
+        assertEquals(Arrays.asList(1L), search("Yellow sub"));
+        assertEquals(Arrays.asList(1L), search("beatles yellow"));
+        assertTrue(search("").isEmpty());
+    }
+
+    @Test
+    public void search_followsWrites() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1, "Queen", "Innuendo")});
+        assertEquals(Arrays.asList(1L), search("innu"));
+
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_NAME, "Bicycle Race");
+        mContentResolver.update(SongsProvider.CONTENT_URI, values, null, null);
+        assertTrue(search("innu").isEmpty());
+        assertEquals(Arrays.asList(1L), search("bicy"));
+
+        mContentResolver.delete(SongsProvider.CONTENT_URI, null, null);
+        assertTrue(search("bicy").isEmpty());
+    }
+
+    @Test
+    public void search_findsSongsSwappedIn() throws Exception {
+        mContentResolver.delete(SongsProvider.SHADOW_URI, null, null);
+        mContentResolver.bulkInsert(SongsProvider.SHADOW_URI, new ContentValues[]{song(1, "Queen", "Innuendo")});
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(SongsProvider.SHADOW_SWAP_URI).build());
+        mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+
+        assertEquals(Arrays.asList(1L), search("innu"));
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(2, "Queen", "Innuendo")});
+        assertEquals(2, search("innu").size());
+    }
+
+    private long getFingerprint(long songId) {
+        Cursor cursor = mContentResolver.query(SongsProvider.CONTENT_URI,
+                new String[]{SongsDatabase.Songs.KEY_FINGERPRINT},
+                SongsDatabase.Songs.KEY_SONG_ID + " = ?", new String[]{String.valueOf(songId)}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void fingerprint_followsContent() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1, "Queen", "Innuendo")});
+        assertEquals(SongFingerprint.of("Queen", "Innuendo", 1), getFingerprint(1));
+
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_NAME, "Bicycle Race");
+        mContentResolver.update(SongsProvider.CONTENT_URI, values, null, null);
+        assertEquals(SongFingerprint.of("Queen", "Bicycle Race", 1), getFingerprint(1));
+
+        assertEquals(0, mContentResolver.bulkInsert(SongsProvider.SYNC_URI,
+                new ContentValues[]{song(1, "Queen", "Bicycle Race")}));
+        assertEquals(1, mContentResolver.bulkInsert(SongsProvider.SYNC_URI,
+                new ContentValues[]{song(1, "Freddie Mercury", "Bicycle Race")}));
+        assertEquals(SongFingerprint.of("Freddie Mercury", "Bicycle Race", 1), getFingerprint(1));
+    }
+
+    /**
+     * @return "operation:song_id" of changes after the token
+     */
+    private List<String> getChanges(long since) {
+        Cursor cursor = mContentResolver.query(SongsProvider.CHANGES_URI.buildUpon()
+                        .appendQueryParameter(SongsProvider.PARAM_SINCE, String.valueOf(since))
+                        .build(),
+                new String[]{SongsDatabase.Changes.KEY_OPERATION, SongsDatabase.Changes.KEY_SONG_ID},
+                null, null, null);
+        List<String> changes = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getInt(0) + ":" + cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    private long getLastChangeToken() {
+        Cursor cursor = mContentResolver.query(SongsProvider.LATEST_CHANGE_URI, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final String INSERT = String.valueOf(SongsDatabase.Changes.OPERATION_INSERT);
+    private static final String UPDATE = String.valueOf(SongsDatabase.Changes.OPERATION_UPDATE);
+    private static final String DELETE = String.valueOf(SongsDatabase.Changes.OPERATION_DELETE);
+
+    @Test
+    public void changes_areRecordedInOrder() {
+        long token = getLastChangeToken();
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1), song(2)});
+        mContentResolver.bulkInsert(SongsProvider.SYNC_URI, new ContentValues[]{song(1), song(2, 2), song(3)});
+        mContentResolver.delete(SongsProvider.CONTENT_URI, SongsDatabase.Songs.KEY_SONG_ID + " = ?", new String[]{"1"});
+
+        assertEquals(Arrays.asList(INSERT + ":1", INSERT + ":2", UPDATE + ":2", INSERT + ":3", DELETE + ":1"),
+                getChanges(token));
+    }
+
+    @Test
+    public void changes_ofPartialUpdate_areRecordedOncePerSong() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Queen", "Bicycle Race")});
+        long token = getLastChangeToken();
+
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_NAME, "Innuendo");
+        assertEquals(2, mContentResolver.update(SongsProvider.CONTENT_URI, values, null, null));
+
+        // song 1 already had that name, so its fingerprint didn't change
+        assertEquals(Arrays.asList(UPDATE + ":2"), getChanges(token));
+        assertEquals(SongFingerprint.of("Queen", "Innuendo", 1), getFingerprint(2));
+    }
+
+    @Test
+    public void changes_ofSwap_areDifferencesOfTables() throws Exception {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1), song(2), song(3)});
+        long token = getLastChangeToken();
+
+        mContentResolver.delete(SongsProvider.SHADOW_URI, null, null);
+        mContentResolver.bulkInsert(SongsProvider.SHADOW_URI, new ContentValues[]{song(2), song(3, 2), song(4)});
+        assertTrue(getChanges(token).isEmpty());
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(SongsProvider.SHADOW_SWAP_URI).build());
+        mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+
+        assertEquals(Arrays.asList(DELETE + ":1", UPDATE + ":3", INSERT + ":4"), getChanges(token));
+    }
+
+    @Test
+    public void compaction_keepsLatestChangeOfEverySong() {
+        long token = getLastChangeToken();
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1), song(2)});
+        mContentResolver.bulkInsert(SongsProvider.SYNC_URI, new ContentValues[]{song(1, 2)});
+
+        assertTrue(mContentResolver.delete(SongsProvider.CHANGES_URI, null, null) >= 2);
+        assertEquals(Arrays.asList(DELETE + ":2", UPDATE + ":1"), getChanges(token));
+    }
+
+    /**
+     * @return song counts by author names
+     */
+    private Map<String, Integer> getAuthors() {
+        Cursor cursor = mContentResolver.query(SongsProvider.AUTHORS_URI,
+                new String[]{SongsDatabase.Authors.KEY_NAME, SongsDatabase.Authors.KEY_SONG_COUNT},
+                null, null, null);
+        Map<String, Integer> authors = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                authors.put(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return authors;
+    }
+
+    private long getAuthorId(String name) {
+        Cursor cursor = mContentResolver.query(SongsProvider.AUTHORS_URI,
+                new String[]{SongsDatabase.Authors.KEY__ID},
+                SongsDatabase.Authors.KEY_NAME + " = ?", new String[]{name}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void authors_areCountedAndSortedByName() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Coldplay", "Yellow"),
+                song(3, "Queen", "Bicycle Race")});
+
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("Coldplay", 1);
+        expected.put("Queen", 2);
+        assertEquals(expected, getAuthors());
+    }
+
+    @Test
+    public void authorSongs_areSongsOfTheAuthor() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(3, "Queen", "Innuendo"),
+                song(2, "Coldplay", "Yellow"),
+                song(1, "Queen", "Bicycle Race")});
+
+        Cursor cursor = mContentResolver.query(SongsProvider.getAuthorSongsUri(getAuthorId("Queen")),
+                new String[]{SongsDatabase.Songs.KEY_SONG_ID, SongsDatabase.Songs.KEY_AUTHOR}, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+            assertEquals("Queen", cursor.getString(1));
+            cursor.moveToNext();
+            assertEquals(3, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sync_resolvesAndPrunesAuthors() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Coldplay", "Yellow")});
+
+        mContentResolver.bulkInsert(SongsProvider.SYNC_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Coldplay", "Yellow"),
+                song(3, "Queen", "Bicycle Race")});
+        assertEquals(2, (int) getAuthors().get("Queen"));
+
+        mContentResolver.bulkInsert(SongsProvider.SYNC_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Queen", "Yellow")});
+        assertEquals(Collections.singletonMap("Queen", 2), getAuthors());
+        assertEquals(Arrays.asList(2L), search("queen yel"));
+    }
+
+    @Test
+    public void update_changesAuthor() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1, "Queen", "Innuendo")});
+
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_AUTHOR, "Freddie Mercury");
+        mContentResolver.update(SongsProvider.CONTENT_URI, values, null, null);
+
+        assertEquals(Collections.singletonMap("Freddie Mercury", 1), getAuthors());
+        assertEquals(Arrays.asList(1L), search("fred"));
+    }
+
+    /**
+     * Counts rows of authors table, including authors without songs which aren't queried by uri
+     */
+    private long countAuthorRows() {
+        SongsDatabase songsDatabase = new SongsDatabase(InstrumentationRegistry.getTargetContext());
+        try {
+            return DatabaseUtils.queryNumEntries(songsDatabase.getReadableDatabase(),
+                    SongsDatabase.Authors.TABLE_NAME);
+        } finally {
+            songsDatabase.close();
+        }
+    }
+
+    @Test
+    public void delete_prunesAuthors() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{
+                song(1, "Queen", "Innuendo"),
+                song(2, "Coldplay", "Yellow")});
+
+        mContentResolver.delete(SongsProvider.CONTENT_URI, SongsDatabase.Songs.KEY_SONG_ID + " = ?",
+                new String[]{"2"});
+
+        assertEquals(1, countAuthorRows());
+    }
+
+    @Test
+    public void update_prunesPreviousAuthor() {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(1, "Queen", "Innuendo")});
+
+        ContentValues values = new ContentValues();
+        values.put(SongsDatabase.Songs.KEY_AUTHOR, "Freddie Mercury");
+        mContentResolver.update(SongsProvider.CONTENT_URI, values, null, null);
+
+        assertEquals(1, countAuthorRows());
+    }
+
+    /**
+     * Measures prefix search over a 100k songs catalog
+     */
+    @Test
+    public void benchmark_searchLatency() {
+        String[] words = {"love", "night", "yellow", "river", "dance", "heart", "fire", "rain", "blue", "road"};
+        ContentValues[] values = new ContentValues[SEARCH_BENCHMARK_ROWS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = song(i,
+                    "author" + (i % 1000) + " " + words[(i / 7) % words.length],
+                    words[i % words.length] + " " + words[(i / 3) % words.length] + " " + i);
+        }
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, values);
+
+        String[] queries = {"l", "lo", "lov", "love", "love n", "love ni", "yellow riv", "author12", "blue road", "zzz"};
+        long startedAt = System.nanoTime();
+        long maxNanos = 0;
+        for (int i = 0; i < 10; i++) {
+            for (String query : queries) {
+                long queryStartedAt = System.nanoTime();
+                search(query);
+                maxNanos = Math.max(maxNanos, System.nanoTime() - queryStartedAt);
+            }
+        }
+        double meanMillis = (System.nanoTime() - startedAt) / 1e6 / (10 * queries.length);
+        Log.i(TAG, String.format("Search over %d songs: mean %.2f ms, max %.2f ms",
+                SEARCH_BENCHMARK_ROWS, meanMillis, maxNanos / 1e6));
+        assertTrue(meanMillis < 100);
+    }
+
+    /**
+     * Compares inserting rows one by one, each in its own transaction,
+     * with inserting them in one batch and with bulk insert
+     */
+    @Test
+    public void benchmark_insertThroughput() throws Exception {
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            mContentResolver.insert(SongsProvider.CONTENT_URI, song(i));
+        }
+        double oneByOne = rowsPerSecond(startedAt);
+        clearSongs();
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            batch.add(ContentProviderOperation.newInsert(SongsProvider.CONTENT_URI)
+                    .withValues(song(i))
+                    .build());
+        }
+        startedAt = System.nanoTime();
+        mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+        double applyBatch = rowsPerSecond(startedAt);
+        clearSongs();
+
+        ContentValues[] values = new ContentValues[BENCHMARK_ROWS];
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            values[i] = song(i);
+        }
+        startedAt = System.nanoTime();
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, values);
+        double bulkInsert = rowsPerSecond(startedAt);
+
+        Log.i(TAG, String.format("Rows per second: one by one %.0f, applyBatch %.0f, bulkInsert %.0f",
+                oneByOne, applyBatch, bulkInsert));
+        assertEquals(BENCHMARK_ROWS, countSongs());
+        assertTrue(applyBatch > oneByOne);
+        assertTrue(bulkInsert > oneByOne);
+    }
+
+    /**
+     * Measures latency of queries run while a large batch is being applied.
+     * With write-ahead logging readers don't wait for the batch to be committed
+     */
+    @Test
+    public void benchmark_readLatencyDuringBatch() throws Exception {
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, new ContentValues[]{song(-1)});
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_ROWS * 5; i++) {
+            batch.add(ContentProviderOperation.newInsert(SongsProvider.CONTENT_URI)
+                    .withValues(song(i))
+                    .build());
+        }
+        final CountDownLatch batchStarted = new CountDownLatch(1);
+        final AtomicBoolean batchFinished = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    batchStarted.countDown();
+                    mContentResolver.applyBatch(SongsProvider.AUTHORITY, batch);
+                } catch (Exception e) {
+                    Log.e(TAG, "Unable to apply batch", e);
+                } finally {
+                    batchFinished.set(true);
+                }
+            }
+        });
+        writer.start();
+        batchStarted.await();
+
+        int readsDuringBatch = 0;
+        long maxReadNanos = 0;
+        long totalReadNanos = 0;
+        while (!batchFinished.get()) {
+            long startedAt = System.nanoTime();
+            int count = countSongs();
+            long readNanos = System.nanoTime() - startedAt;
+            if (batchFinished.get()) {
+                break;
+            }
+            // uncommitted rows are never seen
+            assertEquals(1, count);
+            readsDuringBatch++;
+            maxReadNanos = Math.max(maxReadNanos, readNanos);
+            totalReadNanos += readNanos;
+        }
+        writer.join();
+
+        Log.i(TAG, String.format("Reads during batch: %d, mean %.2f ms, max %.2f ms",
+                readsDuringBatch,
+                readsDuringBatch == 0 ? 0 : totalReadNanos / 1e6 / readsDuringBatch,
+                maxReadNanos / 1e6));
+        assertEquals(BENCHMARK_ROWS * 5 + 1, countSongs());
+        assertTrue(readsDuringBatch > 0);
+    }
+
+    /**
+     * Measures set-based sync of a catalog where every third song changed
+     */
+    @Test
+    public void benchmark_syncThroughput() {
+        ContentValues[] values = new ContentValues[BENCHMARK_ROWS];
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            values[i] = song(i);
+        }
+        mContentResolver.bulkInsert(SongsProvider.CONTENT_URI, values);
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            values[i] = song(i + BENCHMARK_ROWS / 3, i % 3 == 0 ? 2 : 1);
+        }
+
+        long startedAt = System.nanoTime();
+        int changed = mContentResolver.bulkInsert(SongsProvider.SYNC_URI, values);
+        Log.i(TAG, String.format("Sync: %d rows changed, %.0f rows per second",
+                changed, rowsPerSecond(startedAt)));
+
+        assertEquals(BENCHMARK_ROWS, countSongs());
+    }
+
+    private static double rowsPerSecond(long startedAtNanos) {
+        return BENCHMARK_ROWS / ((System.nanoTime() - startedAtNanos) / 1e9);
+    }
+}
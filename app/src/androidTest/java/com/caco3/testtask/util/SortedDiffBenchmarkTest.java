@@ -0,0 +1,157 @@
+package com.caco3.testtask.util;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures {@link SortedDiff} and {@link ParallelSort} on the device
+ */
+@RunWith(AndroidJUnit4.class)
+public class SortedDiffBenchmarkTest {
+    private static final String TAG = "SortedDiffBenchmark";
+
+    private static final int SCALING_SIZE = 1000000;
+
+    private static final Comparator<Long> sDescending = new Comparator<Long>() {
+        @Override
+        public int compare(Long o1, Long o2) {
+            return o2.compareTo(o1);
+        }
+    };
+
+    /**
+     * Every 10th id is removed, every 10th is inserted and every 10th is changed
+     */
+    private static class ArraysCallback extends SortedDiff.Callback {
+        private final long[] mOldIds;
+        private final long[] mNewIds;
+
+        ArraysCallback(int size) {
+            mOldIds = new long[size];
+            mNewIds = new long[size];
+            for (int i = 0; i < size; i++) {
+                mOldIds[i] = i % 10 == 1 ? 10L * i + 1 : 10L * i;
+                mNewIds[i] = i % 10 == 2 ? 10L * i + 2 : 10L * i;
+            }
+        }
+
+        @Override
+        public int getOldSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public long getOldId(int oldIndex) {
+            return mOldIds[oldIndex];
+        }
+
+        @Override
+        public long getNewId(int newIndex) {
+            return mNewIds[newIndex];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldIndex, int newIndex) {
+            return oldIndex % 10 != 3;
+        }
+    }
+
+    @Test
+    public void benchmark_diff() {
+        for (int size : new int[]{10000, 100000, 1000000}) {
+            ArraysCallback callback = new ArraysCallback(size);
+            // warm up
+            SortedDiff.diff(callback);
+
+            long startedAt = System.nanoTime();
+            int operations = SortedDiff.diff(callback);
+            long elapsedUs = (System.nanoTime() - startedAt) / 1000;
+
+            // removed and inserted ones of the 1st and the 2nd ids of every ten, changed 3rd ones
+            assertEquals(size / 10 * 5, operations);
+            Log.i(TAG, "Diffed " + size + " items in " + elapsedUs + " us, "
+                    + operations + " operations");
+        }
+    }
+
+    /**
+     * Sorts shuffled ids descending and diffs them with the previous ids
+     * on 1, 2, 4 and 8 threads, every result must be the same as the serial one
+     */
+    @Test
+    public void benchmark_parallelScaling() {
+        final List<Long> oldIds = new ArrayList<>(SCALING_SIZE);
+        List<Long> shuffled = new ArrayList<>(SCALING_SIZE);
+        for (long i = 0; i < SCALING_SIZE; i++) {
+            oldIds.add(10 * (SCALING_SIZE - i));
+            shuffled.add(i % 10 == 1 ? 10 * i + 1 : 10 * i);
+        }
+        Collections.shuffle(shuffled, new Random(42));
+
+        int serialOperations = -1;
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Long> newIds = new ArrayList<>(shuffled);
+                long startedAt = System.nanoTime();
+                ParallelSort.sort(newIds, sDescending, executor, threads);
+                long sortedAt = System.nanoTime();
+                int operations = SortedDiff.diff(new SortedDiff.Callback() {
+                    @Override
+                    public int getOldSize() {
+                        return oldIds.size();
+                    }
+
+                    @Override
+                    public int getNewSize() {
+                        return newIds.size();
+                    }
+
+                    @Override
+                    public long getOldId(int oldIndex) {
+                        return oldIds.get(oldIndex);
+                    }
+
+                    @Override
+                    public long getNewId(int newIndex) {
+                        return newIds.get(newIndex);
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldIndex, int newIndex) {
+                        return true;
+                    }
+                }, true /* descending */, executor, threads);
+                long diffedAt = System.nanoTime();
+
+                if (serialOperations < 0) {
+                    serialOperations = operations;
+                }
+                assertEquals(serialOperations, operations);
+                Log.i(TAG, threads + " threads: sorted " + SCALING_SIZE + " ids in "
+                        + (sortedAt - startedAt) / 1000000 + " ms, diffed in "
+                        + (diffedAt - sortedAt) / 1000000 + " ms, " + operations + " operations");
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
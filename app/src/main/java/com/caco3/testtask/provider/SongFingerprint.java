@@ -0,0 +1,54 @@
+package com.caco3.testtask.provider;
+
+/**
+ * 64-bit fingerprint of the content of a song, i.e. of everything but its id.
+ * Stored in {@link SongsDatabase.Songs#KEY_FINGERPRINT} when a song is written,
+ * so whether a song was changed is decided by comparing two longs
+ * instead of loading the song and comparing its strings.
+ *
+ * It's 64-bit FNV-1a over characters of the author, the name and the version.
+ * Lengths of strings are mixed in too, so ("ab", "c") and ("a", "bc") differ.
+ * Songs with different content get the same fingerprint with probability about 2^-64,
+ * such a change would be missed until the song is changed once more.
+ *
+ * The value is stored, so the function must never change without recomputing stored fingerprints
+ */
+public final class SongFingerprint {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    /**
+     * @param author of the song, may be null
+     * @param name of the song, may be null
+     * @param version of the song
+     * @return fingerprint of the song
+     */
+    public static long of(String author, String name, long version){
+        long hash = OFFSET_BASIS;
+        hash = mix(hash, author);
+        hash = mix(hash, name);
+        return mix(hash, version);
+    }
+
+    private static long mix(long hash, String s){
+        if (s == null){
+            return mix(hash, -1L);
+        }
+        for (int i = 0; i < s.length(); i++){
+            hash = (hash ^ s.charAt(i)) * PRIME;
+        }
+        return mix(hash, s.length());
+    }
+
+    private static long mix(long hash, long value){
+        for (int i = 0; i < 8; i++){
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private SongFingerprint(){
+        throw new AssertionError(SongFingerprint.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
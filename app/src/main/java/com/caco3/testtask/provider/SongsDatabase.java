@@ -1,15 +1,24 @@
 package com.caco3.testtask.provider;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.caco3.testtask.songsApi.SongsApi;
 
 import static com.caco3.testtask.util.LogUtils.*;
 
+/**
+ * Opens songs database in write-ahead logging mode:
+ * readers see the last committed state and run on their own connections
+ * while a writer is in transaction, so UI queries don't wait for a long sync
+ */
 public class SongsDatabase extends SQLiteOpenHelper {
     private static final String TAG = makeLogTag(SongsDatabase.class);
 
-    private static final int DB_VERSION = 3;
+    /* package */ static final int DB_VERSION = 8;
 
     private static final String DB_NAME = "songs.db";
 
@@ -18,33 +27,473 @@ public class SongsDatabase extends SQLiteOpenHelper {
      */
     public static class Songs{
         public static final String TABLE_NAME = "songs";
+
+        /**
+         * Table with the same schema as 'songs' where full resync builds the new catalog.
+         * It's swapped with 'songs' when resync is finished.
+         * {@see {@link SongsDatabase#swapShadowTable(SQLiteDatabase)}}
+         */
+        public static final String SHADOW_TABLE_NAME = "songs_shadow";
+
+        /**
+         * Full-text index of names and authors of 'songs'.
+         * Its docid is {@link #KEY__ID} of the song
+         */
+        public static final String FTS_TABLE_NAME = "songs_fts";
+
+        /**
+         * View of 'songs' joined with 'authors', it has {@link #KEY_AUTHOR} column
+         * instead of {@link #KEY_AUTHOR_ID}
+         */
+        public static final String VIEW_NAME = "songs_with_authors";
         public static final String KEY__ID = "_id";
         public static final String KEY_NAME = "name";
+
+        /**
+         * Name of the author. Not stored in 'songs' table, see {@link #VIEW_NAME}
+         */
         public static final String KEY_AUTHOR = "author";
+
+        /**
+         * {@link Authors#KEY__ID} of the author or null if author is unknown
+         */
+        public static final String KEY_AUTHOR_ID = "author_id";
         public static final String KEY_VERSION = "version";
         public static final String KEY_SONG_ID = "song_id";
+
+        /**
+         * {@link SongFingerprint} of author, name and version, set when the song is written.
+         * Changed songs are found by comparing it
+         */
+        public static final String KEY_FINGERPRINT = "fingerprint";
+    }
+
+    /**
+     * Contains constants for 'authors' table.
+     * Every author name is stored once and referenced by songs
+     */
+    public static class Authors{
+        public static final String TABLE_NAME = "authors";
+        public static final String KEY__ID = "_id";
+        public static final String KEY_NAME = "name";
+
+        /**
+         * Number of songs of the author.
+         * Not stored, computed when authors are queried
+         */
+        public static final String KEY_SONG_COUNT = "song_count";
+    }
+
+    /**
+     * Contains constants for 'song_changes' table.
+     * Every insert, update and delete of 'songs' is recorded there by triggers,
+     * so consumers apply changes since the token they saw last instead of reading all songs.
+     * Only the latest change of every song is kept by compaction,
+     * so insert and update must be both treated as 'insert or replace'
+     */
+    public static class Changes{
+        public static final String TABLE_NAME = "song_changes";
+
+        /**
+         * Sequence number of the change. It only grows and is never reused,
+         * it's the change token passed to get changes made after it
+         */
+        public static final String KEY__ID = "_id";
+
+        /**
+         * {@link Songs#KEY_SONG_ID} of the song changed
+         */
+        public static final String KEY_SONG_ID = "song_id";
+
+        /**
+         * One of {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE}, {@link #OPERATION_DELETE}
+         */
+        public static final String KEY_OPERATION = "operation";
+
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+    }
+
+    /**
+     * Contains constants for 'sync_state' table.
+     * It holds named values describing state of songs synchronization,
+     * e.g. {@link #WATERMARK}
+     */
+    public static class SyncState{
+        public static final String TABLE_NAME = "sync_state";
+        public static final String KEY_NAME = "name";
+        public static final String KEY_VALUE = "value";
+
+        /**
+         * Watermark of the last delta applied to 'songs' table
+         */
+        public static final String WATERMARK = "watermark";
+
+        /**
+         * Watermark to save when full resync in progress is finished
+         */
+        public static final String RESYNC_WATERMARK = "resync_watermark";
+
+        /**
+         * Id of the last song committed by full resync in progress.
+         * Present only while resync is in progress
+         */
+        public static final String RESYNC_AFTER_ID = "resync_after_id";
+
+        /**
+         * Token of the latest change removed by compaction.
+         * Changes after older tokens can't be told, consumers must read all songs again
+         */
+        public static final String CHANGES_FLOOR = "changes_floor";
+
+        /**
+         * Time in milliseconds the server last answered that it doesn't serve changes.
+         * Absent if it does or if it wasn't asked yet
+         */
+        public static final String CHANGES_UNSUPPORTED_AT = "changes_unsupported_at";
     }
 
     public SongsDatabase(Context context){
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME);
+    }
+
+    /**
+     * @param context to open database with
+     * @param name of the database file, e.g. a test one
+     */
+    /* package */ SongsDatabase(Context context, String name){
+        super(context, name, null, DB_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            // readers see the last commit instead of waiting for the writer to finish
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         LOGI(TAG, "onCreate()");
-        db.execSQL("CREATE TABLE " + Songs.TABLE_NAME + "("
-                + Songs.KEY__ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + Songs.KEY_AUTHOR + " TEXT, "
-                + Songs.KEY_NAME + " TEXT, "
-                + Songs.KEY_VERSION + " INTEGER, "
-                + Songs.KEY_SONG_ID + " INTEGER UNIQUE"
+        createAuthorsTable(db);
+        createSongsTable(db, Songs.TABLE_NAME);
+        createSongsView(db);
+        createChangesTable(db);
+        createChangesTriggers(db);
+        db.execSQL("CREATE TABLE " + SyncState.TABLE_NAME + "("
+                + SyncState.KEY_NAME + " TEXT PRIMARY KEY, "
+                + SyncState.KEY_VALUE + " TEXT"
                 + ")");
     }
 
+    /**
+     * Upgrades schema in place with {@link SongsMigrations}, keeping songs and sync state.
+     * Shadow table of resync in progress is dropped instead of being migrated,
+     * {@link #onOpen(SQLiteDatabase)} restarts the resync.
+     * Databases too old to be migrated are recreated
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        LOGI(TAG, "onUpgrade()");
-        db.execSQL("DROP TABLE IF EXISTS " + Songs.TABLE_NAME);
+        LOGI(TAG, "onUpgrade() from " + oldVersion + " to " + newVersion);
+        dropSongsTable(db, Songs.SHADOW_TABLE_NAME);
+        if (SongsMigrations.canMigrate(oldVersion, newVersion)){
+            SongsMigrations.migrate(db, oldVersion, newVersion);
+            return;
+        }
+        LOGI(TAG, "Unable to migrate from " + oldVersion + ", recreating database");
+        db.execSQL("DROP VIEW IF EXISTS " + Songs.VIEW_NAME);
+        dropSongsTable(db, Songs.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + Authors.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + Changes.TABLE_NAME);
+        // watermark is meaningless without songs it was reached with
+        db.execSQL("DROP TABLE IF EXISTS " + SyncState.TABLE_NAME);
         onCreate(db);
     }
+
+    /**
+     * Enables write-ahead logging on versions where it can't be enabled before opening.
+     * Reconciles shadow table with the state of full resync left by the previous process:
+     * drops shadow table nobody is going to finish, e.g. if the process died
+     * right after the resync was finished or cancelled, and restarts resync from the first page
+     * if its shadow table is lost
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (db.isReadOnly()){
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN){
+            db.enableWriteAheadLogging();
+        }
+        boolean hasShadowTable = hasShadowTable(db);
+        boolean isResyncInProgress = DatabaseUtils.queryNumEntries(db, SyncState.TABLE_NAME,
+                SyncState.KEY_NAME + " = ?", new String[]{SyncState.RESYNC_AFTER_ID}) > 0;
+        if (hasShadowTable && !isResyncInProgress){
+            LOGI(TAG, "Dropping orphaned " + Songs.SHADOW_TABLE_NAME);
+            dropSongsTable(db, Songs.SHADOW_TABLE_NAME);
+        } else if (!hasShadowTable && isResyncInProgress){
+            LOGI(TAG, "Shadow table of resync in progress is lost, restarting resync");
+            db.beginTransaction();
+            try {
+                resetShadowTable(db);
+                db.execSQL("UPDATE " + SyncState.TABLE_NAME + " SET " + SyncState.KEY_VALUE + " = ?"
+                                + " WHERE " + SyncState.KEY_NAME + " = ?",
+                        new Object[]{SongsApi.FIRST_PAGE_AFTER_ID, SyncState.RESYNC_AFTER_ID});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /* package */ static void createAuthorsTable(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE " + Authors.TABLE_NAME + "("
+                + Authors.KEY__ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Authors.KEY_NAME + " TEXT NOT NULL UNIQUE"
+                + ")");
+    }
+
+    /**
+     * AUTOINCREMENT, so tokens of compacted changes are never reused
+     */
+    /* package */ static void createChangesTable(SQLiteDatabase db){
+        db.execSQL("CREATE TABLE " + Changes.TABLE_NAME + "("
+                + Changes.KEY__ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Changes.KEY_SONG_ID + " INTEGER NOT NULL, "
+                + Changes.KEY_OPERATION + " INTEGER NOT NULL"
+                + ")");
+    }
+
+    /**
+     * Creates triggers recording changes of 'songs'. The shadow table has no such triggers,
+     * changes made by resync are recorded when it's swapped in.
+     * Updates which don't change content, i.e. fingerprint, aren't recorded
+     */
+    /* package */ static void createChangesTriggers(SQLiteDatabase db){
+        String insertChange = "INSERT INTO " + Changes.TABLE_NAME
+                + "(" + Changes.KEY_SONG_ID + ", " + Changes.KEY_OPERATION + ")";
+        db.execSQL("CREATE TRIGGER " + Changes.TABLE_NAME + "_insert AFTER INSERT ON " + Songs.TABLE_NAME + " BEGIN "
+                + insertChange + " VALUES (new." + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_INSERT + "); "
+                + "END");
+        db.execSQL("CREATE TRIGGER " + Changes.TABLE_NAME + "_update AFTER UPDATE ON " + Songs.TABLE_NAME
+                + " WHEN old." + Songs.KEY_FINGERPRINT + " IS NOT new." + Songs.KEY_FINGERPRINT
+                + " OR old." + Songs.KEY_SONG_ID + " IS NOT new." + Songs.KEY_SONG_ID + " BEGIN "
+                + insertChange + " SELECT old." + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_DELETE
+                + " WHERE old." + Songs.KEY_SONG_ID + " IS NOT new." + Songs.KEY_SONG_ID + "; "
+                + insertChange + " VALUES (new." + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_UPDATE + "); "
+                + "END");
+        db.execSQL("CREATE TRIGGER " + Changes.TABLE_NAME + "_delete AFTER DELETE ON " + Songs.TABLE_NAME + " BEGIN "
+                + insertChange + " VALUES (old." + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_DELETE + "); "
+                + "END");
+    }
+
+    /**
+     * Records differences between 'songs' and the shadow table about to replace it
+     * with three set-based statements, since renaming doesn't fire triggers
+     */
+    private static void recordShadowTableChanges(SQLiteDatabase db){
+        String songs = Songs.TABLE_NAME;
+        String shadow = Songs.SHADOW_TABLE_NAME;
+        String insertChange = "INSERT INTO " + Changes.TABLE_NAME
+                + "(" + Changes.KEY_SONG_ID + ", " + Changes.KEY_OPERATION + ")";
+        db.execSQL(insertChange + " SELECT " + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_DELETE
+                + " FROM " + songs + " WHERE " + Songs.KEY_SONG_ID
+                + " NOT IN (SELECT " + Songs.KEY_SONG_ID + " FROM " + shadow + ")");
+        db.execSQL(insertChange + " SELECT n." + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_UPDATE
+                + " FROM " + shadow + " n JOIN " + songs + " o ON o." + Songs.KEY_SONG_ID + " = n." + Songs.KEY_SONG_ID
+                + " WHERE o." + Songs.KEY_FINGERPRINT + " IS NOT n." + Songs.KEY_FINGERPRINT);
+        db.execSQL(insertChange + " SELECT " + Songs.KEY_SONG_ID + ", " + Changes.OPERATION_INSERT
+                + " FROM " + shadow + " WHERE " + Songs.KEY_SONG_ID
+                + " NOT IN (SELECT " + Songs.KEY_SONG_ID + " FROM " + songs + ")");
+    }
+
+    /**
+     * Keeps only the latest change of every song and at most maxChanges changes.
+     * When older changes are removed, {@link SyncState#CHANGES_FLOOR} is raised,
+     * so consumers holding tokens before it read all songs again.
+     * Must be called in transaction
+     * @param db to compact changes in
+     * @param maxChanges number of the latest changes to keep
+     * @return number of changes removed
+     */
+    /* package */ static int compactChanges(SQLiteDatabase db, int maxChanges){
+        int removed = db.delete(Changes.TABLE_NAME, Changes.KEY__ID + " NOT IN (SELECT MAX(" + Changes.KEY__ID + ")"
+                + " FROM " + Changes.TABLE_NAME + " GROUP BY " + Changes.KEY_SONG_ID + ")", null);
+        long count = DatabaseUtils.queryNumEntries(db, Changes.TABLE_NAME);
+        if (count > maxChanges){
+            long floor = DatabaseUtils.longForQuery(db, "SELECT " + Changes.KEY__ID + " FROM " + Changes.TABLE_NAME
+                    + " ORDER BY " + Changes.KEY__ID + " LIMIT 1 OFFSET " + (count - maxChanges - 1), null);
+            removed += db.delete(Changes.TABLE_NAME, Changes.KEY__ID + " <= ?", new String[]{String.valueOf(floor)});
+            db.execSQL("INSERT OR REPLACE INTO " + SyncState.TABLE_NAME
+                            + "(" + SyncState.KEY_NAME + ", " + SyncState.KEY_VALUE + ") VALUES (?, ?)",
+                    new Object[]{SyncState.CHANGES_FLOOR, floor});
+        }
+        return removed;
+    }
+
+    /**
+     * Creates table for songs and its full-text index.
+     * The same statements are used for 'songs' and its shadow, so they can be swapped
+     * @param db to create table in
+     * @param table name of the table
+     */
+    private static void createSongsTable(SQLiteDatabase db, String table){
+        db.execSQL(createSongsTableStatement(table));
+        createSearchIndex(db, table);
+    }
+
+    /**
+     * Songs of an author are found by the (author_id, song_id) index.
+     * It's declared as a constraint, so SQLite renames it with the table
+     * when the shadow table is swapped in. Song ids are unique, so the constraint never fails.
+     * @param table name of the table
+     * @return statement creating table for songs
+     */
+    /* package */ static String createSongsTableStatement(String table){
+        return "CREATE TABLE " + table + "("
+                + Songs.KEY__ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Songs.KEY_AUTHOR_ID + " INTEGER REFERENCES " + Authors.TABLE_NAME + "(" + Authors.KEY__ID + "), "
+                + Songs.KEY_NAME + " TEXT, "
+                + Songs.KEY_VERSION + " INTEGER, "
+                + Songs.KEY_SONG_ID + " INTEGER UNIQUE, "
+                + Songs.KEY_FINGERPRINT + " INTEGER, "
+                + "UNIQUE (" + Songs.KEY_AUTHOR_ID + ", " + Songs.KEY_SONG_ID + ")"
+                + ")";
+    }
+
+    /**
+     * The view refers to 'songs' by name, so it's recreated when tables are swapped
+     */
+    /* package */ static void createSongsView(SQLiteDatabase db){
+        db.execSQL("CREATE VIEW " + Songs.VIEW_NAME + " AS SELECT "
+                + "s." + Songs.KEY__ID + " AS " + Songs.KEY__ID + ", "
+                + "a." + Authors.KEY_NAME + " AS " + Songs.KEY_AUTHOR + ", "
+                + "s." + Songs.KEY_NAME + " AS " + Songs.KEY_NAME + ", "
+                + "s." + Songs.KEY_VERSION + " AS " + Songs.KEY_VERSION + ", "
+                + "s." + Songs.KEY_SONG_ID + " AS " + Songs.KEY_SONG_ID + ", "
+                + "s." + Songs.KEY_AUTHOR_ID + " AS " + Songs.KEY_AUTHOR_ID + ", "
+                + "s." + Songs.KEY_FINGERPRINT + " AS " + Songs.KEY_FINGERPRINT
+                + " FROM " + Songs.TABLE_NAME + " s LEFT JOIN " + Authors.TABLE_NAME + " a"
+                + " ON a." + Authors.KEY__ID + " = s." + Songs.KEY_AUTHOR_ID);
+    }
+
+    /**
+     * @param table {@link Songs#TABLE_NAME} or {@link Songs#SHADOW_TABLE_NAME}
+     * @return name of full-text index of the table
+     */
+    private static String ftsTableOf(String table){
+        return table + "_fts";
+    }
+
+    /**
+     * Creates full-text index of names and authors of songs in the table, fills it
+     * with songs already present and creates triggers keeping it up to date with the table.
+     *
+     * FTS4 with the default tokenizer is used, since external content tables and
+     * unicode61 tokenizer aren't available in SQLite shipped with api level 15.
+     * @param db to create index in
+     * @param table name of songs table to index
+     */
+    private static void createSearchIndex(SQLiteDatabase db, String table){
+        String fts = ftsTableOf(table);
+        db.execSQL("CREATE VIRTUAL TABLE " + fts + " USING fts4("
+                + Songs.KEY_NAME + ", " + Songs.KEY_AUTHOR + ")");
+        db.execSQL("INSERT INTO " + fts + "(docid, " + Songs.KEY_NAME + ", " + Songs.KEY_AUTHOR + ")"
+                + " SELECT s." + Songs.KEY__ID + ", s." + Songs.KEY_NAME + ", a." + Authors.KEY_NAME
+                + " FROM " + table + " s LEFT JOIN " + Authors.TABLE_NAME + " a"
+                + " ON a." + Authors.KEY__ID + " = s." + Songs.KEY_AUTHOR_ID);
+        createSearchIndexTriggers(db, table);
+    }
+
+    /* package */ static void createSearchIndexTriggers(SQLiteDatabase db, String table){
+        String fts = ftsTableOf(table);
+        String authorName = "(SELECT " + Authors.KEY_NAME + " FROM " + Authors.TABLE_NAME
+                + " WHERE " + Authors.KEY__ID + " = new." + Songs.KEY_AUTHOR_ID + ")";
+        db.execSQL("CREATE TRIGGER " + table + "_fts_insert AFTER INSERT ON " + table + " BEGIN "
+                + "INSERT INTO " + fts + "(docid, " + Songs.KEY_NAME + ", " + Songs.KEY_AUTHOR + ")"
+                + " VALUES (new." + Songs.KEY__ID + ", new." + Songs.KEY_NAME + ", " + authorName + "); "
+                + "END");
+        db.execSQL("CREATE TRIGGER " + table + "_fts_update AFTER UPDATE OF "
+                + Songs.KEY_NAME + ", " + Songs.KEY_AUTHOR_ID + " ON " + table + " BEGIN "
+                + "UPDATE " + fts + " SET " + Songs.KEY_NAME + " = new." + Songs.KEY_NAME + ", "
+                + Songs.KEY_AUTHOR + " = " + authorName
+                + " WHERE docid = old." + Songs.KEY__ID + "; "
+                + "END");
+        db.execSQL("CREATE TRIGGER " + table + "_fts_delete AFTER DELETE ON " + table + " BEGIN "
+                + "DELETE FROM " + fts + " WHERE docid = old." + Songs.KEY__ID + "; "
+                + "END");
+    }
+
+    /**
+     * Triggers reference the index by name, so they can't survive renaming
+     */
+    /* package */ static void dropSearchIndexTriggers(SQLiteDatabase db, String table){
+        db.execSQL("DROP TRIGGER IF EXISTS " + table + "_fts_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS " + table + "_fts_update");
+        db.execSQL("DROP TRIGGER IF EXISTS " + table + "_fts_delete");
+    }
+
+    /**
+     * Drops songs table with its full-text index, triggers are dropped with the table
+     */
+    private static void dropSongsTable(SQLiteDatabase db, String table){
+        db.execSQL("DROP TABLE IF EXISTS " + table);
+        db.execSQL("DROP TABLE IF EXISTS " + ftsTableOf(table));
+    }
+
+    /* package */ static boolean hasShadowTable(SQLiteDatabase db){
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{Songs.SHADOW_TABLE_NAME}) > 0;
+    }
+
+    /**
+     * Replaces shadow table with the new empty one
+     * @param db to reset shadow table in
+     */
+    /* package */ static void resetShadowTable(SQLiteDatabase db){
+        dropSongsTable(db, Songs.SHADOW_TABLE_NAME);
+        createSongsTable(db, Songs.SHADOW_TABLE_NAME);
+    }
+
+    /**
+     * Replaces 'songs' table and its full-text index with the shadow ones by renaming.
+     * Differences between the tables are recorded as changes.
+     * Authors referenced only by the old songs are deleted.
+     * Renaming takes the same time no matter how many songs there are,
+     * so readers see the old catalog until the swap is committed and the new one right after it.
+     * Must be called in transaction
+     * @param db to swap tables in
+     * @throws IllegalStateException if there is no shadow table
+     */
+    /* package */ static void swapShadowTable(SQLiteDatabase db){
+        if (!hasShadowTable(db)){
+            throw new IllegalStateException("There is no " + Songs.SHADOW_TABLE_NAME + " to swap");
+        }
+        recordShadowTableChanges(db);
+        db.execSQL("DROP VIEW " + Songs.VIEW_NAME);
+        dropSongsTable(db, Songs.TABLE_NAME);
+        dropSearchIndexTriggers(db, Songs.SHADOW_TABLE_NAME);
+        db.execSQL("ALTER TABLE " + Songs.SHADOW_TABLE_NAME + " RENAME TO " + Songs.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + ftsTableOf(Songs.SHADOW_TABLE_NAME) + " RENAME TO " + Songs.FTS_TABLE_NAME);
+        createSearchIndexTriggers(db, Songs.TABLE_NAME);
+        createChangesTriggers(db);
+        createSongsView(db);
+        pruneAuthors(db);
+        LOGI(TAG, "Swapped " + Songs.SHADOW_TABLE_NAME + " in");
+    }
+
+    /**
+     * Deletes authors having no songs in 'songs' table and in its shadow.
+     * Must be called in transaction
+     * @param db to delete authors from
+     * @return number of authors deleted
+     */
+    /* package */ static int pruneAuthors(SQLiteDatabase db){
+        String where = Authors.KEY__ID + " NOT IN (SELECT " + Songs.KEY_AUTHOR_ID + " FROM " + Songs.TABLE_NAME
+                + " WHERE " + Songs.KEY_AUTHOR_ID + " IS NOT NULL)";
+        if (hasShadowTable(db)){
+            where += " AND " + Authors.KEY__ID + " NOT IN (SELECT " + Songs.KEY_AUTHOR_ID
+                    + " FROM " + Songs.SHADOW_TABLE_NAME + " WHERE " + Songs.KEY_AUTHOR_ID + " IS NOT NULL)";
+        }
+        return db.delete(Authors.TABLE_NAME, where, null);
+    }
 }
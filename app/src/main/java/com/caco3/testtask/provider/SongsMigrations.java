@@ -0,0 +1,209 @@
+package com.caco3.testtask.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import static com.caco3.testtask.util.LogUtils.*;
+
+/**
+ * Ordered steps upgrading {@link SongsDatabase} schema in place,
+ * so existing songs and sync state survive app updates
+ * and users don't have to download the whole catalog again.
+ *
+ * Every step upgrades schema from one version to the next one.
+ * When schema is changed, {@link SongsDatabase#DB_VERSION} is incremented,
+ * {@link SongsDatabase#onCreate(SQLiteDatabase)} is changed to create the new schema
+ * and the step reaching it is appended to {@link #sMigrations}.
+ * Steps are never changed after they are released. The last step may reuse statements
+ * creating the current schema, it's rewritten with literal statements when the schema changes again.
+ */
+/* package */ final class SongsMigrations {
+    private static final String TAG = makeLogTag(SongsMigrations.class);
+
+    /**
+     * Upgrades schema from one version to the next one.
+     * Runs in the transaction of the whole upgrade
+     */
+    /* package */ interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * The oldest version which can be upgraded in place.
+     * Older databases are recreated
+     */
+    /* package */ static final int FIRST_MIGRATABLE_VERSION = 3;
+
+    /**
+     * sMigrations[i] upgrades schema from version {@link #FIRST_MIGRATABLE_VERSION} + i
+     */
+    private static final Migration[] sMigrations = {
+            // 3 -> 4: sync state for delta sync and resumable resync
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SongsDatabase.SyncState.TABLE_NAME + "("
+                            + SongsDatabase.SyncState.KEY_NAME + " TEXT PRIMARY KEY, "
+                            + SongsDatabase.SyncState.KEY_VALUE + " TEXT"
+                            + ")");
+                }
+            },
+            // 4 -> 5: full-text search over names and authors
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE songs_fts USING fts4(name, author)");
+                    db.execSQL("INSERT INTO songs_fts(docid, name, author) SELECT _id, name, author FROM songs");
+                    db.execSQL("CREATE TRIGGER songs_fts_insert AFTER INSERT ON songs BEGIN "
+                            + "INSERT INTO songs_fts(docid, name, author) VALUES (new._id, new.name, new.author); "
+                            + "END");
+                    db.execSQL("CREATE TRIGGER songs_fts_update AFTER UPDATE OF name, author ON songs BEGIN "
+                            + "UPDATE songs_fts SET name = new.name, author = new.author WHERE docid = old._id; "
+                            + "END");
+                    db.execSQL("CREATE TRIGGER songs_fts_delete AFTER DELETE ON songs BEGIN "
+                            + "DELETE FROM songs_fts WHERE docid = old._id; "
+                            + "END");
+                }
+            },
+            // 5 -> 6: authors are stored once in their own table and referenced by songs.
+            // SQLite can't drop columns, so songs are copied to the new table.
+            // Ids of songs are kept, so the full-text index stays valid
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE authors("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "name TEXT NOT NULL UNIQUE"
+                            + ")");
+                    db.execSQL("INSERT INTO authors(name)"
+                            + " SELECT DISTINCT author FROM songs WHERE author IS NOT NULL");
+                    db.execSQL("CREATE TABLE songs_v6("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "author_id INTEGER REFERENCES authors(_id), "
+                            + "name TEXT, "
+                            + "version INTEGER, "
+                            + "song_id INTEGER UNIQUE, "
+                            + "UNIQUE (author_id, song_id)"
+                            + ")");
+                    db.execSQL("INSERT INTO songs_v6(_id, author_id, name, version, song_id)"
+                            + " SELECT s._id, a._id, s.name, s.version, s.song_id"
+                            + " FROM songs s LEFT JOIN authors a ON a.name = s.author");
+                    db.execSQL("DROP TABLE songs");
+                    db.execSQL("ALTER TABLE songs_v6 RENAME TO songs");
+                    String authorName = "(SELECT name FROM authors WHERE _id = new.author_id)";
+                    db.execSQL("CREATE TRIGGER songs_fts_insert AFTER INSERT ON songs BEGIN "
+                            + "INSERT INTO songs_fts(docid, name, author)"
+                            + " VALUES (new._id, new.name, " + authorName + "); "
+                            + "END");
+                    db.execSQL("CREATE TRIGGER songs_fts_update AFTER UPDATE OF name, author_id ON songs BEGIN "
+                            + "UPDATE songs_fts SET name = new.name, author = " + authorName
+                            + " WHERE docid = old._id; "
+                            + "END");
+                    db.execSQL("CREATE TRIGGER songs_fts_delete AFTER DELETE ON songs BEGIN "
+                            + "DELETE FROM songs_fts WHERE docid = old._id; "
+                            + "END");
+                    db.execSQL("CREATE VIEW songs_with_authors AS SELECT "
+                            + "s._id AS _id, a.name AS author, s.name AS name, s.version AS version, "
+                            + "s.song_id AS song_id, s.author_id AS author_id"
+                            + " FROM songs s LEFT JOIN authors a ON a._id = s.author_id");
+                }
+            },
+            // 6 -> 7: fingerprints of song content.
+            // SQLite can't compute them, so they are computed here for songs already present
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP VIEW songs_with_authors");
+                    db.execSQL("ALTER TABLE songs ADD COLUMN fingerprint INTEGER");
+                    db.execSQL("CREATE VIEW songs_with_authors AS SELECT "
+                            + "s._id AS _id, a.name AS author, s.name AS name, s.version AS version, "
+                            + "s.song_id AS song_id, s.author_id AS author_id, s.fingerprint AS fingerprint"
+                            + " FROM songs s LEFT JOIN authors a ON a._id = s.author_id");
+                    Cursor cursor = db.rawQuery("SELECT s._id, a.name, s.name, s.version"
+                            + " FROM songs s LEFT JOIN authors a ON a._id = s.author_id", null);
+                    SQLiteStatement statement = db.compileStatement("UPDATE songs SET fingerprint = ? WHERE _id = ?");
+                    try {
+                        while (cursor.moveToNext()){
+                            statement.bindLong(1, fingerprintV7(cursor.getString(1), cursor.getString(2),
+                                    cursor.getLong(3)));
+                            statement.bindLong(2, cursor.getLong(0));
+                            statement.execute();
+                        }
+                    } finally {
+                        statement.close();
+                        cursor.close();
+                    }
+                }
+            },
+            // 7 -> 8: log of changes of songs for incremental consumers
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    SongsDatabase.createChangesTable(db);
+                    SongsDatabase.createChangesTriggers(db);
+                }
+            },
+    };
+
+    /**
+     * {@link SongFingerprint} as it was at version 7: 64-bit FNV-1a over the author, the name
+     * and the version, with lengths of strings mixed in and -1 for null strings.
+     * Frozen, so the step computes what version 7 stored even if the fingerprint changes later
+     */
+    private static long fingerprintV7(String author, String name, long version){
+        long hash = 0xcbf29ce484222325L;
+        hash = mixV7(hash, author);
+        hash = mixV7(hash, name);
+        return mixV7(hash, version);
+    }
+
+    private static long mixV7(long hash, String s){
+        if (s == null){
+            return mixV7(hash, -1L);
+        }
+        for (int i = 0; i < s.length(); i++){
+            hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return mixV7(hash, s.length());
+    }
+
+    private static long mixV7(long hash, long value){
+        for (int i = 0; i < 8; i++){
+            hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if there are steps upgrading schema from oldVersion to newVersion
+     */
+    /* package */ static boolean canMigrate(int oldVersion, int newVersion){
+        return oldVersion >= FIRST_MIGRATABLE_VERSION
+                && oldVersion <= newVersion
+                && newVersion <= FIRST_MIGRATABLE_VERSION + sMigrations.length;
+    }
+
+    /**
+     * Applies steps upgrading schema from oldVersion to newVersion in order.
+     * Must be called in transaction, so the upgrade is applied completely or not at all
+     * @param db to upgrade
+     * @param oldVersion current version of the schema
+     * @param newVersion version to upgrade to
+     * @throws IllegalArgumentException if there are no such steps
+     */
+    /* package */ static void migrate(SQLiteDatabase db, int oldVersion, int newVersion){
+        if (!canMigrate(oldVersion, newVersion)){
+            throw new IllegalArgumentException("Unable to migrate from " + oldVersion + " to " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++){
+            LOGI(TAG, "Migrating from " + version + " to " + (version + 1));
+            sMigrations[version - FIRST_MIGRATABLE_VERSION].migrate(db);
+        }
+    }
+
+    private SongsMigrations(){
+        throw new AssertionError(SongsMigrations.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
@@ -1,15 +1,23 @@
 package com.caco3.testtask.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.caco3.testtask.util.LogUtils.*;
 
@@ -18,23 +26,207 @@ public class SongsProvider extends ContentProvider {
 
     private static final String SONG_TYPE = "com.caco3.testtask.datatype.song";
 
+    private static final String SYNC_STATE_TYPE = "com.caco3.testtask.datatype.sync_state";
+
+    private static final String AUTHOR_TYPE = "com.caco3.testtask.datatype.author";
+
+    private static final String CHANGE_TYPE = "com.caco3.testtask.datatype.change";
+
     public static final String AUTHORITY = "com.caco3.testtask.songs";
 
     private static final String BASE_PATH = "songs";
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH);
 
+    private static final String SYNC_STATE_PATH = "sync_state";
+
+    private static final String SYNC_PATH = BASE_PATH + "/sync";
+
+    /**
+     * Uri to {@link #bulkInsert(Uri, ContentValues[])} songs received from the server to.
+     * Songs in db are replaced with them: songs which aren't received are deleted,
+     * changed songs are updated and new ones are inserted.
+     * {@see {@link SongsSyncEngine}}
+     *
+     * Only songs in the range given by {@link #PARAM_AFTER_ID} and {@link #PARAM_LAST_ID}
+     * query parameters are replaced, if there are such parameters.
+     */
+    public static final Uri SYNC_URI = Uri.parse("content://" + AUTHORITY + "/" + SYNC_PATH);
+
+    private static final String SHADOW_PATH = BASE_PATH + "/shadow";
+
+    private static final String SHADOW_SWAP_PATH = SHADOW_PATH + "/swap";
+
+    /**
+     * Uri of {@link SongsDatabase.Songs#SHADOW_TABLE_NAME} where full resync builds the new catalog
+     * without touching songs seen by readers.
+     * Songs {@link #bulkInsert(Uri, ContentValues[])} to this uri replace songs in the shadow table
+     * the same way {@link #SYNC_URI} does it for songs table, so a page can be applied more than once.
+     * Deleting this uri replaces the shadow table with the new empty one.
+     */
+    public static final Uri SHADOW_URI = Uri.parse("content://" + AUTHORITY + "/" + SHADOW_PATH);
+
+    /**
+     * Inserting to this uri atomically replaces songs with the shadow table
+     * {@see {@link SongsDatabase#swapShadowTable(SQLiteDatabase)}}.
+     * Usually done in the batch finishing full resync
+     */
+    public static final Uri SHADOW_SWAP_URI = Uri.parse("content://" + AUTHORITY + "/" + SHADOW_SWAP_PATH);
+
+    private static final String PAGE_PATH = BASE_PATH + "/page";
+
+    private static final String PAGE_DESC_PATH = PAGE_PATH + "/desc";
+
+    /**
+     * Uri to query one page of songs sorted by song id ascending.
+     * Page starts right after the song id given by {@link #PARAM_AFTER_ID}
+     * (or from the first song if there is no such parameter)
+     * and has at most {@link #PARAM_LIMIT} songs.
+     *
+     * Pages are found by unique song id index rather than by offset,
+     * so any page is read as fast as the first one, and pages don't shift
+     * when songs are inserted or deleted between queries.
+     * Sort order passed to query is ignored
+     */
+    public static final Uri PAGE_URI = Uri.parse("content://" + AUTHORITY + "/" + PAGE_PATH);
+
+    /**
+     * The same as {@link #PAGE_URI}, but songs are sorted by song id descending,
+     * so {@link #PARAM_AFTER_ID} is an exclusive upper bound
+     */
+    public static final Uri PAGE_DESC_URI = Uri.parse("content://" + AUTHORITY + "/" + PAGE_DESC_PATH);
+
+    private static final String SEARCH_PATH = BASE_PATH + "/search";
+
+    /**
+     * Uri to search songs by words of their names and authors given by {@link #PARAM_QUERY}.
+     * Every word is matched as a prefix, so songs are found while the user is typing.
+     *
+     * Songs are looked up in the full-text index {@link SongsDatabase.Songs#FTS_TABLE_NAME}
+     * and ranked: songs having all words in the name go first, then songs
+     * having all words in the author, then the others; songs of the same rank are sorted by name.
+     * At most {@link #PARAM_LIMIT} songs are returned. Sort order passed to query is ignored
+     */
+    public static final Uri SEARCH_URI = Uri.parse("content://" + AUTHORITY + "/" + SEARCH_PATH);
+
+    /**
+     * Text to search songs with {@link #SEARCH_URI}
+     */
+    public static final String PARAM_QUERY = "q";
+
+    private static final String CHANGES_PATH = BASE_PATH + "/changes";
+
+    /**
+     * Uri of {@link SongsDatabase.Changes} made after the token given by {@link #PARAM_SINCE},
+     * sorted by token. At most {@link #PARAM_LIMIT} changes are returned.
+     * Changes of songs which are present have author, name and version of the song.
+     * Sort order passed to query is ignored.
+     *
+     * Deleting this uri compacts changes, see {@link SongsDatabase#compactChanges(SQLiteDatabase, int)}
+     */
+    public static final Uri CHANGES_URI = Uri.parse("content://" + AUTHORITY + "/" + CHANGES_PATH);
+
+    private static final String LATEST_CHANGE_PATH = CHANGES_PATH + "/latest";
+
+    /**
+     * Uri of the latest change, one row with its token in {@link SongsDatabase.Changes#KEY__ID}
+     * or no rows if there are no changes. Projection and selection passed to query are ignored
+     */
+    public static final Uri LATEST_CHANGE_URI = Uri.parse("content://" + AUTHORITY + "/" + LATEST_CHANGE_PATH);
+
+    /**
+     * Token of the last change seen, {@link #CHANGES_URI} returns changes after it.
+     * 0 if not set
+     */
+    public static final String PARAM_SINCE = "since";
+
+    /**
+     * Number of the latest changes kept by compaction
+     */
+    private static final int MAX_CHANGES = 10000;
+
+    private static final String AUTHORS_PATH = "authors";
+
+    private static final String AUTHOR_SONGS_PATH = AUTHORS_PATH + "/#/" + BASE_PATH;
+
+    /**
+     * Uri of authors having songs, every author has {@link SongsDatabase.Authors#KEY_SONG_COUNT}.
+     * Sorted by name if sort order is not given
+     */
+    public static final Uri AUTHORS_URI = Uri.parse("content://" + AUTHORITY + "/" + AUTHORS_PATH);
+
+    /**
+     * Exclusive lower bound of song ids replaced by sync,
+     * or id of the last song of the previous page for {@link #PAGE_URI} and {@link #PAGE_DESC_URI}
+     */
+    public static final String PARAM_AFTER_ID = "after_id";
+
+    /**
+     * Max number of songs in one page queried with {@link #PAGE_URI} and {@link #PAGE_DESC_URI},
+     * found with {@link #SEARCH_URI} or changes queried with {@link #CHANGES_URI}.
+     * {@link #DEFAULT_PAGE_LIMIT} if not set
+     */
+    public static final String PARAM_LIMIT = "limit";
+
+    /**
+     * Number of songs in a page if {@link #PARAM_LIMIT} is not set
+     */
+    public static final int DEFAULT_PAGE_LIMIT = 100;
+
+    /**
+     * Inclusive upper bound of song ids replaced by sync
+     */
+    public static final String PARAM_LAST_ID = "last_id";
+
+    /**
+     * Uri of {@link SongsDatabase.SyncState} values.
+     * Inserting value with the name which already exists replaces it
+     */
+    public static final Uri SYNC_STATE_URI = Uri.parse("content://" + AUTHORITY + "/" + SYNC_STATE_PATH);
+
     private static final int URI_SONGS = 0x0;
+    private static final int URI_SYNC_STATE = 0x1;
+    private static final int URI_SONGS_SYNC = 0x2;
+    private static final int URI_SONGS_SHADOW = 0x3;
+    private static final int URI_SONGS_SHADOW_SWAP = 0x4;
+    private static final int URI_SONGS_PAGE = 0x5;
+    private static final int URI_SONGS_PAGE_DESC = 0x6;
+    private static final int URI_SONGS_SEARCH = 0x7;
+    private static final int URI_AUTHORS = 0x8;
+    private static final int URI_AUTHOR_SONGS = 0x9;
+    private static final int URI_SONGS_CHANGES = 0xa;
+    private static final int URI_SONGS_LATEST_CHANGE = 0xb;
 
 
     private static final UriMatcher sUriMatcher;
     static {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         sUriMatcher.addURI(AUTHORITY, BASE_PATH, URI_SONGS);
+        sUriMatcher.addURI(AUTHORITY, SYNC_STATE_PATH, URI_SYNC_STATE);
+        sUriMatcher.addURI(AUTHORITY, SYNC_PATH, URI_SONGS_SYNC);
+        sUriMatcher.addURI(AUTHORITY, SHADOW_PATH, URI_SONGS_SHADOW);
+        sUriMatcher.addURI(AUTHORITY, SHADOW_SWAP_PATH, URI_SONGS_SHADOW_SWAP);
+        sUriMatcher.addURI(AUTHORITY, PAGE_PATH, URI_SONGS_PAGE);
+        sUriMatcher.addURI(AUTHORITY, PAGE_DESC_PATH, URI_SONGS_PAGE_DESC);
+        sUriMatcher.addURI(AUTHORITY, SEARCH_PATH, URI_SONGS_SEARCH);
+        sUriMatcher.addURI(AUTHORITY, AUTHORS_PATH, URI_AUTHORS);
+        sUriMatcher.addURI(AUTHORITY, AUTHOR_SONGS_PATH, URI_AUTHOR_SONGS);
+        sUriMatcher.addURI(AUTHORITY, CHANGES_PATH, URI_SONGS_CHANGES);
+        sUriMatcher.addURI(AUTHORITY, LATEST_CHANGE_PATH, URI_SONGS_LATEST_CHANGE);
+    }
+
+    /**
+     * @param authorId {@link SongsDatabase.Authors#KEY__ID} of the author
+     * @return uri of songs of the author, sorted by song id if sort order is not given
+     */
+    public static Uri getAuthorSongsUri(long authorId){
+        return AUTHORS_URI.buildUpon()
+                .appendPath(String.valueOf(authorId))
+                .appendPath(BASE_PATH)
+                .build();
     }
 
     private SongsDatabase mSongsDatabase;
-    private SQLiteDatabase mSQLiteDatabase;
 
     @Override
     public boolean onCreate() {
@@ -50,16 +242,51 @@ public class SongsProvider extends ContentProvider {
                 + " selection: " + selection
                 + " args: " + Arrays.toString(selectionArgs)
                 + " sortOrder: " + sortOrder);
-        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-        queryBuilder.setTables(SongsDatabase.Songs.TABLE_NAME);
+        String table;
         switch (sUriMatcher.match(uri)){
             case URI_SONGS:
+                table = SongsDatabase.Songs.VIEW_NAME;
+                break;
+            case URI_AUTHOR_SONGS:
+                table = SongsDatabase.Songs.VIEW_NAME;
+                selection = appendSelection(selection, SongsDatabase.Songs.KEY_AUTHOR_ID + " = ?");
+                selectionArgs = appendArg(selectionArgs, uri.getPathSegments().get(1));
+                if (sortOrder == null){
+                    sortOrder = SongsDatabase.Songs.KEY_SONG_ID + " ASC";
+                }
+                break;
+            case URI_AUTHORS:
+                return queryAuthors(projection, selection, selectionArgs, sortOrder);
+            case URI_SONGS_CHANGES:
+                return queryChanges(uri, projection, selection, selectionArgs);
+            case URI_SONGS_LATEST_CHANGE:
+                return mSongsDatabase.getReadableDatabase().query(SongsDatabase.Changes.TABLE_NAME,
+                        new String[]{SongsDatabase.Changes.KEY__ID},
+                        null, // selection
+                        null, // selectionArgs
+                        null, // groupBy
+                        null, // having
+                        SongsDatabase.Changes.KEY__ID + " DESC",
+                        "1");
+            case URI_SONGS_PAGE:
+                return queryPage(uri, projection, selection, selectionArgs, true);
+            case URI_SONGS_PAGE_DESC:
+                return queryPage(uri, projection, selection, selectionArgs, false);
+            case URI_SONGS_SEARCH:
+                return search(uri, projection, selection, selectionArgs);
+            case URI_SONGS_SHADOW:
+                table = SongsDatabase.Songs.SHADOW_TABLE_NAME;
+                break;
+            case URI_SYNC_STATE:
+                table = SongsDatabase.SyncState.TABLE_NAME;
                 break;
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
         }
-        mSQLiteDatabase = mSongsDatabase.getWritableDatabase();
-        return mSQLiteDatabase.query(SongsDatabase.Songs.TABLE_NAME,
+        // the same instance as the writable database, no separate read connection is opened:
+        // readers don't wait for writers because of write-ahead logging alone
+        SQLiteDatabase db = mSongsDatabase.getReadableDatabase();
+        return db.query(table,
                 projection,
                 selection,
                 selectionArgs,
@@ -68,11 +295,169 @@ public class SongsProvider extends ContentProvider {
                 sortOrder);
     }
 
+    /**
+     * Queries one page of songs by keyset, i.e. continues from the last song id of the previous page
+     * {@see {@link #PAGE_URI}}
+     * @param ascending sort order of songs by id
+     */
+    private Cursor queryPage(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                             boolean ascending){
+        String afterId = uri.getQueryParameter(PARAM_AFTER_ID);
+        int limit = (int) getLongParameter(uri, PARAM_LIMIT, DEFAULT_PAGE_LIMIT);
+        if (limit <= 0){
+            throw new IllegalArgumentException("limit must be positive, was " + limit);
+        }
+        if (afterId != null){
+            selection = appendSelection(selection,
+                    SongsDatabase.Songs.KEY_SONG_ID + (ascending ? " > ?" : " < ?"));
+            selectionArgs = appendArg(selectionArgs, String.valueOf(Long.parseLong(afterId)));
+        }
+        SQLiteDatabase db = mSongsDatabase.getReadableDatabase();
+        return db.query(SongsDatabase.Songs.VIEW_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null, // groupBy
+                null, // having
+                SongsDatabase.Songs.KEY_SONG_ID + (ascending ? " ASC" : " DESC"),
+                String.valueOf(limit));
+    }
+
+    /**
+     * Searches songs in the full-text index {@see {@link #SEARCH_URI}}.
+     * Every rank is a separate index lookup, a song found by more of them gets the best rank
+     */
+    private Cursor search(Uri uri, String[] projection, String selection, String[] selectionArgs){
+        String text = uri.getQueryParameter(PARAM_QUERY);
+        SongsSearchQuery query = new SongsSearchQuery(text != null ? text : "");
+        int limit = (int) getLongParameter(uri, PARAM_LIMIT, DEFAULT_PAGE_LIMIT);
+        if (limit <= 0){
+            throw new IllegalArgumentException("limit must be positive, was " + limit);
+        }
+        String songs = SongsDatabase.Songs.VIEW_NAME;
+        String fts = SongsDatabase.Songs.FTS_TABLE_NAME;
+        StringBuilder columns = new StringBuilder();
+        if (projection == null){
+            columns.append(songs).append(".*");
+        } else {
+            for (String column : projection){
+                if (columns.length() > 0){
+                    columns.append(", ");
+                }
+                columns.append(songs).append('.').append(column);
+            }
+        }
+        String sql = "SELECT " + columns + " FROM " + songs + " JOIN ("
+                + "SELECT docid, MIN(rank) AS rank FROM ("
+                + "SELECT docid, 0 AS rank FROM " + fts + " WHERE " + fts + " MATCH ?"
+                + " UNION ALL SELECT docid, 1 AS rank FROM " + fts + " WHERE " + fts + " MATCH ?"
+                + " UNION ALL SELECT docid, 2 AS rank FROM " + fts + " WHERE " + fts + " MATCH ?"
+                + ") GROUP BY docid"
+                + ") AS found ON " + songs + "." + SongsDatabase.Songs.KEY__ID + " = found.docid"
+                + (selection != null ? " WHERE (" + selection + ")" : "")
+                + " ORDER BY found.rank, " + songs + "." + SongsDatabase.Songs.KEY_NAME
+                + " LIMIT " + limit;
+        String[] args = {
+                query.matchColumn(SongsDatabase.Songs.KEY_NAME),
+                query.matchColumn(SongsDatabase.Songs.KEY_AUTHOR),
+                query.matchAll()};
+        if (selectionArgs != null){
+            for (String arg : selectionArgs){
+                args = appendArg(args, arg);
+            }
+        }
+        if (query.isEmpty()){
+            // nothing matches empty query, but the cursor still has the columns requested
+            sql = "SELECT * FROM (" + sql + ") WHERE 0";
+        }
+        SQLiteDatabase db = mSongsDatabase.getReadableDatabase();
+        return db.rawQuery(sql, args);
+    }
+
+    /**
+     * Counts songs of every author by the (author_id, song_id) index
+     * {@see {@link #AUTHORS_URI}}
+     */
+    private Cursor queryAuthors(String[] projection, String selection, String[] selectionArgs, String sortOrder){
+        String authors = SongsDatabase.Authors.TABLE_NAME;
+        String songs = SongsDatabase.Songs.TABLE_NAME;
+        String counted = "(SELECT a." + SongsDatabase.Authors.KEY__ID + " AS " + SongsDatabase.Authors.KEY__ID + ", "
+                + "a." + SongsDatabase.Authors.KEY_NAME + " AS " + SongsDatabase.Authors.KEY_NAME + ", "
+                + "COUNT(*) AS " + SongsDatabase.Authors.KEY_SONG_COUNT
+                + " FROM " + authors + " a JOIN " + songs + " s"
+                + " ON s." + SongsDatabase.Songs.KEY_AUTHOR_ID + " = a." + SongsDatabase.Authors.KEY__ID
+                + " GROUP BY a." + SongsDatabase.Authors.KEY__ID + ")";
+        SQLiteDatabase db = mSongsDatabase.getReadableDatabase();
+        return db.query(counted,
+                projection,
+                selection,
+                selectionArgs,
+                null, // groupBy
+                null, // having
+                sortOrder != null ? sortOrder : SongsDatabase.Authors.KEY_NAME + " ASC");
+    }
+
+    /**
+     * {@see {@link #CHANGES_URI}}
+     */
+    private Cursor queryChanges(Uri uri, String[] projection, String selection, String[] selectionArgs){
+        long since = getLongParameter(uri, PARAM_SINCE, 0);
+        int limit = (int) getLongParameter(uri, PARAM_LIMIT, DEFAULT_PAGE_LIMIT);
+        if (limit <= 0){
+            throw new IllegalArgumentException("limit must be positive, was " + limit);
+        }
+        String changes = "(SELECT c." + SongsDatabase.Changes.KEY__ID + " AS " + SongsDatabase.Changes.KEY__ID + ", "
+                + "c." + SongsDatabase.Changes.KEY_SONG_ID + " AS " + SongsDatabase.Changes.KEY_SONG_ID + ", "
+                + "c." + SongsDatabase.Changes.KEY_OPERATION + " AS " + SongsDatabase.Changes.KEY_OPERATION + ", "
+                + "v." + SongsDatabase.Songs.KEY_AUTHOR + " AS " + SongsDatabase.Songs.KEY_AUTHOR + ", "
+                + "v." + SongsDatabase.Songs.KEY_NAME + " AS " + SongsDatabase.Songs.KEY_NAME + ", "
+                + "v." + SongsDatabase.Songs.KEY_VERSION + " AS " + SongsDatabase.Songs.KEY_VERSION
+                + " FROM " + SongsDatabase.Changes.TABLE_NAME + " c"
+                + " LEFT JOIN " + SongsDatabase.Songs.VIEW_NAME + " v"
+                + " ON v." + SongsDatabase.Songs.KEY_SONG_ID + " = c." + SongsDatabase.Changes.KEY_SONG_ID
+                + " AND c." + SongsDatabase.Changes.KEY_OPERATION + " != " + SongsDatabase.Changes.OPERATION_DELETE + ")";
+        SQLiteDatabase db = mSongsDatabase.getReadableDatabase();
+        return db.query(changes,
+                projection,
+                appendSelection(selection, SongsDatabase.Changes.KEY__ID + " > ?"),
+                appendArg(selectionArgs, String.valueOf(since)),
+                null, // groupBy
+                null, // having
+                SongsDatabase.Changes.KEY__ID + " ASC",
+                String.valueOf(limit));
+    }
+
+    private static String appendSelection(String selection, String condition){
+        return selection == null ? condition : "(" + selection + ") AND " + condition;
+    }
+
+    private static String[] appendArg(String[] args, String arg){
+        if (args == null){
+            return new String[]{arg};
+        }
+        String[] result = Arrays.copyOf(args, args.length + 1);
+        result[args.length] = arg;
+        return result;
+    }
+
     @Override
     public String getType(Uri uri) {
         switch (sUriMatcher.match(uri)){
             case URI_SONGS:
+            case URI_SONGS_SYNC:
+            case URI_SONGS_SHADOW:
+            case URI_SONGS_PAGE:
+            case URI_SONGS_PAGE_DESC:
+            case URI_SONGS_SEARCH:
+            case URI_AUTHOR_SONGS:
                 return SONG_TYPE;
+            case URI_AUTHORS:
+                return AUTHOR_TYPE;
+            case URI_SONGS_CHANGES:
+            case URI_SONGS_LATEST_CHANGE:
+                return CHANGE_TYPE;
+            case URI_SYNC_STATE:
+                return SYNC_STATE_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
         }
@@ -81,12 +466,19 @@ public class SongsProvider extends ContentProvider {
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         LOGI(TAG, "insert: " + uri + " cv = " + values);
-        mSQLiteDatabase = mSongsDatabase.getWritableDatabase();
+        SQLiteDatabase db = mSongsDatabase.getWritableDatabase();
         long rowId;
         switch(sUriMatcher.match(uri)){
             case URI_SONGS:
-                rowId = mSQLiteDatabase.insert(SongsDatabase.Songs.TABLE_NAME, null, values);
+                rowId = db.insert(SongsDatabase.Songs.TABLE_NAME, null, toSongsRow(db, values, true));
                 break;
+            case URI_SYNC_STATE:
+                rowId = db.insertWithOnConflict(SongsDatabase.SyncState.TABLE_NAME,
+                        null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                break;
+            case URI_SONGS_SHADOW_SWAP:
+                swapShadowTable(db);
+                return CONTENT_URI;
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
         }
@@ -94,14 +486,361 @@ public class SongsProvider extends ContentProvider {
 
     }
 
+    /**
+     * Applies all operations in one transaction, so the batch is atomic:
+     * readers never see it half applied, and the database is synced to disk once
+     * per batch instead of once per operation
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        LOGD(TAG, "applyBatch: " + operations.size() + " operations");
+        SQLiteDatabase db = mSongsDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts all rows in one transaction.
+     * Songs are inserted with one compiled statement, which is rebound for every row,
+     * so SQL is parsed once per call instead of once per row.
+     *
+     * Songs inserted to {@link #SYNC_URI} or {@link #SHADOW_URI} replace songs in db
+     * @return number of rows inserted, or number of rows changed for {@link #SYNC_URI}
+     * and {@link #SHADOW_URI}
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        LOGD(TAG, "bulkInsert: " + uri + " " + values.length + " rows");
+        SQLiteDatabase db = mSongsDatabase.getWritableDatabase();
+        int match = sUriMatcher.match(uri);
+        db.beginTransaction();
+        try {
+            int inserted;
+            switch (match){
+                case URI_SONGS:
+                    inserted = bulkInsertSongs(db, values);
+                    break;
+                case URI_SONGS_SYNC:
+                    inserted = SongsSyncEngine.sync(db, SongsDatabase.Songs.TABLE_NAME, values,
+                            getLongParameter(uri, PARAM_AFTER_ID, Long.MIN_VALUE),
+                            getLongParameter(uri, PARAM_LAST_ID, Long.MAX_VALUE));
+                    break;
+                case URI_SONGS_SHADOW:
+                    inserted = SongsSyncEngine.sync(db, SongsDatabase.Songs.SHADOW_TABLE_NAME, values,
+                            getLongParameter(uri, PARAM_AFTER_ID, Long.MIN_VALUE),
+                            getLongParameter(uri, PARAM_LAST_ID, Long.MAX_VALUE));
+                    break;
+                case URI_SYNC_STATE:
+                    inserted = 0;
+                    for (ContentValues cv : values){
+                        if (insert(uri, cv) != null){
+                            inserted++;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+            return inserted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Must be called in transaction
+     * @param db to insert songs to
+     * @param values songs to insert, must contain only {@link SongsDatabase.Songs} columns
+     * @return number of rows inserted
+     */
+    private static int bulkInsertSongs(SQLiteDatabase db, ContentValues[] values){
+        AuthorIds authorIds = new AuthorIds(db);
+        SQLiteStatement statement = db.compileStatement("INSERT INTO "
+                + SongsDatabase.Songs.TABLE_NAME + "("
+                + SongsDatabase.Songs.KEY_AUTHOR_ID + ", "
+                + SongsDatabase.Songs.KEY_NAME + ", "
+                + SongsDatabase.Songs.KEY_VERSION + ", "
+                + SongsDatabase.Songs.KEY_SONG_ID + ", "
+                + SongsDatabase.Songs.KEY_FINGERPRINT
+                + ") VALUES (?, ?, ?, ?, ?)");
+        try {
+            int inserted = 0;
+            for (ContentValues cv : values){
+                String author = cv.getAsString(SongsDatabase.Songs.KEY_AUTHOR);
+                String name = cv.getAsString(SongsDatabase.Songs.KEY_NAME);
+                Long version = cv.getAsLong(SongsDatabase.Songs.KEY_VERSION);
+                statement.clearBindings();
+                SongsSyncEngine.bindLong(statement, 1, authorIds.get(author));
+                SongsSyncEngine.bindString(statement, 2, name);
+                SongsSyncEngine.bindLong(statement, 3, version);
+                SongsSyncEngine.bindLong(statement, 4, cv.getAsLong(SongsDatabase.Songs.KEY_SONG_ID));
+                statement.bindLong(5, SongFingerprint.of(author, name, version != null ? version : 0));
+                if (statement.executeInsert() != -1){
+                    inserted++;
+                }
+            }
+            return inserted;
+        } finally {
+            statement.close();
+            authorIds.close();
+        }
+    }
+
+    /**
+     * Songs are passed with author names, but 'songs' table stores author ids and fingerprints
+     * @param db to find or insert the author in
+     * @param values of song, possibly with {@link SongsDatabase.Songs#KEY_AUTHOR}
+     * @param isNewRow true if the row is inserted, so content not passed is null
+     * @return values with {@link SongsDatabase.Songs#KEY_AUTHOR_ID} instead of author name
+     * and with {@link SongsDatabase.Songs#KEY_FINGERPRINT} if content is changed.
+     * Updated row passed without some of author, name and version has no fingerprint,
+     * it must be computed with the content stored {@see {@link #updateSongs(SQLiteDatabase, ContentValues, String, String[])}}
+     */
+    private static ContentValues toSongsRow(SQLiteDatabase db, ContentValues values, boolean isNewRow){
+        if (values == null){
+            return null;
+        }
+        ContentValues result = new ContentValues(values);
+        String author = values.getAsString(SongsDatabase.Songs.KEY_AUTHOR);
+        if (values.containsKey(SongsDatabase.Songs.KEY_AUTHOR)){
+            result.remove(SongsDatabase.Songs.KEY_AUTHOR);
+            AuthorIds authorIds = new AuthorIds(db);
+            try {
+                Long authorId = authorIds.get(author);
+                if (authorId != null){
+                    result.put(SongsDatabase.Songs.KEY_AUTHOR_ID, authorId);
+                } else {
+                    result.putNull(SongsDatabase.Songs.KEY_AUTHOR_ID);
+                }
+            } finally {
+                authorIds.close();
+            }
+        }
+        if (isNewRow || hasWholeContent(values)){
+            Long version = values.getAsLong(SongsDatabase.Songs.KEY_VERSION);
+            result.put(SongsDatabase.Songs.KEY_FINGERPRINT, SongFingerprint.of(author,
+                    values.getAsString(SongsDatabase.Songs.KEY_NAME), version != null ? version : 0));
+        }
+        return result;
+    }
+
+    private static boolean hasWholeContent(ContentValues values){
+        return values.containsKey(SongsDatabase.Songs.KEY_AUTHOR)
+                && values.containsKey(SongsDatabase.Songs.KEY_NAME)
+                && values.containsKey(SongsDatabase.Songs.KEY_VERSION);
+    }
+
+    private static boolean hasContent(ContentValues values){
+        return values.containsKey(SongsDatabase.Songs.KEY_AUTHOR)
+                || values.containsKey(SongsDatabase.Songs.KEY_NAME)
+                || values.containsKey(SongsDatabase.Songs.KEY_VERSION);
+    }
+
+    /**
+     * Updates songs keeping their fingerprints up to date.
+     * If only a part of the content is passed, every song selected is updated by its key
+     * with the fingerprint of the content passed merged with the content stored,
+     * so every song is written once and change triggers see its final fingerprint.
+     * Authors left without songs by changing authors of songs are deleted in the same transaction
+     * @return number of songs updated
+     */
+    private static int updateSongs(SQLiteDatabase db, ContentValues values,
+                                   String selection, String[] selectionArgs){
+        db.beginTransaction();
+        try {
+            int updated = updateSongsContent(db, values, selection, selectionArgs);
+            if (updated > 0 && values.containsKey(SongsDatabase.Songs.KEY_AUTHOR)){
+                SongsDatabase.pruneAuthors(db);
+            }
+            db.setTransactionSuccessful();
+            return updated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Must be called in transaction
+     * {@see {@link #updateSongs(SQLiteDatabase, ContentValues, String, String[])}}
+     */
+    private static int updateSongsContent(SQLiteDatabase db, ContentValues values,
+                                          String selection, String[] selectionArgs){
+        ContentValues row = toSongsRow(db, values, false);
+        if (row == null || !hasContent(values) || hasWholeContent(values)){
+            return db.update(SongsDatabase.Songs.TABLE_NAME, row, selection, selectionArgs);
+        }
+
+        // read keys first, the update may change what the selection matches
+        List<Long> rowIds = new ArrayList<>();
+        Cursor cursor = db.query(SongsDatabase.Songs.TABLE_NAME, new String[]{SongsDatabase.Songs.KEY__ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()){
+                rowIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int updated = 0;
+        String[] contentColumns = {SongsDatabase.Songs.KEY_AUTHOR, SongsDatabase.Songs.KEY_NAME,
+                SongsDatabase.Songs.KEY_VERSION};
+        for (Long rowId : rowIds){
+            String[] args = {String.valueOf(rowId)};
+            Cursor stored = db.query(SongsDatabase.Songs.VIEW_NAME, contentColumns,
+                    SongsDatabase.Songs.KEY__ID + " = ?", args, null, null, null);
+            try {
+                if (!stored.moveToFirst()){
+                    continue;
+                }
+                String author = values.containsKey(SongsDatabase.Songs.KEY_AUTHOR)
+                        ? values.getAsString(SongsDatabase.Songs.KEY_AUTHOR) : stored.getString(0);
+                String name = values.containsKey(SongsDatabase.Songs.KEY_NAME)
+                        ? values.getAsString(SongsDatabase.Songs.KEY_NAME) : stored.getString(1);
+                Long version = values.containsKey(SongsDatabase.Songs.KEY_VERSION)
+                        ? values.getAsLong(SongsDatabase.Songs.KEY_VERSION) : Long.valueOf(stored.getLong(2));
+                row.put(SongsDatabase.Songs.KEY_FINGERPRINT,
+                        SongFingerprint.of(author, name, version != null ? version : 0));
+            } finally {
+                stored.close();
+            }
+            updated += db.update(SongsDatabase.Songs.TABLE_NAME, row, SongsDatabase.Songs.KEY__ID + " = ?", args);
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes songs and authors left without songs in one transaction
+     * @return number of songs deleted
+     */
+    private static int deleteSongs(SQLiteDatabase db, String selection, String[] selectionArgs){
+        db.beginTransaction();
+        try {
+            int deleted = db.delete(SongsDatabase.Songs.TABLE_NAME, selection, selectionArgs);
+            if (deleted > 0){
+                SongsDatabase.pruneAuthors(db);
+            }
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Finds ids of authors by their names, inserting authors which aren't present.
+     * Ids are remembered, so a batch of songs of a few authors looks up every author once
+     */
+    private static final class AuthorIds {
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mSelect;
+        private final Map<String, Long> mIds = new HashMap<>();
+
+        private AuthorIds(SQLiteDatabase db){
+            this.mInsert = db.compileStatement("INSERT OR IGNORE INTO " + SongsDatabase.Authors.TABLE_NAME
+                    + "(" + SongsDatabase.Authors.KEY_NAME + ") VALUES (?)");
+            this.mSelect = db.compileStatement("SELECT " + SongsDatabase.Authors.KEY__ID
+                    + " FROM " + SongsDatabase.Authors.TABLE_NAME
+                    + " WHERE " + SongsDatabase.Authors.KEY_NAME + " = ?");
+        }
+
+        /**
+         * @param name of the author
+         * @return id of the author or null if name is null
+         */
+        private Long get(String name){
+            if (name == null){
+                return null;
+            }
+            Long id = mIds.get(name);
+            if (id == null){
+                mInsert.bindString(1, name);
+                mInsert.executeInsert();
+                mSelect.bindString(1, name);
+                id = mSelect.simpleQueryForLong();
+                mIds.put(name, id);
+            }
+            return id;
+        }
+
+        private void close(){
+            mInsert.close();
+            mSelect.close();
+        }
+    }
+
+    /**
+     * Replaces shadow table with the new empty one
+     * @param db to reset shadow table in
+     * @return number of songs the dropped shadow table had
+     */
+    private static int resetShadowTable(SQLiteDatabase db){
+        db.beginTransaction();
+        try {
+            int dropped = 0;
+            if (SongsDatabase.hasShadowTable(db)){
+                dropped = (int) DatabaseUtils.queryNumEntries(db,
+                        SongsDatabase.Songs.SHADOW_TABLE_NAME);
+            }
+            SongsDatabase.resetShadowTable(db);
+            db.setTransactionSuccessful();
+            return dropped;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void swapShadowTable(SQLiteDatabase db){
+        db.beginTransaction();
+        try {
+            SongsDatabase.swapShadowTable(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int compactChanges(SQLiteDatabase db){
+        db.beginTransaction();
+        try {
+            int removed = SongsDatabase.compactChanges(db, MAX_CHANGES);
+            db.setTransactionSuccessful();
+            return removed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long getLongParameter(Uri uri, String name, long defaultValue){
+        String value = uri.getQueryParameter(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         LOGD(TAG, "Delete: " + uri + " selection: " + selection + " args: " + Arrays.toString(selectionArgs));
-        mSQLiteDatabase = mSongsDatabase.getWritableDatabase();
+        SQLiteDatabase db = mSongsDatabase.getWritableDatabase();
         int affectedRows;
         switch (sUriMatcher.match(uri)){
             case URI_SONGS:
-                affectedRows = mSQLiteDatabase.delete(SongsDatabase.Songs.TABLE_NAME, selection, selectionArgs);
+                affectedRows = deleteSongs(db, selection, selectionArgs);
+                break;
+            case URI_SYNC_STATE:
+                affectedRows = db.delete(SongsDatabase.SyncState.TABLE_NAME, selection, selectionArgs);
+                break;
+            case URI_SONGS_SHADOW:
+                affectedRows = resetShadowTable(db);
+                break;
+            case URI_SONGS_CHANGES:
+                affectedRows = compactChanges(db);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
@@ -113,11 +852,11 @@ public class SongsProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         LOGD(TAG, "Update: " + uri + " selection: " + selection + " args: " + Arrays.toString(selectionArgs));
-        mSQLiteDatabase = mSongsDatabase.getWritableDatabase();
+        SQLiteDatabase db = mSongsDatabase.getWritableDatabase();
         int affectedRows;
         switch (sUriMatcher.match(uri)){
             case URI_SONGS:
-                affectedRows = mSQLiteDatabase.update(SongsDatabase.Songs.TABLE_NAME, values, selection, selectionArgs);
+                affectedRows = updateSongs(db, values, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
@@ -0,0 +1,74 @@
+package com.caco3.testtask.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns text typed by user into full-text queries of {@link SongsDatabase.Songs#FTS_TABLE_NAME}.
+ *
+ * Text is split into words, every word is matched as a prefix, so results
+ * are found while the user is typing. Characters meaningful for full-text query syntax
+ * are dropped and words are lower cased, so the text can't form operators like OR or NEAR.
+ *
+ * Only ASCII letters are lower cased: the default tokenizer of the index folds only them,
+ * so other letters are indexed as they are and must be matched as they are typed.
+ */
+/* package */ final class SongsSearchQuery {
+    private final List<String> mTerms;
+
+    /**
+     * @param text typed by user
+     */
+    /* package */ SongsSearchQuery(String text){
+        this.mTerms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++){
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))){
+                term.append(toAsciiLowerCase(text.charAt(i)));
+            } else if (term.length() > 0){
+                mTerms.add(term.toString() + "*");
+                term.setLength(0);
+            }
+        }
+    }
+
+    private static char toAsciiLowerCase(char c){
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * @return true if there are no words to search for
+     */
+    /* package */ boolean isEmpty(){
+        return mTerms.isEmpty();
+    }
+
+    /**
+     * @return query matching songs having all words in any column
+     */
+    /* package */ String matchAll(){
+        return join(null);
+    }
+
+    /**
+     * @param column to search in
+     * @return query matching songs having all words in the column
+     */
+    /* package */ String matchColumn(String column){
+        return join(column);
+    }
+
+    private String join(String column){
+        StringBuilder query = new StringBuilder();
+        for (String term : mTerms){
+            if (query.length() > 0){
+                query.append(' ');
+            }
+            if (column != null){
+                query.append(column).append(':');
+            }
+            query.append(term);
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.caco3.testtask.provider;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import static com.caco3.testtask.util.LogUtils.*;
+
+/**
+ * Replaces songs in 'songs' table (or its shadow) with songs received from the server
+ * using a few set-based statements instead of a statement per song.
+ *
+ * Received songs are inserted to temporary staging table with one compiled statement,
+ * their authors are resolved to author ids in bulk,
+ * then the songs table is brought to the same state by three statements:
+ * delete songs which aren't staged, update songs which differ from staged ones
+ * and insert staged songs which aren't present.
+ * Staged songs get their {@link SongFingerprint}, so changed songs are found
+ * by comparing one integer column instead of every column of the song.
+ *
+ * Synchronization may be limited to an id range, so songs received page by page
+ * replace only songs in the range covered by the page
+ */
+/* package */ final class SongsSyncEngine {
+    private static final String TAG = makeLogTag(SongsSyncEngine.class);
+
+    /**
+     * Temporary table, so it's private to the connection
+     * and never survives the process
+     */
+    private static final String STAGING_TABLE = "songs_staging";
+
+    private static final String SONG_ID = SongsDatabase.Songs.KEY_SONG_ID;
+    private static final String AUTHOR = SongsDatabase.Songs.KEY_AUTHOR;
+    private static final String AUTHOR_ID = SongsDatabase.Songs.KEY_AUTHOR_ID;
+    private static final String AUTHORS = SongsDatabase.Authors.TABLE_NAME;
+    private static final String NAME = SongsDatabase.Songs.KEY_NAME;
+    private static final String VERSION = SongsDatabase.Songs.KEY_VERSION;
+    private static final String FINGERPRINT = SongsDatabase.Songs.KEY_FINGERPRINT;
+
+    /**
+     * @return statement deleting songs in the range which aren't staged
+     */
+    private static String deleteMissing(String table){
+        return "DELETE FROM " + table
+                + " WHERE " + SONG_ID + " > ? AND " + SONG_ID + " <= ?"
+                + " AND " + SONG_ID + " NOT IN (SELECT " + SONG_ID + " FROM " + STAGING_TABLE + ")";
+    }
+
+    /**
+     * Staging table is keyed by song id, so every correlated subquery is an index lookup
+     * @return statement updating songs which differ from staged ones
+     */
+    private static String updateChanged(String table){
+        String sameId = " s WHERE s." + SONG_ID + " = " + table + "." + SONG_ID;
+        return "UPDATE " + table + " SET "
+                + AUTHOR_ID + " = (SELECT s." + AUTHOR_ID + " FROM " + STAGING_TABLE + sameId + "), "
+                + NAME + " = (SELECT s." + NAME + " FROM " + STAGING_TABLE + sameId + "), "
+                + VERSION + " = (SELECT s." + VERSION + " FROM " + STAGING_TABLE + sameId + "), "
+                + FINGERPRINT + " = (SELECT s." + FINGERPRINT + " FROM " + STAGING_TABLE + sameId + ")"
+                + " WHERE EXISTS (SELECT 1 FROM " + STAGING_TABLE + sameId
+                + " AND s." + FINGERPRINT + " IS NOT " + table + "." + FINGERPRINT + ")";
+    }
+
+    /**
+     * @return statement inserting staged songs which aren't present
+     */
+    private static String insertNew(String table){
+        return "INSERT INTO " + table
+                + "(" + AUTHOR_ID + ", " + NAME + ", " + VERSION + ", " + SONG_ID + ", " + FINGERPRINT + ")"
+                + " SELECT " + AUTHOR_ID + ", " + NAME + ", " + VERSION + ", " + SONG_ID + ", " + FINGERPRINT
+                + " FROM " + STAGING_TABLE
+                + " WHERE " + SONG_ID + " NOT IN (SELECT " + SONG_ID + " FROM " + table + ")";
+    }
+
+    /**
+     * Replaces songs in the id range with the given ones.
+     * Must be called in transaction, so the temporary table
+     * is created and used on the same connection and the change is atomic
+     * @param db to sync songs in
+     * @param table {@link SongsDatabase.Songs#TABLE_NAME} or {@link SongsDatabase.Songs#SHADOW_TABLE_NAME}
+     * @param values songs received, all of them must be in the range
+     * @param afterId exclusive lower bound of the range
+     * @param lastId inclusive upper bound of the range
+     * @return number of rows deleted, updated and inserted
+     */
+    /* package */ static int sync(SQLiteDatabase db, String table, ContentValues[] values, long afterId, long lastId){
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + STAGING_TABLE + "("
+                + SONG_ID + " INTEGER PRIMARY KEY, "
+                + AUTHOR + " TEXT, "
+                + AUTHOR_ID + " INTEGER, "
+                + NAME + " TEXT, "
+                + VERSION + " INTEGER, "
+                + FINGERPRINT + " INTEGER"
+                + ")");
+        db.execSQL("DELETE FROM " + STAGING_TABLE);
+        try {
+            stage(db, values);
+            resolveAuthors(db);
+
+            int deleted = executeUpdateDelete(db, deleteMissing(table), afterId, lastId);
+            int updated = executeUpdateDelete(db, updateChanged(table));
+            int inserted = executeUpdateDelete(db, insertNew(table));
+            if (deleted + updated > 0){
+                SongsDatabase.pruneAuthors(db);
+            }
+            LOGD(TAG, "Synced " + values.length + " songs to " + table + ": " + deleted + " deleted, "
+                    + updated + " updated, " + inserted + " inserted");
+            return deleted + updated + inserted;
+        } finally {
+            // keep the table for the next sync, but not its rows
+            db.execSQL("DELETE FROM " + STAGING_TABLE);
+        }
+    }
+
+    /**
+     * Inserts songs to the staging table with one compiled statement.
+     * The last of songs with the same id wins
+     */
+    private static void stage(SQLiteDatabase db, ContentValues[] values){
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + STAGING_TABLE
+                + "(" + AUTHOR + ", " + NAME + ", " + VERSION + ", " + SONG_ID + ", " + FINGERPRINT + ")"
+                + " VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (ContentValues cv : values){
+                String author = cv.getAsString(AUTHOR);
+                String name = cv.getAsString(NAME);
+                Long version = cv.getAsLong(VERSION);
+                statement.clearBindings();
+                bindString(statement, 1, author);
+                bindString(statement, 2, name);
+                bindLong(statement, 3, version);
+                bindLong(statement, 4, cv.getAsLong(SONG_ID));
+                statement.bindLong(5, SongFingerprint.of(author, name, version != null ? version : 0));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Inserts authors of staged songs which aren't present with one statement
+     * and sets author ids of staged songs with another one.
+     * Authors are looked up by the unique name index
+     */
+    private static void resolveAuthors(SQLiteDatabase db){
+        db.execSQL("INSERT OR IGNORE INTO " + AUTHORS + "(" + SongsDatabase.Authors.KEY_NAME + ")"
+                + " SELECT DISTINCT " + AUTHOR + " FROM " + STAGING_TABLE + " WHERE " + AUTHOR + " IS NOT NULL");
+        db.execSQL("UPDATE " + STAGING_TABLE + " SET " + AUTHOR_ID + " = (SELECT a." + SongsDatabase.Authors.KEY__ID
+                + " FROM " + AUTHORS + " a WHERE a." + SongsDatabase.Authors.KEY_NAME + " = " + STAGING_TABLE + "." + AUTHOR + ")"
+                + " WHERE " + AUTHOR + " IS NOT NULL");
+    }
+
+    private static int executeUpdateDelete(SQLiteDatabase db, String sql, long... args){
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++){
+                statement.bindLong(i + 1, args[i]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /* package */ static void bindString(SQLiteStatement statement, int index, String value){
+        if (value == null){
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /* package */ static void bindLong(SQLiteStatement statement, int index, Long value){
+        if (value == null){
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private SongsSyncEngine(){
+        throw new AssertionError(SongsSyncEngine.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
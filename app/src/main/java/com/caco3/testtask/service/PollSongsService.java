@@ -7,11 +7,17 @@ import android.support.v4.content.LocalBroadcastManager;
 
 import com.caco3.testtask.songs.SongsHelper;
 import com.caco3.testtask.songsApi.Song;
+import com.caco3.testtask.songsApi.SongHandler;
 import com.caco3.testtask.songsApi.SongsApi;
 import com.caco3.testtask.songsApi.SongsApiException;
 import com.caco3.testtask.songsApi.SongsApiFactory;
+import com.caco3.testtask.songsApi.SongsDelta;
+import com.caco3.testtask.songsApi.SongsPage;
+import com.caco3.testtask.songsApi.SongsPageIterator;
+import com.caco3.testtask.songsApi.SongsPagePipeline;
 import com.caco3.testtask.util.NetworkUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.caco3.testtask.util.LogUtils.*;
@@ -55,6 +61,34 @@ public class PollSongsService extends IntentService {
      * representing error caused by network unavailability
      */
     private static final int EXTRA_NO_NETWORK = 0x4;
+    /**
+     * Value for {@link PollSongsService#EXTRA_RESULT}
+     * representing that songs weren't modified on the server
+     * since the last poll, so db wasn't touched
+     */
+    private static final int EXTRA_NOT_MODIFIED = 0x5;
+
+    /**
+     * Number of songs requested in one page during full resync
+     */
+    private static final int RESYNC_PAGE_SIZE = 500;
+
+    /**
+     * Number of pages fetched during full resync ahead of the page being committed
+     */
+    private static final int RESYNC_PAGES_AHEAD = 2;
+
+    /**
+     * Number of the first songs shown which are kept in the disk cache,
+     * enough to fill the screen on cold start
+     */
+    private static final int CACHED_SONGS_COUNT = 100;
+
+    /**
+     * How long songs are synced by the full list after the server answered
+     * that it doesn't serve changes, before it's asked again
+     */
+    private static final long CHANGES_PROBE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
 
     public PollSongsService(){
         super(TAG); // Worker thread name
@@ -64,17 +98,24 @@ public class PollSongsService extends IntentService {
     protected void onHandleIntent(Intent intent) {
         LOGI(TAG, "Running");
         Intent resultIntent = new Intent(ACTION);
+        SyncScheduler.Result syncResult;
         if (NetworkUtils.isNetworkAvailable(this)){
             SongsApi songsApi
                     = SongsApiFactory.getApi();
 
             try {
-                List<Song> songs = songsApi.getSongs();
-                // Update songs in db
-                SongsHelper.updateSongsInDb(this, songs);
-
-                resultIntent.putExtra(EXTRA_RESULT, EXTRA_RESULT_OK);
+                if (syncSongs(songsApi)) {
+                    SongsHelper.compactChanges(this);
+                    cacheFirstSongs();
+                    resultIntent.putExtra(EXTRA_RESULT, EXTRA_RESULT_OK);
+                    syncResult = SyncScheduler.Result.CHANGED;
+                } else {
+                    LOGI(TAG, "Songs weren't modified since the last poll");
+                    resultIntent.putExtra(EXTRA_RESULT, EXTRA_NOT_MODIFIED);
+                    syncResult = SyncScheduler.Result.NOT_CHANGED;
+                }
             } catch (SongsApiException e){
+                syncResult = SyncScheduler.Result.FAILED;
                 if (e.isCausedByNetworkIssue()){
                     LOGE(TAG, "Unable to poll songs. Network issues", e);
                     resultIntent.putExtra(EXTRA_RESULT, EXTRA_NETWORK_ISSUES);
@@ -85,11 +126,20 @@ public class PollSongsService extends IntentService {
                     // wtf?
                     resultIntent.putExtra(EXTRA_RESULT, EXTRA_UNKNOWN_ERROR);
                 }
+            } catch (RuntimeException e){
+                // e.g. db failed, the next sync must still be scheduled and the client told
+                LOGE(TAG, "Unable to sync songs", e);
+                resultIntent.putExtra(EXTRA_RESULT, EXTRA_UNKNOWN_ERROR);
+                syncResult = SyncScheduler.Result.FAILED;
             }
         } else {
             LOGI(TAG, "No network, exiting");
             resultIntent.putExtra(EXTRA_RESULT, EXTRA_NO_NETWORK);
+            syncResult = SyncScheduler.Result.NO_NETWORK;
         }
+        SyncAlarmReceiver.onSyncFinished(this, syncResult);
+
+        LOGD(TAG, SongsApiFactory.getMetrics().snapshot().toString());
 
         // Trigger broadcast receivers
         LocalBroadcastManager
@@ -97,6 +147,172 @@ public class PollSongsService extends IntentService {
                 .sendBroadcast(resultIntent);
     }
 
+    /**
+     * Brings songs in db up to date with the server.
+     * Songs are synced by the full list, which every server serves, unless the server answered
+     * that it serves changes since the last sync: then only they are requested and applied.
+     * Servers which don't serve changes are asked again once per {@link #CHANGES_PROBE_INTERVAL_MILLIS}.
+     * Falls back to full resync if the server can't provide changes
+     * or if the previous resync was interrupted
+     * @param songsApi to retrieve songs with
+     * @return true if songs in db were modified, false otherwise
+     * @throws SongsApiException if songs can't be retrieved
+     */
+    private boolean syncSongs(SongsApi songsApi) throws SongsApiException {
+        if (SongsHelper.isResyncInProgress(this)) {
+            return resync(songsApi);
+        }
+
+        Long changesUnsupportedAt = SongsHelper.getChangesUnsupportedAt(this);
+        long now = System.currentTimeMillis();
+        if (changesUnsupportedAt != null
+                && now - changesUnsupportedAt < CHANGES_PROBE_INTERVAL_MILLIS
+                && now >= changesUnsupportedAt) {
+            return syncAllSongs(songsApi, true /* conditional */);
+        }
+
+        long watermark = SongsHelper.getWatermark(this);
+        SongsDelta delta;
+        try {
+            delta = songsApi.getChangesSince(watermark);
+        } catch (SongsApiException e){
+            if (!e.isCausedByUnsupportedRequest()){
+                throw e;
+            }
+            LOGI(TAG, "Server doesn't serve changes, syncing the full list");
+            SongsHelper.setChangesUnsupportedAt(this, now);
+            return syncAllSongs(songsApi, true /* conditional */);
+        }
+        if (changesUnsupportedAt != null) {
+            SongsHelper.setChangesUnsupportedAt(this, null);
+        }
+
+        if (delta.isResyncRequired()) {
+            LOGI(TAG, "Server requested full resync");
+            SongsHelper.startResync(this, delta.getWatermark());
+            return resync(songsApi);
+        }
+
+        if (delta.isEmpty()) {
+            if (delta.getWatermark() != watermark) {
+                SongsHelper.setWatermark(this, delta.getWatermark());
+            }
+            return false;
+        }
+
+        LOGI(TAG, "Applying " + delta);
+        SongsHelper.applyDeltaToDb(this, delta);
+        return true;
+    }
+
+    /**
+     * Replaces songs in db with the full list streamed from the server.
+     * Songs are committed to the shadow table in chunks of {@link #RESYNC_PAGE_SIZE}
+     * while the response is being read, so the list is never held in memory,
+     * and replace songs at once when the stream ends.
+     * Resync is started only when the first chunk is committed, so if the server replies
+     * that songs weren't modified db isn't touched at all.
+     * Interrupted stream leaves resync in progress, so the next sync isn't conditional.
+     * @param songsApi to retrieve songs with
+     * @param conditional true to skip the sync if the server replies that songs
+     *                    weren't modified since the last response
+     *                    {@see {@link SongsApi#getSongsIfModified(SongHandler)}}
+     * @return true if songs in db were modified, false otherwise
+     * @throws SongsApiException if songs can't be retrieved
+     */
+    private boolean syncAllSongs(SongsApi songsApi, boolean conditional) throws SongsApiException {
+        ShadowWriter writer = new ShadowWriter();
+        if (conditional) {
+            if (!songsApi.getSongsIfModified(writer)) {
+                return false;
+            }
+        } else {
+            songsApi.getSongs(writer);
+        }
+        writer.flush();
+        return SongsHelper.finishResync(this);
+    }
+
+    /**
+     * Replaces songs in db with songs retrieved page by page.
+     * Every page is committed to the shadow table as soon as it arrives, so only a few pages
+     * are held in memory and interrupted resync continues from the last page committed.
+     * Songs are replaced with the shadow table at once when the last page is committed.
+     *
+     * Pages are downloaded and parsed on another thread while pages fetched before
+     * are committed, so waiting for the network overlaps with writing to db
+     * {@see {@link SongsPagePipeline}}
+     *
+     * If the server doesn't serve pages, resync is started over
+     * and the full list is streamed to the shadow table instead
+     * {@see {@link #syncAllSongs(SongsApi, boolean)}}
+     * @param songsApi to retrieve songs with
+     * @return true if songs in db were modified, false otherwise
+     * @throws SongsApiException if songs can't be retrieved
+     */
+    private boolean resync(SongsApi songsApi) throws SongsApiException {
+        SongsPagePipeline pipeline = new SongsPagePipeline(new SongsPageIterator(songsApi,
+                SongsHelper.getResyncAfterId(this), RESYNC_PAGE_SIZE), RESYNC_PAGES_AHEAD);
+        try {
+            return pipeline.run(new SongsPagePipeline.PageWriter() {
+                @Override
+                public boolean write(SongsPage page) {
+                    LOGD(TAG, "Applying " + page);
+                    return SongsHelper.applyPageToDb(PollSongsService.this, page);
+                }
+            });
+        } catch (SongsApiException e){
+            if (!e.isCausedByUnsupportedRequest()){
+                throw e;
+            }
+            LOGI(TAG, "Server doesn't serve pages, streaming the full list");
+            SongsHelper.restartResync(this);
+            return syncAllSongs(songsApi, false /* shadow table must be filled anyway */);
+        } finally {
+            LOGI(TAG, String.valueOf(pipeline.getStats()));
+        }
+    }
+
+    /**
+     * Commits songs passed to it to the shadow table in chunks of {@link #RESYNC_PAGE_SIZE}.
+     * Resync is started by the first chunk, the last one may be empty
+     * {@see {@link SongsHelper#applySongsToShadow(android.content.Context, List)}}
+     */
+    private final class ShadowWriter implements SongHandler {
+        private final List<Song> mSongs = new ArrayList<>(RESYNC_PAGE_SIZE);
+        private boolean mResyncStarted;
+
+        @Override
+        public void onSong(Song song) {
+            mSongs.add(song);
+            if (mSongs.size() >= RESYNC_PAGE_SIZE) {
+                flush();
+            }
+        }
+
+        /* package */ void flush(){
+            if (!mResyncStarted) {
+                // does nothing if resync is in progress
+                SongsHelper.startResync(PollSongsService.this, SongsHelper.getWatermark(PollSongsService.this));
+                mResyncStarted = true;
+            }
+            if (!mSongs.isEmpty()) {
+                SongsHelper.applySongsToShadow(PollSongsService.this, mSongs);
+                mSongs.clear();
+            }
+        }
+    }
+
+    /**
+     * Stores songs shown first to the disk cache, so they can be shown on cold start
+     * even if the db is empty. They are read from db, so the cache costs no request
+     */
+    private void cacheFirstSongs(){
+        List<Song> songs = SongsHelper.getSongsPage(this, null, CACHED_SONGS_COUNT,
+                true /* descending, as they are shown */);
+        SongsApiFactory.getCachedSongs(getCacheDir()).put(songs);
+    }
+
     /**
      * Static method which helps to determine whether the result of
      * running this service was ok
@@ -107,6 +323,16 @@ public class PollSongsService extends IntentService {
         return resultIntent.getExtras().getInt(EXTRA_RESULT) == EXTRA_RESULT_OK;
     }
 
+    /**
+     * Static method which helps to determine whether the
+     * songs weren't modified on the server since the last poll
+     * @param resultIntent created by this service
+     * @return true if songs weren't modified, false otherwise
+     */
+    public static boolean isNotModified(Intent resultIntent){
+        return resultIntent.getExtras().getInt(EXTRA_RESULT) == EXTRA_NOT_MODIFIED;
+    }
+
     /**
      * Static method which helps to determine whether the result of
      * running this service was not ok and error was caused by network issues
@@ -0,0 +1,116 @@
+package com.caco3.testtask.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+
+import com.caco3.testtask.util.NetworkUtils;
+
+import java.util.Random;
+
+import static com.caco3.testtask.util.LogUtils.*;
+
+/**
+ * Runs background syncs at times picked by {@link SyncScheduler}.
+ *
+ * The time of the next sync is kept with the state of the scheduler in shared preferences
+ * and set as an alarm which doesn't wake the device up, so syncs run when it's awake anyway.
+ * The alarm starts {@link PollSongsService} if network is available, otherwise the sync
+ * is skipped and retried later. Alarms are lost on reboot, so they are set again on boot
+ */
+public class SyncAlarmReceiver extends BroadcastReceiver {
+    private static final String TAG = makeLogTag(SyncAlarmReceiver.class);
+
+    /**
+     * Action of the alarm intent
+     */
+    private static final String ACTION_SYNC = SyncAlarmReceiver.class.getCanonicalName() + ".Sync";
+
+    private static final String PREFERENCES_NAME = "sync_scheduler";
+    private static final String KEY_HISTORY = "history";
+    private static final String KEY_HISTORY_SIZE = "history_size";
+    private static final String KEY_CONSECUTIVE_FAILURES = "consecutive_failures";
+    private static final String KEY_NEXT_SYNC_AT = "next_sync_at";
+
+    /**
+     * Guards the scheduler state read and written by the receiver and the service
+     */
+    private static final Object sLock = new Object();
+    private static final Random sRandom = new Random();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        LOGI(TAG, "Received intent with action " + action);
+        if (ACTION_SYNC.equals(action)){
+            if (NetworkUtils.isNetworkAvailable(context)){
+                // the service reports the result with onSyncFinished
+                context.startService(new Intent(context, PollSongsService.class));
+            } else {
+                onSyncFinished(context, SyncScheduler.Result.NO_NETWORK);
+            }
+        } else if (Intent.ACTION_BOOT_COMPLETED.equals(action)){
+            ensureScheduled(context);
+        }
+    }
+
+    /**
+     * Sets the alarm of the next sync, e.g. when the app starts.
+     * If the sync is already due, the alarm goes off at once
+     * @param context to get alarm manager
+     */
+    public static void ensureScheduled(Context context){
+        synchronized (sLock){
+            setAlarm(context, loadScheduler(context).getNextSyncAtMillis());
+        }
+    }
+
+    /**
+     * Records the result of a sync, scheduled or started by the user,
+     * and moves the alarm to the time of the next sync
+     * @param context to get alarm manager and preferences
+     * @param result of the sync
+     */
+    public static void onSyncFinished(Context context, SyncScheduler.Result result){
+        synchronized (sLock){
+            SyncScheduler scheduler = loadScheduler(context);
+            long nextSyncAt = scheduler.onSyncFinished(result);
+            getPreferences(context).edit()
+                    .putInt(KEY_HISTORY, scheduler.getHistory())
+                    .putInt(KEY_HISTORY_SIZE, scheduler.getHistorySize())
+                    .putInt(KEY_CONSECUTIVE_FAILURES, scheduler.getConsecutiveFailures())
+                    .putLong(KEY_NEXT_SYNC_AT, nextSyncAt)
+                    .commit();
+            LOGI(TAG, "Sync finished with " + result + ", the next one in "
+                    + (nextSyncAt - System.currentTimeMillis()) / 1000 + "s");
+            setAlarm(context, nextSyncAt);
+        }
+    }
+
+    private static SyncScheduler loadScheduler(Context context){
+        SharedPreferences preferences = getPreferences(context);
+        return new SyncScheduler(SyncScheduler.SYSTEM_CLOCK, sRandom,
+                preferences.getInt(KEY_HISTORY, 0),
+                preferences.getInt(KEY_HISTORY_SIZE, 0),
+                preferences.getInt(KEY_CONSECUTIVE_FAILURES, 0),
+                preferences.getLong(KEY_NEXT_SYNC_AT, 0));
+    }
+
+    private static SharedPreferences getPreferences(Context context){
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Replaces the alarm set before, if any
+     */
+    private static void setAlarm(Context context, long atMillis){
+        Intent intent = new Intent(context, SyncAlarmReceiver.class).setAction(ACTION_SYNC);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0 /* request code */,
+                intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.RTC, atMillis, pendingIntent);
+    }
+}
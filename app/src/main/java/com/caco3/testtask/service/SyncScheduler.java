@@ -0,0 +1,172 @@
+package com.caco3.testtask.service;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when songs must be synced in background next time.
+ *
+ * The interval adapts to how often the catalog actually changed in the last
+ * {@link #HISTORY_SIZE} syncs: from {@link #MIN_INTERVAL_MILLIS} if every sync brought changes
+ * to {@link #MAX_INTERVAL_MILLIS} if none did, geometrically in between.
+ * Failed syncs are retried after exponentially growing delays, a sync skipped
+ * because there was no network is retried after the min interval.
+ *
+ * Every interval is spread by {@link #JITTER} in both directions,
+ * so devices synced at the same moment don't come back to the server at the same moment.
+ *
+ * It keeps no references to Android classes, time is read from the {@link Clock} passed.
+ * Not thread safe
+ */
+public final class SyncScheduler {
+    /**
+     * Source of the current time, so tests can move it
+     */
+    public interface Clock {
+        /**
+         * @return milliseconds since epoch
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * {@link Clock} of {@link System#currentTimeMillis()}
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Outcomes of a sync
+     */
+    public enum Result {
+        /**
+         * Songs were synced and some of them were changed
+         */
+        CHANGED,
+        /**
+         * Songs were synced, nothing was changed
+         */
+        NOT_CHANGED,
+        /**
+         * Sync was attempted and failed
+         */
+        FAILED,
+        /**
+         * Sync wasn't attempted since there was no network
+         */
+        NO_NETWORK
+    }
+
+    /**
+     * Number of the most recent syncs the change rate is computed over
+     */
+    public static final int HISTORY_SIZE = 8;
+
+    public static final long MIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final long MAX_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /**
+     * Intervals are multiplied by a random factor from [1 - JITTER, 1 + JITTER]
+     */
+    public static final double JITTER = 0.2;
+
+    private final Clock mClock;
+    private final Random mRandom;
+
+    /**
+     * Outcomes of the most recent syncs, the latest one in the lowest bit, 1 if it changed songs
+     */
+    private int mHistory;
+    private int mHistorySize;
+    private int mConsecutiveFailures;
+    private long mNextSyncAtMillis;
+
+    /**
+     * Creates scheduler which has never synced, so the first sync is due at once
+     * @param clock to read the current time from
+     * @param random to pick jitter with
+     */
+    public SyncScheduler(Clock clock, Random random){
+        this(clock, random, 0, 0, 0, 0);
+    }
+
+    /**
+     * Restores scheduler saved with its getters
+     */
+    public SyncScheduler(Clock clock, Random random, int history, int historySize,
+                         int consecutiveFailures, long nextSyncAtMillis){
+        if (historySize < 0 || historySize > HISTORY_SIZE){
+            throw new IllegalArgumentException("historySize must be in [0, " + HISTORY_SIZE
+                    + "], was " + historySize);
+        }
+        this.mClock = clock;
+        this.mRandom = random;
+        this.mHistory = history & ((1 << historySize) - 1);
+        this.mHistorySize = historySize;
+        this.mConsecutiveFailures = Math.max(consecutiveFailures, 0);
+        this.mNextSyncAtMillis = nextSyncAtMillis;
+    }
+
+    /**
+     * Records outcome of a sync, scheduled or started by the user, and picks the time of the next one
+     * @param result of the sync
+     * @return time of the next sync, milliseconds since epoch
+     */
+    public long onSyncFinished(Result result){
+        switch (result){
+            case CHANGED:
+            case NOT_CHANGED:
+                mConsecutiveFailures = 0;
+                mHistory = ((mHistory << 1) | (result == Result.CHANGED ? 1 : 0)) & ((1 << HISTORY_SIZE) - 1);
+                mHistorySize = Math.min(mHistorySize + 1, HISTORY_SIZE);
+                break;
+            case FAILED:
+                mConsecutiveFailures++;
+                break;
+        }
+        long interval = result == Result.NO_NETWORK ? MIN_INTERVAL_MILLIS : getIntervalMillis();
+        mNextSyncAtMillis = mClock.currentTimeMillis() + jitter(interval);
+        return mNextSyncAtMillis;
+    }
+
+    /**
+     * Interval before the next sync without jitter
+     */
+    /* package */ long getIntervalMillis(){
+        if (mConsecutiveFailures > 0){
+            int doublings = Math.min(mConsecutiveFailures - 1, 30);
+            return Math.min(MIN_INTERVAL_MILLIS << doublings, MAX_INTERVAL_MILLIS);
+        }
+        if (mHistorySize == 0){
+            return MIN_INTERVAL_MILLIS;
+        }
+        double changeRate = (double) Integer.bitCount(mHistory) / mHistorySize;
+        return Math.round(MAX_INTERVAL_MILLIS
+                * Math.pow((double) MIN_INTERVAL_MILLIS / MAX_INTERVAL_MILLIS, changeRate));
+    }
+
+    private long jitter(long interval){
+        double factor = 1 - JITTER + 2 * JITTER * mRandom.nextDouble();
+        return Math.round(interval * factor);
+    }
+
+    public long getNextSyncAtMillis(){
+        return mNextSyncAtMillis;
+    }
+
+    public int getHistory(){
+        return mHistory;
+    }
+
+    public int getHistorySize(){
+        return mHistorySize;
+    }
+
+    public int getConsecutiveFailures(){
+        return mConsecutiveFailures;
+    }
+}
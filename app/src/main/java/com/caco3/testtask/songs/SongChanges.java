@@ -0,0 +1,146 @@
+package com.caco3.testtask.songs;
+
+import com.caco3.testtask.songsApi.Song;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes of stored songs made after a change token
+ * {@see {@link SongsHelper#getChangesSince(android.content.Context, long)}}
+ *
+ * Only the latest change of every song is kept, so an inserted song
+ * may be reported as changed and a deleted song may be unknown to the consumer
+ */
+/* package */ final class SongChanges {
+    private final List<Song> mChangedSongs;
+    private final List<Long> mRemovedSongIds;
+    private final long mToken;
+    private final boolean mIsReset;
+
+    /**
+     * @param changedSongs inserted or updated songs, the latest state of them
+     * @param removedSongIds ids of deleted songs
+     * @param token of the last change, pass it to get the next changes
+     */
+    /* package */ SongChanges(List<Song> changedSongs, List<Long> removedSongIds, long token){
+        this.mChangedSongs = changedSongs;
+        this.mRemovedSongIds = removedSongIds;
+        this.mToken = token;
+        this.mIsReset = false;
+    }
+
+    private SongChanges(long token){
+        this.mChangedSongs = Collections.emptyList();
+        this.mRemovedSongIds = Collections.emptyList();
+        this.mToken = token;
+        this.mIsReset = true;
+    }
+
+    /**
+     * @param token to continue from after all songs are read again
+     * @return changes telling that changes since the token passed are compacted
+     */
+    /* package */ static SongChanges reset(long token){
+        return new SongChanges(token);
+    }
+
+    /**
+     * @return true if changes since the token passed were compacted,
+     * so all songs must be read again
+     */
+    /* package */ boolean isReset(){
+        return mIsReset;
+    }
+
+    /* package */ boolean isEmpty(){
+        return mChangedSongs.isEmpty() && mRemovedSongIds.isEmpty();
+    }
+
+    /* package */ List<Song> getChangedSongs(){
+        return mChangedSongs;
+    }
+
+    /* package */ List<Long> getRemovedSongIds(){
+        return mRemovedSongIds;
+    }
+
+    /* package */ long getToken(){
+        return mToken;
+    }
+
+    /**
+     * Applies changes to songs sorted by id descending, the way they are shown
+     * @param songs sorted by id descending
+     * @return new list sorted by id descending
+     * @throws IllegalStateException if the changes are reset
+     */
+    /* package */ List<Song> applyTo(List<Song> songs){
+        return applyTo(songs, Long.MIN_VALUE);
+    }
+
+    /**
+     * Applies changes to the first songs sorted by id descending, the ones loaded so far.
+     * Songs changed below the lowest id loaded aren't inserted, they are read with the next pages
+     * @param songs sorted by id descending
+     * @param lowestId id the songs are loaded down to, {@link Long#MIN_VALUE} if all songs are loaded
+     * @return new list sorted by id descending
+     * @throws IllegalStateException if the changes are reset
+     */
+    /* package */ List<Song> applyTo(List<Song> songs, long lowestId){
+        if (mIsReset){
+            throw new IllegalStateException("Changes were compacted, all songs must be read again");
+        }
+        List<Song> result = new ArrayList<>(songs);
+        for (Long songId : mRemovedSongIds){
+            int index = indexOf(result, songId);
+            if (index >= 0){
+                result.remove(index);
+            }
+        }
+        for (Song song : mChangedSongs){
+            if (song.getId() < lowestId){
+                continue;
+            }
+            int index = indexOf(result, song.getId());
+            if (index >= 0){
+                result.set(index, song);
+            } else {
+                result.add(-index - 1, song);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Binary search over songs sorted by id descending
+     * @return index of the song or (-(insertion point) - 1) if there is no such song
+     */
+    private static int indexOf(List<Song> songs, long songId){
+        int low = 0;
+        int high = songs.size() - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            long id = songs.get(middle).getId();
+            if (id > songId){
+                low = middle + 1;
+            } else if (id < songId){
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SongChanges{" +
+                "changed=" + mChangedSongs.size() +
+                ", removed=" + mRemovedSongIds.size() +
+                ", token=" + mToken +
+                ", reset=" + mIsReset +
+                '}';
+    }
+}
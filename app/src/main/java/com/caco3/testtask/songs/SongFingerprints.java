@@ -0,0 +1,69 @@
+package com.caco3.testtask.songs;
+
+import com.caco3.testtask.provider.SongFingerprint;
+import com.caco3.testtask.songsApi.Song;
+
+import java.util.Arrays;
+
+/**
+ * (song id, {@link SongFingerprint}) pairs of stored songs sorted by song id.
+ * Kept in two primitive arrays, so even the whole catalog takes 16 bytes per song
+ * and no {@link Song} objects are created to decide which songs were changed
+ */
+/* package */ final class SongFingerprints {
+    private long[] mSongIds;
+    private long[] mFingerprints;
+    private int mSize;
+
+    /* package */ SongFingerprints(int capacity){
+        this.mSongIds = new long[Math.max(capacity, 1)];
+        this.mFingerprints = new long[mSongIds.length];
+    }
+
+    /**
+     * @param songId greater than ids added before
+     * @param fingerprint of the song
+     * @throws IllegalArgumentException if song ids aren't added in ascending order
+     */
+    /* package */ void add(long songId, long fingerprint){
+        if (mSize > 0 && songId <= mSongIds[mSize - 1]){
+            throw new IllegalArgumentException("Song ids must be ascending, "
+                    + songId + " was added after " + mSongIds[mSize - 1]);
+        }
+        if (mSize == mSongIds.length){
+            mSongIds = Arrays.copyOf(mSongIds, mSize * 2);
+            mFingerprints = Arrays.copyOf(mFingerprints, mSize * 2);
+        }
+        mSongIds[mSize] = songId;
+        mFingerprints[mSize] = fingerprint;
+        mSize++;
+    }
+
+    /* package */ int size(){
+        return mSize;
+    }
+
+    /* package */ long songIdAt(int index){
+        return mSongIds[index];
+    }
+
+    /* package */ long fingerprintAt(int index){
+        return mFingerprints[index];
+    }
+
+    /**
+     * @return index of the song or negative value if there is no such song
+     */
+    /* package */ int indexOf(long songId){
+        return Arrays.binarySearch(mSongIds, 0, mSize, songId);
+    }
+
+    /**
+     * @return true if the song is stored with the same content
+     */
+    /* package */ boolean isUnchanged(Song song){
+        int index = indexOf(song.getId());
+        return index >= 0 && mFingerprints[index]
+                == SongFingerprint.of(song.getAuthor(), song.getName(), song.getVersion());
+    }
+}
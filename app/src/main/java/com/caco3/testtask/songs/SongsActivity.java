@@ -10,18 +10,23 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.os.Bundle;
 import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.widget.Toast;
 
 import com.caco3.testtask.R;
 import com.caco3.testtask.service.PollSongsService;
+import com.caco3.testtask.service.SyncAlarmReceiver;
+import com.caco3.testtask.songsApi.CachedSongs;
 import com.caco3.testtask.songsApi.Song;
+import com.caco3.testtask.songsApi.SongsApiFactory;
 import com.caco3.testtask.ui.BaseActivity;
 import com.caco3.testtask.ui.widget.AutoFitRecyclerView;
 import com.caco3.testtask.util.NetworkUtils;
 import com.caco3.testtask.util.UiUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import jp.wasabeef.recyclerview.animators.SlideInUpAnimator;
@@ -45,6 +50,17 @@ public class SongsActivity extends BaseActivity
     private static final String STATE_SWIPE_REFRESH_LAYOUT_REFRESHING
             = "swrl_refreshing";
 
+    /**
+     * Number of songs loaded from db at once, enough to fill the screen
+     */
+    private static final int SONGS_PAGE_SIZE = 100;
+
+    /**
+     * The next page is loaded when the user scrolls within that many songs
+     * of the last one loaded
+     */
+    private static final int SONGS_PRELOAD_DISTANCE = SONGS_PAGE_SIZE / 2;
+
     /**
      * Allows user to trigger manual update
      */
@@ -73,6 +89,36 @@ public class SongsActivity extends BaseActivity
      */
     private UpdateSongsViewTask mUpdateSongsViewTask = null;
 
+    /**
+     * Keep track of running task applying changes to {@link #mSongsAutoFitRecyclerView}
+     * so we can cancel it
+     */
+    private ApplySongChangesTask mApplySongChangesTask = null;
+
+    /**
+     * Keep track of running task loading the next page of songs,
+     * so only one page is loaded at once
+     */
+    private LoadNextPageTask mLoadNextPageTask = null;
+
+    /**
+     * Token of the last change of songs shown, so only changes made after it are applied.
+     * Null if songs shown weren't read from db
+     */
+    private Long mChangeToken = null;
+
+    /**
+     * True if db has songs after the last one loaded,
+     * so the next page is loaded when the user scrolls to the end
+     */
+    private boolean mHasMoreSongs = false;
+
+    /**
+     * True if stale cached songs were already revalidated,
+     * so they aren't synced again if db is still empty after the sync
+     */
+    private boolean mCachedSongsRevalidated = false;
+
     /**
      * Receives result intents from {@link PollSongsService}.
      * And performs ui operations depending on result returned
@@ -86,14 +132,25 @@ public class SongsActivity extends BaseActivity
             LOGI(TAG, "Received intent with action " + action);
             // check result
             if (PollSongsService.isResultOk(intent)){
-                mUpdateSongsViewTask = new UpdateSongsViewTask(true /* stop refreshing */);
-                mUpdateSongsViewTask.execute();
+                if (mChangeToken != null && mUpdateSongsViewTask == null && mApplySongChangesTask == null){
+                    mApplySongChangesTask = new ApplySongChangesTask(mChangeToken);
+                    mApplySongChangesTask.execute();
+                } else {
+                    mUpdateSongsViewTask = new UpdateSongsViewTask(true /* stop refreshing */);
+                    mUpdateSongsViewTask.execute();
+                }
+            } else if (PollSongsService.isNotModified(intent)){
+                // Nothing changed, songs on the screen are up to date
+                mSwipeRefreshLayout.setRefreshing(false);
             } else {
                 // Updating failed
                 // Refreshing animation will not be cleared.
                 // So we must clear it here
                 mSwipeRefreshLayout.setRefreshing(false);
-                if (PollSongsService.isNetworkErrorOccurred(intent)) {
+                if (mPollDataIntent == null) {
+                    // background sync failed, it will be retried, user didn't ask for it
+                    LOGD(TAG, "Background sync failed");
+                } else if (PollSongsService.isNetworkErrorOccurred(intent)) {
                     Toast.makeText(SongsActivity.this,
                             getString(R.string.unable_to_retrieve_songs_no_network), Toast.LENGTH_SHORT)
                             .show();
@@ -129,6 +186,8 @@ public class SongsActivity extends BaseActivity
         UiUtils.setColorsForSwipeRefreshLayout(mSwipeRefreshLayout);
 
         registerBroadcastReceivers();
+        // syncs songs at once if they are stale
+        SyncAlarmReceiver.ensureScheduled(this);
     }
 
     @Override
@@ -161,6 +220,18 @@ public class SongsActivity extends BaseActivity
         }
     }
 
+    /**
+     * Syncs songs in background while stale cached songs are shown,
+     * they are replaced when the sync completes. Failure isn't shown, user didn't ask for it
+     */
+    private void revalidateCachedSongs(){
+        if (!mCachedSongsRevalidated && mPollDataIntent == null && NetworkUtils.isNetworkAvailable(this)){
+            LOGD(TAG, "Revalidating stale cached songs");
+            mCachedSongsRevalidated = true;
+            startService(new Intent(this, PollSongsService.class));
+        }
+    }
+
     @Override
     public void onDestroy(){
         unregisterBroadcastReceivers();
@@ -168,12 +239,19 @@ public class SongsActivity extends BaseActivity
             LOGD(TAG, "UpdateSongsViewTask canceled");
             mUpdateSongsViewTask.cancel(true);
         }
+        if (mApplySongChangesTask != null){
+            LOGD(TAG, "ApplySongChangesTask canceled");
+            mApplySongChangesTask.cancel(true);
+        }
+        cancelLoadNextPage();
         super.onDestroy();
     }
 
     /**
      * Asynchronously performs retrieving {@link Song}s from {@link com.caco3.testtask.provider.SongsDatabase}
      * and updates {@link #mSongsAutoFitRecyclerView} with retrieved items.
+     * Only as many songs as were loaded before are read again, but at least one page,
+     * the next pages are loaded as the user scrolls {@see {@link LoadNextPageTask}}
      *
      * We execute this in following cases:
      * 1) We need to populate our {@link #mSongsAutoFitRecyclerView} when this activity is created.
@@ -190,9 +268,41 @@ public class SongsActivity extends BaseActivity
      * setRefreshing(false) instance must be created with 'true' parameter and 'false'
      * otherwise.
      */
-    private class UpdateSongsViewTask extends AsyncTask<Void, Void, List<Song>>{
+    private class UpdateSongsViewTask extends AsyncTask<Void, SongsAdapter.Update, SongsAdapter.Update>{
         private final boolean mNeedToStopRefreshingOnPostExecute;
 
+        /**
+         * Songs shown when the task was started and their version, to diff loaded ones against
+         */
+        private List<Song> mShownSongs;
+        private int mShownVersion;
+
+        /**
+         * True if the list is empty, so the first page is shown
+         * as soon as it's loaded instead of waiting for the rest of songs loaded before
+         */
+        private boolean mNeedToShowFirstPage;
+
+        /**
+         * Number of songs to read
+         */
+        private int mLimit;
+
+        /**
+         * Token of the last change of songs loaded, null if cached songs are shown
+         */
+        private Long mLoadedChangeToken;
+
+        /**
+         * True if db has songs after the last one read
+         */
+        private boolean mHasMore;
+
+        /**
+         * True if cached songs shown are stale and must be revalidated
+         */
+        private boolean mShowsStaleCachedSongs;
+
         /**
          * @param needToStopRefreshingOnPostExecute if true, task will call setRefreshing(false)
          *                                          in onPostExecute()
@@ -203,35 +313,224 @@ public class SongsActivity extends BaseActivity
 
 
         @Override
-        protected List<Song> doInBackground(Void... params){
-            return SongsHelper.getSongs(SongsActivity.this);
+        protected void onPreExecute() {
+            // the page being loaded would be appended to songs replaced by this task
+            cancelLoadNextPage();
+            mNeedToShowFirstPage = mSongsAdapter.getItemCount() == 0;
+            mLimit = Math.max(mSongsAdapter.getItemCount(), SONGS_PAGE_SIZE);
+            mShownSongs = mSongsAdapter.getItems();
+            mShownVersion = mSongsAdapter.getVersion();
         }
 
+        /**
+         * Loads songs page by page in the order they are shown,
+         * so time till the first page is shown doesn't depend on the number of songs.
+         * Songs are diffed against ones shown here, so only notifications are left for the UI thread
+         */
         @Override
-        protected void onPostExecute(List<Song> result){
-            mSongsAdapter.updateItems(result);
-
-            /**
-             * If item was inserted at 0 position. RecyclerView
-             * will scroll to second row...
-             * {@see https://code.google.com/p/android/issues/detail?id=174227}
-             *
-             * Fix it...
-             */
-            GridLayoutManager gridLayoutManager
-                    = (GridLayoutManager)mSongsAutoFitRecyclerView.getLayoutManager();
-            int itemsPerRow = gridLayoutManager.getSpanCount();
-            int firstCompletelyVisibleItem = gridLayoutManager.findFirstCompletelyVisibleItemPosition();
-            if (firstCompletelyVisibleItem != -1
-                    && firstCompletelyVisibleItem < itemsPerRow){
-                mSongsAutoFitRecyclerView.scrollToPosition(0);
+        protected SongsAdapter.Update doInBackground(Void... params){
+            // read before songs, so changes made while they are loaded are applied later
+            mLoadedChangeToken = SongsHelper.getChangeToken(SongsActivity.this);
+            SongsAdapter.Update firstPageUpdate = null;
+            List<Song> songs = new ArrayList<>();
+            List<Song> page;
+            do {
+                Long afterId = songs.isEmpty() ? null : songs.get(songs.size() - 1).getId();
+                page = SongsHelper.getSongsPage(SongsActivity.this, afterId,
+                        Math.min(SONGS_PAGE_SIZE, mLimit - songs.size()),
+                        true /* descending, as they are shown */);
+                songs.addAll(page);
+                if (mNeedToShowFirstPage && songs.size() == page.size()
+                        && page.size() == SONGS_PAGE_SIZE && songs.size() < mLimit){
+                    firstPageUpdate = SongsAdapter.diff(mShownSongs, mShownVersion, new ArrayList<>(page));
+                    publishProgress(firstPageUpdate);
+                }
+            } while (page.size() == SONGS_PAGE_SIZE && songs.size() < mLimit && !isCancelled());
+            // the next page may be empty, it's found out when it's loaded
+            mHasMore = songs.size() == mLimit;
+            if (songs.isEmpty()){
+                // db is empty after it was recreated,
+                // show the first songs stored by the last sync until the sync completes
+                CachedSongs.Snapshot cached = SongsApiFactory.getCachedSongs(getCacheDir()).get();
+                if (cached != null){
+                    LOGD(TAG, "Db is empty, showing " + cached.getSongs().size()
+                            + (cached.isStale() ? " stale" : "") + " cached songs");
+                    mLoadedChangeToken = null;
+                    mShowsStaleCachedSongs = cached.isStale();
+                    songs = cached.getSongs();
+                }
             }
+            return firstPageUpdate != null
+                    ? firstPageUpdate.then(songs)
+                    : SongsAdapter.diff(mShownSongs, mShownVersion, songs);
+        }
+
+        @Override
+        protected void onProgressUpdate(SongsAdapter.Update... firstPage) {
+            mSongsAdapter.applyUpdate(firstPage[0]);
+        }
+
+        @Override
+        protected void onPostExecute(SongsAdapter.Update result){
+            mSongsAdapter.applyUpdate(result);
+            mChangeToken = mLoadedChangeToken;
+            mHasMoreSongs = mHasMore;
+            keepFirstRowVisible();
 
             // Stop refreshing if needed
             if (mNeedToStopRefreshingOnPostExecute) {
                 mSwipeRefreshLayout.setRefreshing(false);
             }
             mUpdateSongsViewTask = null;
+            loadNextPageIfNeeded();
+            if (mShowsStaleCachedSongs){
+                revalidateCachedSongs();
+            }
+        }
+    }
+
+    /**
+     * Loads the page of songs following the last one shown and appends it to them.
+     * The page is dropped if songs shown were replaced while it was loaded
+     */
+    private class LoadNextPageTask extends AsyncTask<Void, Void, List<Song>>{
+        private final long mAfterId;
+
+        LoadNextPageTask(long afterId){
+            this.mAfterId = afterId;
+        }
+
+        @Override
+        protected List<Song> doInBackground(Void... params){
+            return SongsHelper.getSongsPage(SongsActivity.this, mAfterId, SONGS_PAGE_SIZE,
+                    true /* descending, as they are shown */);
+        }
+
+        @Override
+        protected void onPostExecute(List<Song> page){
+            mLoadNextPageTask = null;
+            Song lastItem = mSongsAdapter.getLastItem();
+            if (lastItem == null || lastItem.getId() != mAfterId){
+                // songs were changed meanwhile, the page may not follow them anymore
+                loadNextPageIfNeeded();
+                return;
+            }
+            LOGD(TAG, "Loaded " + page.size() + " songs after " + mAfterId);
+            mHasMoreSongs = page.size() == SONGS_PAGE_SIZE;
+            mSongsAdapter.appendItems(page);
+            loadNextPageIfNeeded();
+        }
+    }
+
+    /**
+     * Starts loading the next page of songs if the user has scrolled close to the last one loaded
+     */
+    private void loadNextPageIfNeeded(){
+        if (!mHasMoreSongs || mLoadNextPageTask != null
+                || mUpdateSongsViewTask != null || mApplySongChangesTask != null){
+            return;
+        }
+        Song lastItem = mSongsAdapter.getLastItem();
+        if (lastItem == null){
+            return;
+        }
+        LinearLayoutManager layoutManager
+                = (LinearLayoutManager) mSongsAutoFitRecyclerView.getLayoutManager();
+        int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+        if (lastVisibleItem >= mSongsAdapter.getItemCount() - SONGS_PRELOAD_DISTANCE){
+            mLoadNextPageTask = new LoadNextPageTask(lastItem.getId());
+            mLoadNextPageTask.execute();
+        }
+    }
+
+    private void cancelLoadNextPage(){
+        if (mLoadNextPageTask != null){
+            LOGD(TAG, "LoadNextPageTask canceled");
+            mLoadNextPageTask.cancel(true);
+            mLoadNextPageTask = null;
+        }
+    }
+
+    /**
+     * Applies changes of songs made after the token to songs shown,
+     * so only changed songs are read from db instead of all of them.
+     * Reads all songs with {@link UpdateSongsViewTask} if changes were compacted.
+     * Stops refreshing when finished
+     */
+    private class ApplySongChangesTask extends AsyncTask<Void, Void, SongsAdapter.Update>{
+        private final long mToken;
+
+        /**
+         * Songs shown when the task was started and their version
+         */
+        private List<Song> mSongs;
+        private int mVersion;
+
+        /**
+         * Id songs shown are loaded down to, {@link Long#MIN_VALUE} if all of them are loaded
+         */
+        private long mLowestId;
+
+        private SongChanges mChanges;
+
+        ApplySongChangesTask(long token){
+            this.mToken = token;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            // the page being loaded would be appended to songs replaced by this task
+            cancelLoadNextPage();
+            mSongs = mSongsAdapter.getItems();
+            mVersion = mSongsAdapter.getVersion();
+            Song lastItem = mSongsAdapter.getLastItem();
+            mLowestId = mHasMoreSongs && lastItem != null ? lastItem.getId() : Long.MIN_VALUE;
+        }
+
+        /**
+         * @return update of songs shown or null if all songs must be read again
+         */
+        @Override
+        protected SongsAdapter.Update doInBackground(Void... params){
+            mChanges = SongsHelper.getChangesSince(SongsActivity.this, mToken);
+            LOGD(TAG, "Applying " + mChanges);
+            return mChanges.isReset()
+                    ? null
+                    : SongsAdapter.diff(mSongs, mVersion, mChanges.applyTo(mSongs, mLowestId));
+        }
+
+        @Override
+        protected void onPostExecute(SongsAdapter.Update result){
+            mApplySongChangesTask = null;
+            if (result == null){
+                mChangeToken = null;
+                mUpdateSongsViewTask = new UpdateSongsViewTask(true /* stop refreshing */);
+                mUpdateSongsViewTask.execute();
+                return;
+            }
+            mSongsAdapter.applyUpdate(result);
+            mChangeToken = mChanges.getToken();
+            keepFirstRowVisible();
+            mSwipeRefreshLayout.setRefreshing(false);
+            loadNextPageIfNeeded();
+        }
+    }
+
+    /**
+     * If item was inserted at 0 position. RecyclerView
+     * will scroll to second row...
+     * {@see https://code.google.com/p/android/issues/detail?id=174227}
+     *
+     * Fix it...
+     */
+    private void keepFirstRowVisible(){
+        GridLayoutManager gridLayoutManager
+                = (GridLayoutManager)mSongsAutoFitRecyclerView.getLayoutManager();
+        int itemsPerRow = gridLayoutManager.getSpanCount();
+        int firstCompletelyVisibleItem = gridLayoutManager.findFirstCompletelyVisibleItemPosition();
+        if (firstCompletelyVisibleItem != -1
+                && firstCompletelyVisibleItem < itemsPerRow){
+            mSongsAutoFitRecyclerView.scrollToPosition(0);
         }
     }
 
@@ -276,6 +575,12 @@ public class SongsActivity extends BaseActivity
                         margin);
             }
         });
+        mSongsAutoFitRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadNextPageIfNeeded();
+            }
+        });
         mUpdateSongsViewTask = new UpdateSongsViewTask(false /* mustn't stop refreshing */);
         mUpdateSongsViewTask.execute();
     }
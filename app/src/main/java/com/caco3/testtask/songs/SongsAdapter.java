@@ -10,8 +10,12 @@ import android.widget.TextView;
 import com.caco3.testtask.R;
 import com.caco3.testtask.songsApi.Song;
 import com.caco3.testtask.ui.widget.AutoFitRecyclerView;
+import com.caco3.testtask.util.ParallelSort;
+import com.caco3.testtask.util.ParallelUtils;
+import com.caco3.testtask.util.SortedDiff;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -45,9 +49,14 @@ import java.util.List;
             R.color.brown_light};
 
     /**
-     * Used to compare {@link Song} items to perform
-     * accurately updating items in this adapter
-     * {@see {@link #updateItems(List)}}
+     * Number of items from which sorting and diffing are split across cores,
+     * shorter lists are handled faster than tasks are scheduled
+     */
+    private static final int PARALLEL_THRESHOLD = 50000;
+
+    /**
+     * Used to sort {@link Song} items by id from the greatest to the lowest
+     * if they don't come sorted {@see {@link #diff(List, int, List)}}
      */
     private static final Comparator<Song> sSongByIdComparator
             = new Comparator<Song>() {
@@ -68,6 +77,12 @@ import java.util.List;
         }
     };
 
+    /**
+     * Incremented every time items are changed,
+     * so an {@link Update} computed against older items isn't replayed
+     */
+    private int mVersion = 0;
+
     /* package */ SongsAdapter(Context context){
         this.mContext = context;
     }
@@ -100,88 +115,244 @@ import java.util.List;
     }
 
     /**
-     * Called when this list of this items must be updated.
-     * @param items list of items that must replace list in this adapter
+     * @return copy of items this adapter holds, sorted by id from the greatest to the lowest
      */
-    /* package */ void updateItems(List<Song> items){
-        // sort items by id from the greatest to the lowest
-        Collections.sort(items, sSongByIdComparator);
-        if (mItems.isEmpty()){
-            // Adapter has no items in the list. Just add all from new list
-            for(int i = 0; i < items.size(); i++){
-                mItems.add(items.get(i));
-                notifyItemInserted(i);
-            }
-        } else if (items.isEmpty()){
-            // No items in new items list. Remove all from adapter's list
-            for(int i = mItems.size() - 1; i >= 0; i--){
-                mItems.remove(i);
-                notifyItemRemoved(i);
+    /* package */ List<Song> getItems(){
+        return new ArrayList<>(mItems);
+    }
+
+    /**
+     * @return version of items this adapter holds, to pass to {@link #diff(List, int, List)}
+     * along with {@link #getItems()}
+     */
+    /* package */ int getVersion(){
+        return mVersion;
+    }
+
+    /**
+     * @return the last item, the one with the lowest id, or null if there are no items
+     */
+    /* package */ Song getLastItem(){
+        return mItems.isEmpty() ? null : mItems.get(mItems.size() - 1);
+    }
+
+    /**
+     * Adds the next page of items to the end
+     * @param page items with ids lower than the last item's one, sorted by id from the greatest to the lowest
+     */
+    /* package */ void appendItems(List<Song> page){
+        int start = mItems.size();
+        mItems.addAll(page);
+        mVersion++;
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    /**
+     * Computes how items of the adapter must be changed to become new ones.
+     * It takes time proportional to the number of items, so it must be called off the UI thread,
+     * then the result is passed to {@link #applyUpdate(Update)} on the UI thread.
+     *
+     * Items read from db come sorted by id from the greatest to the lowest,
+     * other ones are sorted here. Items are compared with {@link SortedDiff} in one pass.
+     * Lists longer than {@link #PARALLEL_THRESHOLD} are sorted and diffed on all cores
+     * @param oldItems items of the adapter, {@link #getItems()}
+     * @param oldVersion version of these items, {@link #getVersion()}
+     * @param newItems items that must replace them, sorted in place if they aren't sorted
+     * @return update to apply
+     */
+    /* package */ static Update diff(List<Song> oldItems, int oldVersion, List<Song> newItems){
+        boolean isParallel = Math.max(oldItems.size(), newItems.size()) >= PARALLEL_THRESHOLD;
+        if (!isSortedDescending(newItems)){
+            if (isParallel){
+                ParallelSort.sort(newItems, sSongByIdComparator,
+                        ParallelUtils.getExecutor(), ParallelUtils.getParallelism());
+            } else {
+                Collections.sort(newItems, sSongByIdComparator);
             }
+        }
+        Update update = new Update(oldVersion, newItems);
+        RecordingCallback callback = new RecordingCallback(oldItems, newItems, update);
+        if (isParallel){
+            SortedDiff.diff(callback, true /* descending */,
+                    ParallelUtils.getExecutor(), ParallelUtils.getParallelism());
         } else {
-            // Remove all items in the adapter's list which aren't present in new items list
-            // and add all items which present in the new list but not present in adapter'
-            // keeping sort order by song id.
-
-            // something like merge procedure for mergeSort
-            // this part does its work with quadratic complexity
+            SortedDiff.diff(callback, true /* descending */);
+        }
+        callback.flush();
+        return update;
+    }
 
-            /**
-             * We can do this because lists of {@link Song} items
-             * in this adapter and passed to this method
-             * are already sorted by {@link Song#getId()}
-             */
+    private static boolean isSortedDescending(List<Song> items){
+        for (int i = 1; i < items.size(); i++){
+            if (items.get(i - 1).getId() < items.get(i).getId()){
+                return false;
+            }
+        }
+        return true;
+    }
 
-            int newListIdx = 0;
-            int adapterListIdx = 0;
-            // Start iterating over list in the adapter and new list
-            while (newListIdx < items.size() && adapterListIdx < mItems.size()) {
-                if (sSongByIdComparator.compare(mItems.get(adapterListIdx), items.get(newListIdx)) < 0) {
-                    // item in adapter's list has id which is not present in the new list.
-                    // so it must be removed
-                    mItems.remove(adapterListIdx);
-                    notifyItemRemoved(adapterListIdx);
-                } else if (sSongByIdComparator.compare(mItems.get(adapterListIdx), items.get(newListIdx)) == 0) {
-                    // current items in the adapter's list and in the new list
-                    // have the same id. Update item (id may stay the same, but other song fields may change)
-                    if (!mItems.get(adapterListIdx).equals(items.get(newListIdx))) {
-                        mItems.set(adapterListIdx, items.get(newListIdx));
-                        notifyItemChanged(adapterListIdx);
-                    }
-                    // analyse next items
-                    newListIdx++;
-                    adapterListIdx++;
-                } else {
-                    // current item in the new list is not present in the adapter's list
-                    // so we must add it
-                    mItems.add(adapterListIdx, items.get(newListIdx));
-                    notifyItemInserted(adapterListIdx);
-                    // analyse next positions
-                    adapterListIdx++;
-                    newListIdx++;
-                }
+    /**
+     * Replaces items of this adapter with ones of the update, notifying only the ranges changed.
+     * If items were changed since the update was computed, its ranges don't match them anymore,
+     * so the whole data set is notified as changed
+     * @param update computed by {@link #diff(List, int, List)} or {@link Update#then(List)}
+     */
+    /* package */ void applyUpdate(Update update){
+        boolean isCurrent = update.mOldVersion == mVersion;
+        mItems.clear();
+        mItems.addAll(update.mNewItems);
+        mVersion++;
+        if (!isCurrent){
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = 0; i < update.mRangeCount; i++){
+            int start = update.mRanges[3 * i + 1];
+            int count = update.mRanges[3 * i + 2];
+            switch (update.mRanges[3 * i]){
+                case Update.INSERTED:
+                    notifyItemRangeInserted(start, count);
+                    break;
+                case Update.REMOVED:
+                    notifyItemRangeRemoved(start, count);
+                    break;
+                case Update.CHANGED:
+                    notifyItemRangeChanged(start, count);
+                    break;
             }
+        }
+    }
+
+    /**
+     * New items and ranges of items inserted, removed and changed to notify, in order
+     */
+    /* package */ static final class Update {
+        private static final int INSERTED = 1;
+        private static final int REMOVED = 2;
+        private static final int CHANGED = 3;
 
-            if (newListIdx < items.size()) {
-                // there are left some items in the new list which were not added
-                // so we must add them
-                while (newListIdx < items.size()) {
-                    mItems.add(items.get(newListIdx++));
-                    notifyItemInserted(mItems.size() - 1);
-                }
-            } else if (adapterListIdx < mItems.size()) {
-                // there are left some items in the adapter's list
-                // which are not present in the new list
-                // so we have to delete them
-                while (sSongByIdComparator.compare(mItems.get(mItems.size() - 1), items.get(items.size() - 1)) > 0) {
-                    int removedItemPosition = mItems.size() - 1;
-                    mItems.remove(removedItemPosition);
-                    notifyItemRemoved(removedItemPosition);
-                }
+        private final int mOldVersion;
+        private final List<Song> mNewItems;
+
+        /**
+         * Type, start and count of every range
+         */
+        private int[] mRanges = new int[3 * 8];
+        private int mRangeCount = 0;
+
+        private Update(int oldVersion, List<Song> newItems){
+            this.mOldVersion = oldVersion;
+            this.mNewItems = newItems;
+        }
+
+        /**
+         * Computes the update to apply right after this one, off the UI thread
+         * {@see {@link #diff(List, int, List)}}
+         * @param newerItems items that must replace ones of this update
+         * @return update to apply
+         */
+        /* package */ Update then(List<Song> newerItems){
+            // applying this update increments the version once
+            return diff(mNewItems, mOldVersion + 1, newerItems);
+        }
+
+        /**
+         * @return new items, sorted by id from the greatest to the lowest
+         */
+        /* package */ List<Song> getItems(){
+            return mNewItems;
+        }
+
+        private void addRange(int type, int start, int count){
+            if (3 * mRangeCount == mRanges.length){
+                mRanges = Arrays.copyOf(mRanges, 2 * mRanges.length);
             }
+            mRanges[3 * mRangeCount] = type;
+            mRanges[3 * mRangeCount + 1] = start;
+            mRanges[3 * mRangeCount + 2] = count;
+            mRangeCount++;
+        }
+    }
 
+    /**
+     * Records operations of {@link SortedDiff} in the {@link Update},
+     * merging consecutive operations of the same kind into one range
+     */
+    private static class RecordingCallback extends SortedDiff.Callback {
+        private static final int NONE = 0;
+
+        private final List<Song> mOldItems;
+        private final List<Song> mNewItems;
+        private final Update mUpdate;
+
+        private int mRangeType = NONE;
+        private int mRangeStart;
+        private int mRangeCount;
+
+        private RecordingCallback(List<Song> oldItems, List<Song> newItems, Update update){
+            this.mOldItems = oldItems;
+            this.mNewItems = newItems;
+            this.mUpdate = update;
         }
 
+        @Override
+        public int getOldSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public long getOldId(int oldIndex) {
+            return mOldItems.get(oldIndex).getId();
+        }
+
+        @Override
+        public long getNewId(int newIndex) {
+            return mNewItems.get(newIndex).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldIndex, int newIndex) {
+            return mOldItems.get(oldIndex).equals(mNewItems.get(newIndex));
+        }
+
+        @Override
+        public void onInserted(int position, int newIndex) {
+            extendRange(Update.INSERTED, position, mRangeStart + mRangeCount);
+        }
+
+        @Override
+        public void onRemoved(int position, int oldIndex) {
+            // the next removed item takes the position of the previous one
+            extendRange(Update.REMOVED, position, mRangeStart);
+        }
+
+        @Override
+        public void onChanged(int position, int oldIndex, int newIndex) {
+            extendRange(Update.CHANGED, position, mRangeStart + mRangeCount);
+        }
+
+        private void extendRange(int type, int position, int nextPosition){
+            if (mRangeType == type && position == nextPosition){
+                mRangeCount++;
+                return;
+            }
+            flush();
+            mRangeType = type;
+            mRangeStart = position;
+            mRangeCount = 1;
+        }
+
+        private void flush(){
+            if (mRangeType != NONE){
+                mUpdate.addRange(mRangeType, mRangeStart, mRangeCount);
+            }
+            mRangeType = NONE;
+        }
     }
 
     /**
@@ -1,21 +1,29 @@
 package com.caco3.testtask.songs;
 
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 
+import com.caco3.testtask.provider.SongFingerprint;
 import com.caco3.testtask.provider.SongsDatabase;
 import com.caco3.testtask.provider.SongsProvider;
 import com.caco3.testtask.songsApi.Song;
+import com.caco3.testtask.songsApi.SongsApi;
+import com.caco3.testtask.songsApi.SongsDelta;
+import com.caco3.testtask.songsApi.SongsPage;
+import com.caco3.testtask.util.SortedDiff;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static com.caco3.testtask.util.LogUtils.*;
 
@@ -27,26 +35,15 @@ public class SongsHelper {
     private static final String TAG = makeLogTag(SongsHelper.class);
 
     /**
-     * Compares {@link Song}s by {@link Song#getId()}.
-     * Used to update db with new list.
-     */
-    private static final Comparator<Song> sSongByIdComparator
-            = new Comparator<Song>() {
-        @Override
-        public int compare(Song o1, Song o2) {
-            /**
-             * Can't delegate it to {@link Long#compare(long, long)}
-             * since minApiLevel for this app is 15
-             */
-            if (o1.getId() < o2.getId()) {
-                return -1;
-            } else if (o1.getId() > o2.getId()) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    };
+     * Max number of song ids put to one 'IN (...)' selection.
+     * SQLite limits number of arguments in one statement with 999
+     */
+    private static final int MAX_SQL_ARGS = 500;
+
+    /**
+     * Number of changes read at once
+     */
+    private static final int CHANGES_PAGE_SIZE = 500;
 
     /**
      * Retrieves all songs saved in the {@link SongsDatabase}
@@ -55,17 +52,65 @@ public class SongsHelper {
      * @return List of songs stored in the {@link SongsDatabase}
      */
     public static List<Song> getSongs(Context context){
+        return querySongs(context, SongsProvider.CONTENT_URI,
+                SongsDatabase.Songs.KEY_SONG_ID + " ASC" /* sort order */);
+    }
+
+    /**
+     * Retrieves one page of songs saved in the {@link SongsDatabase}.
+     * Pass id of the last song of the previous page to get the next one
+     * {@see {@link SongsProvider#PAGE_URI}}
+     * @param context get content resolver
+     * @param afterId id of the last song of the previous page or null to get the first page
+     * @param limit max number of songs in the page
+     * @param descending true to page from the greatest id to the lowest
+     * @return List of songs sorted by {@link Song#getId()} in the requested order,
+     * shorter than limit only if it's the last page
+     */
+    public static List<Song> getSongsPage(Context context, Long afterId, int limit, boolean descending){
+        Uri.Builder uri = (descending ? SongsProvider.PAGE_DESC_URI : SongsProvider.PAGE_URI).buildUpon()
+                .appendQueryParameter(SongsProvider.PARAM_LIMIT, String.valueOf(limit));
+        if (afterId != null){
+            uri.appendQueryParameter(SongsProvider.PARAM_AFTER_ID, String.valueOf(afterId));
+        }
+        return querySongs(context, uri.build(), null /* sort order is set by the uri */);
+    }
+
+    /**
+     * Searches songs by words of their names and authors
+     * {@see {@link SongsProvider#SEARCH_URI}}
+     * @param context get content resolver
+     * @param text typed by user
+     * @param limit max number of songs to return
+     * @return the best matching songs first
+     */
+    public static List<Song> searchSongs(Context context, String text, int limit){
+        Uri uri = SongsProvider.SEARCH_URI.buildUpon()
+                .appendQueryParameter(SongsProvider.PARAM_QUERY, text)
+                .appendQueryParameter(SongsProvider.PARAM_LIMIT, String.valueOf(limit))
+                .build();
+        return querySongs(context, uri, null /* songs are ranked by the provider */);
+    }
+
+    /**
+     * Retrieves songs saved in the {@link SongsDatabase}
+     * @param context get content resolver
+     * @param uri to query
+     * @param sortOrder of songs
+     * @return List of songs
+     */
+    private static List<Song> querySongs(Context context, Uri uri, String sortOrder){
         ContentResolver contentResolver = context.getContentResolver();
         Cursor cursor = null;
 
         List<Song> result = new ArrayList<>();
 
         try{
-            cursor = contentResolver.query(SongsProvider.CONTENT_URI,
-                    null,
-                    null,
+            cursor = contentResolver.query(uri,
                     null,
-                    SongsDatabase.Songs.KEY_SONG_ID + " ASC" /* sort order */);
+                    null, // selection
+                    null, // selectionArgs
+                    sortOrder);
             if (cursor != null && cursor.moveToFirst()){
                 int nameIdx = cursor.getColumnIndex(SongsDatabase.Songs.KEY_NAME);
                 int authorIdx = cursor.getColumnIndex(SongsDatabase.Songs.KEY_AUTHOR);
@@ -90,129 +135,511 @@ public class SongsHelper {
     }
 
     /**
-     * Compares songs stored in the {@link SongsDatabase} and passed songs.
-     * Removes songs which are present in db and not present in new list.
-     * Updates songs which have the same id but different content.
-     * Adds songs to the db which are present in new list, but not present in db.
+     * Retrieves token of the latest change of songs saved in the {@link SongsDatabase}.
+     * Read it before reading songs, so changes made while songs are read aren't missed
+     * {@see {@link #getChangesSince(Context, long)}}
+     * @param context get content resolver
+     * @return token to get changes made after now
+     */
+    public static long getChangeToken(Context context){
+        Cursor cursor = null;
+        long token = 0;
+        try {
+            cursor = context.getContentResolver().query(SongsProvider.LATEST_CHANGE_URI,
+                    null, // projection
+                    null, // selection
+                    null, // selectionArgs
+                    null /* sort order */);
+            if (cursor != null && cursor.moveToFirst()){
+                token = cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null){
+                cursor.close();
+            }
+        }
+        Long floor = getSyncStateValue(context, SongsDatabase.SyncState.CHANGES_FLOOR);
+        return floor != null ? Math.max(token, floor) : token;
+    }
+
+    /**
+     * Retrieves changes of songs saved in the {@link SongsDatabase} made after the token,
+     * so consumers apply them instead of reading all songs again.
+     * Only the latest change of every song is returned
+     * {@see {@link SongsProvider#CHANGES_URI}}
+     * @param context get content resolver
+     * @param token of the last change seen
+     * @return changes made after the token, {@link SongChanges#isReset()} if they were compacted
+     */
+    /* package */ static SongChanges getChangesSince(Context context, long token){
+        ContentResolver contentResolver = context.getContentResolver();
+        // the latest state of every song changed, null if the song was deleted
+        Map<Long, Song> latest = new HashMap<>();
+        long lastToken = token;
+        int count;
+        do {
+            count = 0;
+            Cursor cursor = null;
+            try {
+                cursor = contentResolver.query(SongsProvider.CHANGES_URI.buildUpon()
+                                .appendQueryParameter(SongsProvider.PARAM_SINCE, String.valueOf(lastToken))
+                                .appendQueryParameter(SongsProvider.PARAM_LIMIT, String.valueOf(CHANGES_PAGE_SIZE))
+                                .build(),
+                        null, // projection
+                        null, // selection
+                        null, // selectionArgs
+                        null /* sort order is set by the uri */);
+                if (cursor != null){
+                    int tokenIdx = cursor.getColumnIndex(SongsDatabase.Changes.KEY__ID);
+                    int idIdx = cursor.getColumnIndex(SongsDatabase.Changes.KEY_SONG_ID);
+                    int operationIdx = cursor.getColumnIndex(SongsDatabase.Changes.KEY_OPERATION);
+                    int authorIdx = cursor.getColumnIndex(SongsDatabase.Songs.KEY_AUTHOR);
+                    int nameIdx = cursor.getColumnIndex(SongsDatabase.Songs.KEY_NAME);
+                    int versionIdx = cursor.getColumnIndex(SongsDatabase.Songs.KEY_VERSION);
+                    while (cursor.moveToNext()){
+                        count++;
+                        lastToken = cursor.getLong(tokenIdx);
+                        long songId = cursor.getLong(idIdx);
+                        if (cursor.getInt(operationIdx) == SongsDatabase.Changes.OPERATION_DELETE
+                                || cursor.isNull(versionIdx) /* deleted after the change */){
+                            latest.put(songId, null);
+                        } else {
+                            latest.put(songId, new Song(cursor.getString(authorIdx),
+                                    cursor.getString(nameIdx),
+                                    songId,
+                                    cursor.getInt(versionIdx)));
+                        }
+                    }
+                }
+            } finally {
+                if (cursor != null){
+                    cursor.close();
+                }
+            }
+        } while (count == CHANGES_PAGE_SIZE);
+
+        // read after changes, so compaction made while they were read is noticed
+        Long floor = getSyncStateValue(context, SongsDatabase.SyncState.CHANGES_FLOOR);
+        if (floor != null && token < floor){
+            LOGI(TAG, "Changes since " + token + " were compacted up to " + floor);
+            return SongChanges.reset(Math.max(lastToken, floor));
+        }
+
+        List<Song> changedSongs = new ArrayList<>();
+        List<Long> removedSongIds = new ArrayList<>();
+        for (Map.Entry<Long, Song> entry : latest.entrySet()){
+            if (entry.getValue() != null){
+                changedSongs.add(entry.getValue());
+            } else {
+                removedSongIds.add(entry.getKey());
+            }
+        }
+        return new SongChanges(changedSongs, removedSongIds, lastToken);
+    }
+
+    /**
+     * Removes changes which are superseded or too old
+     * {@see {@link SongsProvider#CHANGES_URI}}
+     * @param context to get content resolver
+     * @return number of changes removed
+     */
+    public static int compactChanges(Context context){
+        return context.getContentResolver().delete(SongsProvider.CHANGES_URI, null, null);
+    }
+
+    /**
+     * Replaces songs with passed ones using the sync uri
+     * @param context to get content resolver
+     * @param syncUri {@link SongsProvider#SYNC_URI} or {@link SongsProvider#SHADOW_URI},
+     *                possibly limited to id range
+     * @param songs to replace songs in db with
+     * @return number of rows changed
+     */
+    private static int syncSongs(Context context, Uri syncUri, List<Song> songs){
+        ContentValues[] values = new ContentValues[songs.size()];
+        for (int i = 0; i < values.length; i++){
+            values[i] = contentValuesFromSong(songs.get(i));
+        }
+        LOGI(TAG, "About to sync " + values.length + " songs");
+        return context.getContentResolver().bulkInsert(syncUri, values);
+    }
+
+    /**
+     * Starts full resync, i.e. building the new catalog page by page in the shadow table
+     * and swapping it with songs when the last page is applied.
+     * Does nothing if resync was already started and was not finished,
+     * so interrupted resync continues from the last page committed.
+     * {@see {@link #applyPageToDb(Context, SongsPage)}}
      *
-     * All this operations are done using {@link SongsProvider#applyBatch(ArrayList)}
+     * @param context to get content resolver
+     * @param watermark to continue delta sync from when resync is finished
+     */
+    public static void startResync(Context context, long watermark){
+        if (isResyncInProgress(context)){
+            LOGI(TAG, "Resuming resync after " + getResyncAfterId(context));
+            return;
+        }
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newDelete(SongsProvider.SHADOW_URI).build());
+        batch.add(newSetSyncStateOperation(SongsDatabase.SyncState.RESYNC_WATERMARK, watermark));
+        batch.add(newSetSyncStateOperation(SongsDatabase.SyncState.RESYNC_AFTER_ID,
+                SongsApi.FIRST_PAGE_AFTER_ID));
+        applyBatch(context, batch);
+    }
+
+    /**
+     * Starts resync in progress over, e.g. when the server doesn't serve pages
+     * and the catalog is streamed instead: songs committed to the shadow table are dropped
+     * and the cursor is moved to the first page. Watermark of the resync is kept
+     * {@see {@link #startResync(Context, long)}}
      *
      * @param context to get content resolver
-     * @param newSongList to update db
      */
-    public static void updateSongsInDb(Context context, List<Song> newSongList){
-        /**
-         * {@link SongsProvider#applyBatch(ArrayList)} accepts only {@code ArrayList},
-         * not {@code List}.
-         *
-         * Collect operations in this list. It will be done with linear complexity
-         */
+    public static void restartResync(Context context){
         ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newDelete(SongsProvider.SHADOW_URI).build());
+        batch.add(newSetSyncStateOperation(SongsDatabase.SyncState.RESYNC_AFTER_ID,
+                SongsApi.FIRST_PAGE_AFTER_ID));
+        applyBatch(context, batch);
+    }
 
-        /**
-         * Sort new list by {@link Song#getId()}.
-         *
-         * This list comes already sorted... But right now we can't rely on it
-         * If list will not be sorted by {@link Song#getId()} we will have
-         * wrong entries in db
-         */
-        Collections.sort(newSongList, sSongByIdComparator);
-
-        /**
-         * Songs from db. They are sorted by {@link Song#getId()}
-         */
-        List<Song> oldSongList = getSongs(context);
-        if (oldSongList.isEmpty()) {
-            // there was no songs in db
-            // just add all from new songList
-            for (Song song : newSongList) {
+    /**
+     * @param context to get content resolver
+     * @return true if resync was started and wasn't finished
+     */
+    public static boolean isResyncInProgress(Context context){
+        return getSyncStateValue(context, SongsDatabase.SyncState.RESYNC_AFTER_ID) != null;
+    }
+
+    /**
+     * @param context to get content resolver
+     * @return id of the last song committed by resync in progress, i.e. where to continue it from
+     */
+    public static long getResyncAfterId(Context context){
+        Long afterId = getSyncStateValue(context, SongsDatabase.SyncState.RESYNC_AFTER_ID);
+        return afterId != null ? afterId : SongsApi.FIRST_PAGE_AFTER_ID;
+    }
+
+    /**
+     * Adds songs streamed in no particular order to the shadow table of resync in progress,
+     * replacing songs with the same ids. Songs are never removed from the shadow table here:
+     * resync of a stream starts with the empty table, so songs missing in the stream
+     * are missing in the table when it's swapped in
+     * {@see {@link #finishResync(Context)}}
+     *
+     * @param context to get content resolver
+     * @param songs the next chunk of the stream
+     */
+    public static void applySongsToShadow(Context context, List<Song> songs){
+        // the id range is empty, so songs out of the chunk stay as they are
+        Uri shadowUri = SongsProvider.SHADOW_URI.buildUpon()
+                .appendQueryParameter(SongsProvider.PARAM_AFTER_ID, String.valueOf(Long.MAX_VALUE))
+                .appendQueryParameter(SongsProvider.PARAM_LAST_ID, String.valueOf(Long.MAX_VALUE))
+                .build();
+        syncSongs(context, shadowUri, songs);
+    }
+
+    /**
+     * Finishes resync in progress: swaps the shadow table with songs and saves its watermark,
+     * so delta sync continues from it. Swap, watermark and cursor are committed in one batch
+     * @param context to get content resolver
+     * @return true if songs seen by readers were changed by the swap
+     */
+    public static boolean finishResync(Context context){
+        long tokenBefore = getChangeToken(context);
+        Long watermark = getSyncStateValue(context, SongsDatabase.SyncState.RESYNC_WATERMARK);
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(SongsProvider.SHADOW_SWAP_URI).build());
+        batch.add(newSetWatermarkOperation(watermark != null ? watermark : SongsApi.NO_WATERMARK));
+        batch.add(newDeleteResyncStateOperation());
+        applyBatch(context, batch);
+        // the swap records every song it changes in the change log
+        return getChangeToken(context) != tokenBefore;
+    }
+
+    /**
+     * Replaces songs in the id range of the shadow table covered by the page with songs of the page
+     * and then moves resync cursor to the end of the page.
+     * The range of the last page is unbounded, so it also removes all songs after it.
+     * The last page finishes resync: swaps the shadow table with songs and saves its watermark
+     * so delta sync continues from it. Swap, watermark and cursor are committed in one batch.
+     *
+     * Readers see the complete old catalog until the swap, and every page is applied
+     * in its own short transaction, so readers never wait for the whole resync.
+     *
+     * Page is applied in its own transaction. If resync is interrupted before the cursor
+     * is moved, the page is applied once more, which changes nothing.
+     *
+     * Only songs of the page are loaded, so memory needed does not depend on the catalog size.
+     *
+     * @param context to get content resolver
+     * @param page to apply
+     * @return true if songs seen by readers were replaced, i.e. the page was the last one
+     */
+    public static boolean applyPageToDb(Context context, SongsPage page){
+        boolean isLastPage = !page.hasMore() || page.getSongs().isEmpty();
+        long lastId = isLastPage ? Long.MAX_VALUE : page.getNextAfterId();
+        Uri shadowUri = SongsProvider.SHADOW_URI.buildUpon()
+                .appendQueryParameter(SongsProvider.PARAM_AFTER_ID, String.valueOf(page.getAfterId()))
+                .appendQueryParameter(SongsProvider.PARAM_LAST_ID, String.valueOf(lastId))
+                .build();
+        syncSongs(context, shadowUri, page.getSongs());
+
+        if (isLastPage){
+            return finishResync(context);
+        }
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(newSetSyncStateOperation(SongsDatabase.SyncState.RESYNC_AFTER_ID, lastId));
+        applyBatch(context, batch);
+        return false;
+    }
+
+    /**
+     * Applies changes received with {@link com.caco3.testtask.songsApi.SongsApi#getChangesSince(long)}:
+     * inserts or updates changed songs, removes removed ones and saves the new watermark.
+     *
+     * Only rows mentioned in the delta are read and written,
+     * so the cost depends on the amount of changes, not on the catalog size.
+     * Stored songs are read as (song id, fingerprint) pairs and diffed with changed songs
+     * by {@link SortedDiff}, songs sent again with the same content are skipped.
+     *
+     * @param context to get content resolver
+     * @param delta to apply
+     */
+    public static void applyDeltaToDb(Context context, SongsDelta delta){
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+
+        // the latest state of every changed song, sorted by song id
+        Map<Long, Song> changed = new TreeMap<>();
+        for (Song song : delta.getChangedSongs()){
+            changed.put(song.getId(), song);
+        }
+        final List<Song> changedSongs = new ArrayList<>(changed.values());
+        final SongFingerprints stored = getStoredFingerprints(context, new ArrayList<>(changed.keySet()));
+
+        // every stored song is a changed one, so nothing is removed by the diff
+        SortedDiff.diff(new SortedDiff.Callback() {
+            @Override
+            public int getOldSize() {
+                return stored.size();
+            }
+
+            @Override
+            public int getNewSize() {
+                return changedSongs.size();
+            }
+
+            @Override
+            public long getOldId(int oldIndex) {
+                return stored.songIdAt(oldIndex);
+            }
+
+            @Override
+            public long getNewId(int newIndex) {
+                return changedSongs.get(newIndex).getId();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldIndex, int newIndex) {
+                Song song = changedSongs.get(newIndex);
+                return stored.fingerprintAt(oldIndex)
+                        == SongFingerprint.of(song.getAuthor(), song.getName(), song.getVersion());
+            }
+
+            @Override
+            public void onInserted(int position, int newIndex) {
                 batch.add(ContentProviderOperation
                         .newInsert(SongsProvider.CONTENT_URI)
+                        .withValues(contentValuesFromSong(changedSongs.get(newIndex)))
+                        .build());
+            }
+
+            @Override
+            public void onChanged(int position, int oldIndex, int newIndex) {
+                Song song = changedSongs.get(newIndex);
+                batch.add(ContentProviderOperation.newUpdate(SongsProvider.CONTENT_URI)
                         .withValues(contentValuesFromSong(song))
+                        .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?",
+                                new String[]{String.valueOf(song.getId())})
                         .build());
             }
-        } else if (oldSongList.isEmpty()){
-            // no new songs
-            // clear table
-            batch.add(ContentProviderOperation
-                    .newDelete(SongsProvider.CONTENT_URI)
+        });
+
+        List<Long> removedIds = delta.getRemovedSongIds();
+        for (int from = 0; from < removedIds.size(); from += MAX_SQL_ARGS){
+            List<Long> chunk = removedIds.subList(from, Math.min(removedIds.size(), from + MAX_SQL_ARGS));
+            batch.add(ContentProviderOperation.newDelete(SongsProvider.CONTENT_URI)
+                    .withSelection(songIdInSelection(chunk.size()), toSelectionArgs(chunk))
                     .build());
+        }
+
+        batch.add(newSetWatermarkOperation(delta.getWatermark()));
+        applyBatch(context, batch);
+    }
+
+    /**
+     * Retrieves watermark of the last delta applied to the {@link SongsDatabase}
+     * @param context to get content resolver
+     * @return saved watermark or {@link com.caco3.testtask.songsApi.SongsApi#NO_WATERMARK}
+     * if songs were never synced
+     */
+    public static long getWatermark(Context context){
+        Long watermark = getSyncStateValue(context, SongsDatabase.SyncState.WATERMARK);
+        return watermark != null ? watermark : SongsApi.NO_WATERMARK;
+    }
+
+    /**
+     * Saves watermark to continue delta sync from
+     * @param context to get content resolver
+     * @param watermark to save
+     */
+    public static void setWatermark(Context context, long watermark){
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(newSetWatermarkOperation(watermark));
+        applyBatch(context, batch);
+    }
+
+    /**
+     * @param context to get content resolver
+     * @return time in milliseconds the server last answered that it doesn't serve changes,
+     * null if it does or if it wasn't asked yet
+     */
+    public static Long getChangesUnsupportedAt(Context context){
+        return getSyncStateValue(context, SongsDatabase.SyncState.CHANGES_UNSUPPORTED_AT);
+    }
+
+    /**
+     * Saves whether the server serves changes
+     * {@see {@link SongsApi#getChangesSince(long)}}
+     * @param context to get content resolver
+     * @param unsupportedAt time in milliseconds the server answered that it doesn't serve them,
+     *                      or null if it does
+     */
+    public static void setChangesUnsupportedAt(Context context, Long unsupportedAt){
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        if (unsupportedAt != null){
+            batch.add(newSetSyncStateOperation(SongsDatabase.SyncState.CHANGES_UNSUPPORTED_AT, unsupportedAt));
         } else {
-            int newListIdx = 0;
-            int oldListIdx = 0;
-            // Start iterating over new list and old list
-            while (newListIdx < newSongList.size() && oldListIdx < oldSongList.size()) {
-                if (sSongByIdComparator.compare(oldSongList.get(oldListIdx), newSongList.get(newListIdx)) < 0) {
-                    // item in old list has id which is not present in the new list.
-                    // so it must be removed
-                    batch.add(ContentProviderOperation.newDelete(SongsProvider.CONTENT_URI)
-                            .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?",
-                                    new String[]{oldSongList.get(oldListIdx).getId() + ""})
-                            .build());
-                    // go to next
-                    oldListIdx++;
-                } else if (sSongByIdComparator.compare(oldSongList.get(oldListIdx), newSongList.get(newListIdx)) == 0) {
-                    // current item in the old list and in the new list
-                    // have the same id.
-
-                    // Are their contents different ?
-                    if (!oldSongList.get(oldListIdx).equals(newSongList.get(newListIdx))) {
-                        // we must update entry
-                        batch.add(ContentProviderOperation.newUpdate(SongsProvider.CONTENT_URI)
-                                .withValues(contentValuesFromSong(newSongList.get(newListIdx)))
-                                .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?",
-                                        new String[]{oldSongList.get(oldListIdx).getId() + ""})
-                                .build());
-                    }
-                    // go to next items
-                    newListIdx++;
-                    oldListIdx++;
-                } else {
-                    // current item in the new list is not present in the old list
-                    // so we must add it
-                    batch.add(ContentProviderOperation
-                            .newInsert(SongsProvider.CONTENT_URI)
-                            .withValues(contentValuesFromSong(newSongList.get(newListIdx)))
-                            .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?",
-                                    new String[]{newSongList.get(newListIdx).getId() + ""})
-                            .build());
-                    // analyse next positions
-                    oldListIdx++;
-                    newListIdx++;
-                }
+            batch.add(ContentProviderOperation.newDelete(SongsProvider.SYNC_STATE_URI)
+                    .withSelection(SongsDatabase.SyncState.KEY_NAME + " = ?",
+                            new String[]{SongsDatabase.SyncState.CHANGES_UNSUPPORTED_AT})
+                    .build());
+        }
+        applyBatch(context, batch);
+    }
+
+    /**
+     * Reads {@link SongsDatabase.SyncState} value
+     * @param context to get content resolver
+     * @param name of the value
+     * @return value or null if there is no value with such name
+     */
+    private static Long getSyncStateValue(Context context, String name){
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(SongsProvider.SYNC_STATE_URI,
+                    new String[]{SongsDatabase.SyncState.KEY_VALUE},
+                    SongsDatabase.SyncState.KEY_NAME + " = ?",
+                    new String[]{name},
+                    null /* sort order */);
+            if (cursor != null && cursor.moveToFirst()){
+                return cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null){
+                cursor.close();
             }
+        }
+
+        return null;
+    }
 
-            if (newListIdx < newSongList.size()) {
-                // there are left some items in the new list which were not added
-                // so we must add them
-                while (newListIdx < newSongList.size()) {
-                    batch.add(ContentProviderOperation
-                            .newInsert(SongsProvider.CONTENT_URI)
-                            .withValues(contentValuesFromSong(newSongList.get(newListIdx)))
-                            .build());
-                    // go to next
-                    newListIdx++;
+    /**
+     * Reads fingerprints of the passed songs present in the {@link SongsDatabase}.
+     * Only song id and fingerprint columns are read
+     * @param context to get content resolver
+     * @param songIds ascending ids of songs
+     * @return fingerprints of songs present in db
+     */
+    private static SongFingerprints getStoredFingerprints(Context context, List<Long> songIds){
+        SongFingerprints result = new SongFingerprints(songIds.size());
+        ContentResolver contentResolver = context.getContentResolver();
+        for (int from = 0; from < songIds.size(); from += MAX_SQL_ARGS){
+            List<Long> chunk = songIds.subList(from, Math.min(songIds.size(), from + MAX_SQL_ARGS));
+            Cursor cursor = null;
+            try {
+                cursor = contentResolver.query(SongsProvider.CONTENT_URI,
+                        new String[]{SongsDatabase.Songs.KEY_SONG_ID, SongsDatabase.Songs.KEY_FINGERPRINT},
+                        songIdInSelection(chunk.size()),
+                        toSelectionArgs(chunk),
+                        SongsDatabase.Songs.KEY_SONG_ID + " ASC");
+                if (cursor != null){
+                    while (cursor.moveToNext()){
+                        // null fingerprint is read as 0, i.e. the song is treated as changed
+                        result.add(cursor.getLong(0), cursor.getLong(1));
+                    }
                 }
-            } else if (oldListIdx < oldSongList.size()) {
-                // there are left some items in the old list
-                // which are not present in the new list
-                // so we have to delete them
-                while (oldListIdx < oldSongList.size()) {
-                    batch.add(ContentProviderOperation
-                            .newDelete(SongsProvider.CONTENT_URI)
-                            .withSelection(SongsDatabase.Songs.KEY_SONG_ID + " = ?",
-                                    new String[]{oldSongList.get(oldListIdx).getId() + ""})
-                            .build());
-                    // go to next
-                    oldListIdx++;
+            } finally {
+                if (cursor != null){
+                    cursor.close();
                 }
             }
         }
+
+        return result;
+    }
+
+    /**
+     * @param argsCount number of ids
+     * @return selection like "song_id IN (?,?,?)"
+     */
+    private static String songIdInSelection(int argsCount){
+        StringBuilder sb = new StringBuilder(SongsDatabase.Songs.KEY_SONG_ID).append(" IN (");
+        for (int i = 0; i < argsCount; i++){
+            if (i > 0){
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String[] toSelectionArgs(List<Long> ids){
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++){
+            args[i] = String.valueOf(ids.get(i));
+        }
+        return args;
+    }
+
+    private static ContentProviderOperation newSetWatermarkOperation(long watermark){
+        return newSetSyncStateOperation(SongsDatabase.SyncState.WATERMARK, watermark);
+    }
+
+    private static ContentProviderOperation newDeleteResyncStateOperation(){
+        return ContentProviderOperation.newDelete(SongsProvider.SYNC_STATE_URI)
+                .withSelection(SongsDatabase.SyncState.KEY_NAME + " IN (?, ?)",
+                        new String[]{SongsDatabase.SyncState.RESYNC_AFTER_ID,
+                                SongsDatabase.SyncState.RESYNC_WATERMARK})
+                .build();
+    }
+
+    private static ContentProviderOperation newSetSyncStateOperation(String name, long value){
+        return ContentProviderOperation.newInsert(SongsProvider.SYNC_STATE_URI)
+                .withValue(SongsDatabase.SyncState.KEY_NAME, name)
+                .withValue(SongsDatabase.SyncState.KEY_VALUE, value)
+                .build();
+    }
+
+    private static ContentProviderResult[] applyBatch(Context context,
+                                                      ArrayList<ContentProviderOperation> batch){
         // apply operations
         try {
             LOGI(TAG, "About to apply batch");
-            context.getContentResolver().applyBatch(SongsProvider.AUTHORITY, batch);
+            ContentProviderResult[] results
+                    = context.getContentResolver().applyBatch(SongsProvider.AUTHORITY, batch);
             LOGI(TAG, "Batch was successfully applied");
+            return results;
         } catch (RemoteException | OperationApplicationException e){
             LOGE(TAG, "Unable to apply batch", e);
             throw new RuntimeException(e);
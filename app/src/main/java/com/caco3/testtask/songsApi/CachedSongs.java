@@ -0,0 +1,88 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Songs shown first, kept on disk, so the ui can show them on cold start
+ * while the database is empty, e.g. after it was recreated since it was too old to be migrated.
+ *
+ * No request is ever made to fill it: the sync stores a snapshot of the first songs
+ * it has committed to the database with {@link #put(List)}, so only songs
+ * which were already received are cached and the snapshot is as fresh as the last sync.
+ *
+ * Snapshot is served stale-while-revalidate: it's fresh for fresh age, then it's still
+ * returned for max stale, but marked stale so the caller triggers a sync
+ * to replace it. Snapshot older than both isn't returned
+ */
+public final class CachedSongs {
+    private static final String KEY_SONGS = "songs";
+
+    private final SongsCache mCache;
+    private final long mFreshMillis;
+    private final long mMaxStaleMillis;
+
+    /**
+     * @param cache to store the snapshot in
+     * @param freshMillis for how long the snapshot is shown as is
+     * @param maxStaleMillis for how long after that the snapshot may be shown while it's being revalidated
+     */
+    /* package */ CachedSongs(SongsCache cache, long freshMillis, long maxStaleMillis){
+        this.mCache = cache;
+        this.mFreshMillis = freshMillis;
+        this.mMaxStaleMillis = maxStaleMillis;
+    }
+
+    /**
+     * Reads the snapshot, never waits for network
+     * @return snapshot or null if there is no usable snapshot
+     */
+    public Snapshot get(){
+        SongsCache.Entry entry = mCache.get(KEY_SONGS);
+        if (entry == null){
+            return null;
+        }
+
+        long age = System.currentTimeMillis() - entry.getStoredAtMillis();
+        // if clock was moved backwards, we can't tell how old the snapshot is
+        if (age < 0 || age > mFreshMillis + mMaxStaleMillis){
+            return null;
+        }
+        return new Snapshot(new ArrayList<>(entry.getSongs()), age > mFreshMillis);
+    }
+
+    /**
+     * Replaces the snapshot
+     * @param songs committed by the sync, in the order they are shown
+     */
+    public void put(List<Song> songs){
+        mCache.put(KEY_SONGS, songs, System.currentTimeMillis());
+    }
+
+    /**
+     * Songs read from the cache
+     */
+    public static final class Snapshot {
+        private final List<Song> mSongs;
+        private final boolean mStale;
+
+        private Snapshot(List<Song> songs, boolean stale){
+            this.mSongs = songs;
+            this.mStale = stale;
+        }
+
+        /**
+         * @return songs in the order they were stored
+         */
+        public List<Song> getSongs(){
+            return mSongs;
+        }
+
+        /**
+         * @return true if the snapshot is older than fresh age, so songs must be synced
+         */
+        public boolean isStale(){
+            return mStale;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks health of the songs endpoint.
+ *
+ * After {@code failureThreshold} consecutive failures the breaker opens
+ * and requests fail fast without touching the network for {@code openMillis}.
+ * Then one trial request is allowed: its success closes the breaker,
+ * its failure opens it again.
+ */
+/* package */ final class CircuitBreaker {
+    /* package */ enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenNanos;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAtNanos;
+
+    /**
+     * @param failureThreshold number of consecutive failures opening the breaker
+     * @param openMillis for how long requests fail fast once the breaker is open
+     */
+    /* package */ CircuitBreaker(int failureThreshold, long openMillis){
+        if (failureThreshold <= 0){
+            throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+        }
+        this.mFailureThreshold = failureThreshold;
+        this.mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Tests whether request may be sent now.
+     * Moves open breaker to half-open state when open period is over,
+     * then only one request is allowed till its outcome is reported
+     * @return true if request may be sent, false if it must fail fast
+     */
+    /* package */ synchronized boolean allowRequest(){
+        switch (mState){
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - mOpenedAtNanos >= mOpenNanos){
+                    mState = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // trial request is in flight
+                return false;
+        }
+    }
+
+    /* package */ synchronized void onSuccess(){
+        mConsecutiveFailures = 0;
+        mState = State.CLOSED;
+    }
+
+    /* package */ synchronized void onFailure(){
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold){
+            mState = State.OPEN;
+            mOpenedAtNanos = System.nanoTime();
+        }
+    }
+
+    /* package */ synchronized State getState(){
+        return mState;
+    }
+}
@@ -0,0 +1,174 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SongsApi} decorator performing at most one request of the same kind at a time.
+ *
+ * Callers requesting the same data while the request is in flight
+ * don't send their own requests: they wait for the one in flight and share its result
+ * or exception. Result completed not earlier than the freshness window ago
+ * is returned without sending any request at all.
+ *
+ * Calls passing songs to a {@link SongHandler} are forwarded as is,
+ * because every handler must receive its own stream.
+ */
+/* package */ final class CoalescingSongsApi extends ForwardingSongsApi {
+    private static final String KEY_SONGS = "songs";
+    private static final String KEY_CHANGES = "changes:";
+    private static final String KEY_PAGE = "page:";
+
+    private final long mFreshnessWindowNanos;
+
+    /**
+     * Calls in flight and completed calls which may still be fresh, by request key.
+     * Guarded by itself
+     */
+    private final Map<String, Call<?>> mCalls = new HashMap<>();
+
+    /**
+     * @param delegate to send requests with
+     * @param freshnessWindowMillis for how long completed result may be returned
+     *                              to new callers, 0 to share only results of calls in flight
+     */
+    /* package */ CoalescingSongsApi(SongsApi delegate, long freshnessWindowMillis){
+        super(delegate);
+        this.mFreshnessWindowNanos = TimeUnit.MILLISECONDS.toNanos(freshnessWindowMillis);
+    }
+
+    @Override
+    public List<Song> getSongs() throws SongsApiException {
+        List<Song> songs = coalesce(KEY_SONGS, new Request<List<Song>>() {
+            @Override
+            public List<Song> execute() throws SongsApiException {
+                return getDelegate().getSongs();
+            }
+        });
+        // every caller gets its own copy, since callers are free to modify the list
+        return new ArrayList<>(songs);
+    }
+
+    @Override
+    public SongsDelta getChangesSince(final long watermark) throws SongsApiException {
+        return coalesce(KEY_CHANGES + watermark, new Request<SongsDelta>() {
+            @Override
+            public SongsDelta execute() throws SongsApiException {
+                return getDelegate().getChangesSince(watermark);
+            }
+        });
+    }
+
+    @Override
+    public SongsPage getSongsPage(final long afterId, final int limit) throws SongsApiException {
+        return coalesce(KEY_PAGE + afterId + ":" + limit, new Request<SongsPage>() {
+            @Override
+            public SongsPage execute() throws SongsApiException {
+                return getDelegate().getSongsPage(afterId, limit);
+            }
+        });
+    }
+
+    /**
+     * Joins the call with the same key in flight, returns result of fresh call with the same key
+     * or executes the request if there are no such calls
+     */
+    private <T> T coalesce(String key, Request<T> request) throws SongsApiException {
+        Call<T> call;
+        boolean isOwner = false;
+        synchronized (mCalls){
+            long now = System.nanoTime();
+            removeStaleCalls(now);
+            @SuppressWarnings("unchecked")
+            Call<T> existing = (Call<T>) mCalls.get(key);
+            if (existing != null){
+                call = existing;
+            } else {
+                call = new Call<>();
+                mCalls.put(key, call);
+                isOwner = true;
+            }
+        }
+
+        if (isOwner){
+            execute(key, call, request);
+        }
+        return call.await();
+    }
+
+    private <T> void execute(String key, Call<T> call, Request<T> request){
+        try {
+            call.mResult = request.execute();
+        } catch (SongsApiException e){
+            call.mException = e;
+        } catch (RuntimeException e){
+            call.mRuntimeException = e;
+        } finally {
+            synchronized (mCalls){
+                call.mCompletedAtNanos = System.nanoTime();
+                boolean failed = call.mException != null || call.mRuntimeException != null;
+                if (failed || mFreshnessWindowNanos == 0){
+                    // failures are never reused: the next caller must try again
+                    mCalls.remove(key);
+                }
+            }
+            call.mDone.countDown();
+        }
+    }
+
+    /**
+     * Must be called holding {@link #mCalls} lock
+     */
+    private void removeStaleCalls(long now){
+        Iterator<Call<?>> iterator = mCalls.values().iterator();
+        while (iterator.hasNext()){
+            Call<?> call = iterator.next();
+            if (call.mDone.getCount() == 0 && now - call.mCompletedAtNanos > mFreshnessWindowNanos){
+                iterator.remove();
+            }
+        }
+    }
+
+    private interface Request<T> {
+        T execute() throws SongsApiException;
+    }
+
+    /**
+     * Outcome of request shared by all callers
+     */
+    private static final class Call<T> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private T mResult;
+        private SongsApiException mException;
+        private RuntimeException mRuntimeException;
+        /**
+         * Guarded by {@link CoalescingSongsApi#mCalls}
+         */
+        private long mCompletedAtNanos;
+
+        private T await() throws SongsApiException {
+            try {
+                mDone.await();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                InterruptedIOException cause = new InterruptedIOException("Interrupted while waiting for request in flight");
+                cause.initCause(e);
+                throw new SongsApiException(cause);
+            }
+            if (mException != null){
+                // new instance per caller, keeping the cause so exception is classified the same way
+                throw new SongsApiException(mException.getMessage(), mException.getCause());
+            }
+            if (mRuntimeException != null){
+                throw mRuntimeException;
+            }
+            return mResult;
+        }
+    }
+}
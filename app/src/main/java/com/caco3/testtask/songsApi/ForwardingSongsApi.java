@@ -0,0 +1,44 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.List;
+
+/**
+ * {@link SongsApi} which forwards all calls to another {@link SongsApi}.
+ * Base class for decorators adding behaviour to some of the calls
+ */
+/* package */ abstract class ForwardingSongsApi implements SongsApi {
+    private final SongsApi mDelegate;
+
+    /* package */ ForwardingSongsApi(SongsApi delegate){
+        this.mDelegate = delegate;
+    }
+
+    /* package */ final SongsApi getDelegate(){
+        return mDelegate;
+    }
+
+    @Override
+    public List<Song> getSongs() throws SongsApiException {
+        return mDelegate.getSongs();
+    }
+
+    @Override
+    public void getSongs(SongHandler handler) throws SongsApiException {
+        mDelegate.getSongs(handler);
+    }
+
+    @Override
+    public boolean getSongsIfModified(SongHandler handler) throws SongsApiException {
+        return mDelegate.getSongsIfModified(handler);
+    }
+
+    @Override
+    public SongsDelta getChangesSince(long watermark) throws SongsApiException {
+        return mDelegate.getChangesSince(watermark);
+    }
+
+    @Override
+    public SongsPage getSongsPage(long afterId, int limit) throws SongsApiException {
+        return mDelegate.getSongsPage(afterId, limit);
+    }
+}
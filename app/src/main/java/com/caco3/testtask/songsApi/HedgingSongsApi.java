@@ -0,0 +1,351 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SongsApi} spreading requests over several equivalent mirrors.
+ *
+ * Request is sent to the mirror which has been the fastest recently. If it doesn't answer
+ * within hedge delay, the same request is sent to the next mirror and the first answer wins,
+ * the other request is cancelled. Hedge delay is a high percentile of recent latencies,
+ * so only the slowest requests are hedged and mirrors receive just a few extra requests.
+ *
+ * Request failed because of network issues is sent to the next mirror immediately.
+ *
+ * Calls passing songs to a {@link SongHandler} aren't hedged, because the handler
+ * must receive one stream, they are sent to the fastest mirror only
+ */
+/* package */ final class HedgingSongsApi implements SongsApi {
+    /**
+     * Weight of the latest sample in mirror's average latency
+     */
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    /**
+     * Number of recent latencies hedge delay is computed from
+     */
+    private static final int LATENCY_SAMPLES = 64;
+
+    /**
+     * Hedge delay is computed from samples only when there are at least that many of them
+     */
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    /**
+     * Mirror failed because of network issue is considered that many times
+     * slower than hedge delay, so it's ranked below mirrors which respond
+     */
+    private static final int FAILURE_PENALTY = 2;
+
+    private final List<Mirror> mMirrors;
+    private final ExecutorService mExecutor;
+    private final double mHedgePercentile;
+    private final long mInitialHedgeDelayMillis;
+    private final LatencyTracker mLatencies = new LatencyTracker(LATENCY_SAMPLES);
+
+    /**
+     * @param mirrors equivalent apis, the first ones are preferred until latencies are known
+     * @param executor to send requests on, must be able to run a request per mirror at once
+     * @param hedgePercentile percentile of recent latencies to wait before hedging
+     * @param initialHedgeDelayMillis hedge delay used until enough latencies are known
+     */
+    /* package */ HedgingSongsApi(List<? extends SongsApi> mirrors, ExecutorService executor,
+                                  double hedgePercentile, long initialHedgeDelayMillis){
+        if (mirrors.isEmpty()){
+            throw new IllegalArgumentException("At least one mirror is required");
+        }
+        List<Mirror> list = new ArrayList<>();
+        for (SongsApi api : mirrors){
+            list.add(new Mirror(api, list.size()));
+        }
+        this.mMirrors = Collections.unmodifiableList(list);
+        this.mExecutor = executor;
+        this.mHedgePercentile = hedgePercentile;
+        this.mInitialHedgeDelayMillis = initialHedgeDelayMillis;
+    }
+
+    @Override
+    public List<Song> getSongs() throws SongsApiException {
+        return execute(new Request<List<Song>>() {
+            @Override
+            public List<Song> execute(SongsApi api) throws SongsApiException {
+                return api.getSongs();
+            }
+        });
+    }
+
+    @Override
+    public void getSongs(final SongHandler handler) throws SongsApiException {
+        executeOnFastest(new Request<Void>() {
+            @Override
+            public Void execute(SongsApi api) throws SongsApiException {
+                api.getSongs(handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean getSongsIfModified(final SongHandler handler) throws SongsApiException {
+        return executeOnFastest(new Request<Boolean>() {
+            @Override
+            public Boolean execute(SongsApi api) throws SongsApiException {
+                return api.getSongsIfModified(handler);
+            }
+        });
+    }
+
+    @Override
+    public SongsDelta getChangesSince(final long watermark) throws SongsApiException {
+        return execute(new Request<SongsDelta>() {
+            @Override
+            public SongsDelta execute(SongsApi api) throws SongsApiException {
+                return api.getChangesSince(watermark);
+            }
+        });
+    }
+
+    @Override
+    public SongsPage getSongsPage(final long afterId, final int limit) throws SongsApiException {
+        return execute(new Request<SongsPage>() {
+            @Override
+            public SongsPage execute(SongsApi api) throws SongsApiException {
+                return api.getSongsPage(afterId, limit);
+            }
+        });
+    }
+
+    /**
+     * @return delay after which the request is sent to one more mirror
+     */
+    /* package */ long getHedgeDelayMillis(){
+        if (mLatencies.getCount() < MIN_LATENCY_SAMPLES){
+            return mInitialHedgeDelayMillis;
+        }
+        return mLatencies.getPercentile(mHedgePercentile);
+    }
+
+    /**
+     * @return mirrors from the fastest to the slowest
+     */
+    /* package */ List<Mirror> rankMirrors(){
+        List<Mirror> ranked = new ArrayList<>(mMirrors);
+        // stable, so mirrors with equal latency keep configuration order.
+        // Mirrors with unknown latency go last, they are measured when requests are hedged
+        Collections.sort(ranked, new Comparator<Mirror>() {
+            @Override
+            public int compare(Mirror lhs, Mirror rhs) {
+                double l = lhs.getAverageLatencyMillis();
+                double r = rhs.getAverageLatencyMillis();
+                if (l == 0 || r == 0){
+                    return l == r ? 0 : (l == 0 ? 1 : -1);
+                }
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return ranked;
+    }
+
+    private <T> T executeOnFastest(Request<T> request) throws SongsApiException {
+        Attempt<T> attempt = new Attempt<>(rankMirrors().get(0));
+        try {
+            T result = request.execute(attempt.mMirror.mApi);
+            attempt.complete(false);
+            return result;
+        } catch (SongsApiException e){
+            attempt.complete(e.isCausedByNetworkIssue());
+            throw e;
+        }
+    }
+
+    private <T> T execute(Request<T> request) throws SongsApiException {
+        List<Mirror> ranked = rankMirrors();
+        CompletionService<T> completionService = new ExecutorCompletionService<>(mExecutor);
+        List<Attempt<T>> attempts = new ArrayList<>();
+        long hedgeDelayMillis = getHedgeDelayMillis();
+        SongsApiException lastError = null;
+        int running = 0;
+
+        try {
+            attempts.add(submit(completionService, ranked.get(attempts.size()), request));
+            running++;
+            while (running > 0){
+                Future<T> done;
+                boolean canHedge = attempts.size() < ranked.size();
+                if (canHedge){
+                    done = completionService.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+                    if (done == null){
+                        // the request is slow, give another mirror a chance
+                        attempts.add(submit(completionService, ranked.get(attempts.size()), request));
+                        running++;
+                        continue;
+                    }
+                } else {
+                    done = completionService.take();
+                }
+                running--;
+
+                try {
+                    return done.get();
+                } catch (ExecutionException e){
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException){
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error){
+                        throw (Error) cause;
+                    }
+                    lastError = (SongsApiException) cause;
+                    if (!lastError.isCausedByNetworkIssue()){
+                        // mirrors are equivalent, the other one would respond the same
+                        throw lastError;
+                    }
+                    if (running == 0 && attempts.size() < ranked.size()){
+                        attempts.add(submit(completionService, ranked.get(attempts.size()), request));
+                        running++;
+                    }
+                }
+            }
+            throw lastError;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            InterruptedIOException cause = new InterruptedIOException("Interrupted while waiting for mirrors");
+            cause.initCause(e);
+            throw new SongsApiException(cause);
+        } finally {
+            for (Attempt<T> attempt : attempts){
+                attempt.cancel();
+            }
+        }
+    }
+
+    private <T> Attempt<T> submit(CompletionService<T> completionService,
+                                  final Mirror mirror, final Request<T> request){
+        final Attempt<T> attempt = new Attempt<>(mirror);
+        // deadline of the caller applies to requests it waits for on other threads
+        final Long deadlineNanos = SongsHttpClient.getThreadDeadline();
+        attempt.mFuture = completionService.submit(new Callable<T>() {
+            @Override
+            public T call() throws SongsApiException {
+                Long previousDeadline = SongsHttpClient.setThreadDeadline(deadlineNanos);
+                try {
+                    T result = request.execute(mirror.mApi);
+                    attempt.complete(false);
+                    return result;
+                } catch (SongsApiException e){
+                    attempt.complete(e.isCausedByNetworkIssue());
+                    throw e;
+                } finally {
+                    SongsHttpClient.setThreadDeadline(previousDeadline);
+                }
+            }
+        });
+        return attempt;
+    }
+
+    private void recordLatency(Mirror mirror, long latencyMillis){
+        mirror.recordLatency(latencyMillis);
+        mLatencies.record(latencyMillis);
+    }
+
+    private static long elapsedMillis(long startedAtNanos){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos);
+    }
+
+    private interface Request<T> {
+        T execute(SongsApi api) throws SongsApiException;
+    }
+
+    /**
+     * Request sent to one mirror
+     */
+    private final class Attempt<T> {
+        private final Mirror mMirror;
+        private final long mStartedAtNanos = System.nanoTime();
+        private Future<T> mFuture;
+        /**
+         * Guarded by this
+         */
+        private boolean mCompleted = false;
+
+        private Attempt(Mirror mirror){
+            this.mMirror = mirror;
+        }
+
+        /**
+         * @param failed whether the mirror failed to respond because of network issue
+         */
+        private synchronized void complete(boolean failed){
+            if (mCompleted){
+                return;
+            }
+            mCompleted = true;
+            long latencyMillis = elapsedMillis(mStartedAtNanos);
+            if (failed){
+                mMirror.recordLatency(Math.max(latencyMillis, getHedgeDelayMillis()) * FAILURE_PENALTY);
+            } else {
+                recordLatency(mMirror, latencyMillis);
+            }
+        }
+
+        /**
+         * Cancels the attempt if it's still running. Its mirror is at least as slow
+         * as the time it has been running, so this time is recorded as its latency
+         */
+        private void cancel(){
+            synchronized (this){
+                if (mCompleted){
+                    return;
+                }
+                mCompleted = true;
+                mMirror.recordLatency(elapsedMillis(mStartedAtNanos));
+            }
+            mFuture.cancel(true /* interrupt, so the response isn't read any further */);
+        }
+    }
+
+    /**
+     * One of equivalent apis along with its latency
+     */
+    /* package */ static final class Mirror {
+        private final SongsApi mApi;
+        private final int mIndex;
+        /**
+         * Exponentially weighted moving average, 0 until the first sample.
+         * Guarded by this
+         */
+        private double mAverageLatencyMillis = 0;
+
+        private Mirror(SongsApi api, int index){
+            this.mApi = api;
+            this.mIndex = index;
+        }
+
+        /* package */ int getIndex(){
+            return mIndex;
+        }
+
+        /* package */ synchronized double getAverageLatencyMillis(){
+            return mAverageLatencyMillis;
+        }
+
+        private synchronized void recordLatency(long latencyMillis){
+            if (mAverageLatencyMillis == 0){
+                mAverageLatencyMillis = latencyMillis;
+            } else {
+                mAverageLatencyMillis = LATENCY_SMOOTHING * latencyMillis
+                        + (1 - LATENCY_SMOOTHING) * mAverageLatencyMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.List;
+
+/**
+ * {@link SongsApi} decorator recording latency of successful calls
+ * and causes of failed ones to {@link SongsApiMetrics}
+ */
+/* package */ final class InstrumentedSongsApi extends ForwardingSongsApi {
+    private final SongsApiMetrics mMetrics;
+
+    /* package */ InstrumentedSongsApi(SongsApi delegate, SongsApiMetrics metrics){
+        super(delegate);
+        this.mMetrics = metrics;
+    }
+
+    @Override
+    public List<Song> getSongs() throws SongsApiException {
+        return execute("getSongs", new Request<List<Song>>() {
+            @Override
+            public List<Song> execute() throws SongsApiException {
+                return getDelegate().getSongs();
+            }
+        });
+    }
+
+    @Override
+    public void getSongs(final SongHandler handler) throws SongsApiException {
+        execute("getSongs(handler)", new Request<Void>() {
+            @Override
+            public Void execute() throws SongsApiException {
+                getDelegate().getSongs(handler);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean getSongsIfModified(final SongHandler handler) throws SongsApiException {
+        return execute("getSongsIfModified", new Request<Boolean>() {
+            @Override
+            public Boolean execute() throws SongsApiException {
+                return getDelegate().getSongsIfModified(handler);
+            }
+        });
+    }
+
+    @Override
+    public SongsDelta getChangesSince(final long watermark) throws SongsApiException {
+        return execute("getChangesSince", new Request<SongsDelta>() {
+            @Override
+            public SongsDelta execute() throws SongsApiException {
+                return getDelegate().getChangesSince(watermark);
+            }
+        });
+    }
+
+    @Override
+    public SongsPage getSongsPage(final long afterId, final int limit) throws SongsApiException {
+        return execute("getSongsPage", new Request<SongsPage>() {
+            @Override
+            public SongsPage execute() throws SongsApiException {
+                return getDelegate().getSongsPage(afterId, limit);
+            }
+        });
+    }
+
+    private <T> T execute(String operation, Request<T> request) throws SongsApiException {
+        long startedAt = System.nanoTime();
+        try {
+            T result = request.execute();
+            mMetrics.recordCall(operation, System.nanoTime() - startedAt);
+            return result;
+        } catch (SongsApiException e){
+            mMetrics.recordError(e);
+            throw e;
+        }
+    }
+
+    private interface Request<T> {
+        T execute() throws SongsApiException;
+    }
+}
@@ -0,0 +1,99 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of latencies with logarithmic buckets.
+ *
+ * Every power of two of microseconds is split into 4 buckets, so percentiles are
+ * reported with at most 25% error while the histogram takes constant memory
+ * no matter how many samples were recorded. Unlike {@link LatencyTracker}
+ * it never forgets samples, so it describes the whole lifetime of the process.
+ *
+ * Not thread safe, guarded by {@link SongsApiMetrics}
+ */
+/* package */ final class LatencyHistogram {
+    /**
+     * log2 of number of buckets every power of two is split into
+     */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Latencies longer than 2^32 microseconds (more than an hour) go to the last bucket
+     */
+    private static final int MAX_EXPONENT = 32;
+
+    private final long[] mCounts = new long[SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2)];
+    private long mCount = 0;
+    private long mSumMicros = 0;
+    private long mMaxMicros = 0;
+
+    /* package */ void record(long nanos){
+        long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+        mCounts[bucketOf(micros)]++;
+        mCount++;
+        mSumMicros += micros;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+    }
+
+    /* package */ long getCount(){
+        return mCount;
+    }
+
+    /* package */ long getSumMicros(){
+        return mSumMicros;
+    }
+
+    /* package */ long getMaxMicros(){
+        return mMaxMicros;
+    }
+
+    /**
+     * @param percentile in range [0, 100]
+     * @return upper bound of the bucket containing the percentile in microseconds,
+     *         never greater than the max sample, or 0 if there are no samples
+     */
+    /* package */ long getPercentileMicros(double percentile){
+        if (percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be in [0, 100], was " + percentile);
+        }
+        if (mCount == 0){
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(percentile / 100 * mCount), 1);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++){
+            seen += mCounts[i];
+            if (seen >= rank){
+                return Math.min(upperBoundOf(i), mMaxMicros);
+            }
+        }
+        return mMaxMicros;
+    }
+
+    /**
+     * Values less than {@link #SUB_BUCKETS} have their own buckets, others are bucketed
+     * by their exponent and the next {@link #SUB_BUCKET_BITS} bits after the highest one
+     */
+    /* package */ static int bucketOf(long micros){
+        if (micros < SUB_BUCKETS){
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT){
+            return (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /* package */ static long upperBoundOf(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
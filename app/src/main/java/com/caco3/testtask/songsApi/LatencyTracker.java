@@ -0,0 +1,61 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and computes their percentiles.
+ * Old samples are overwritten, so percentiles follow changes of network conditions.
+ *
+ * Thread safe
+ */
+/* package */ final class LatencyTracker {
+    private final long[] mSamples;
+    private int mNext = 0;
+    private int mCount = 0;
+
+    /**
+     * @param capacity number of the most recent samples to keep
+     */
+    /* package */ LatencyTracker(int capacity){
+        if (capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.mSamples = new long[capacity];
+    }
+
+    /**
+     * @param latencyMillis sample to record
+     */
+    /* package */ synchronized void record(long latencyMillis){
+        mSamples[mNext] = latencyMillis;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mCount < mSamples.length){
+            mCount++;
+        }
+    }
+
+    /**
+     * @return number of samples kept
+     */
+    /* package */ synchronized int getCount(){
+        return mCount;
+    }
+
+    /**
+     * @param percentile in range [0, 100]
+     * @return the smallest sample not less than the given percent of samples,
+     *         or -1 if there are no samples
+     */
+    /* package */ synchronized long getPercentile(double percentile){
+        if (percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be in [0, 100], was " + percentile);
+        }
+        if (mCount == 0){
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * mCount);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+}
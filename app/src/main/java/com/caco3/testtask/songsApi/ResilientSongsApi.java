@@ -0,0 +1,185 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SongsApi} decorator making requests resilient to transient failures.
+ *
+ * Requests failed because of network issues ({@link SongsApiException#isCausedByNetworkIssue()})
+ * are retried according to {@link RetryPolicy} until its deadline. The deadline bounds
+ * every attempt too, including connecting and waiting for response headers. Other failures,
+ * e.g. invalid json, are not retried since the next attempt would fail the same way.
+ *
+ * Network failures are reported to {@link CircuitBreaker}. While it's open
+ * requests fail fast with network issue, so an unhealthy endpoint isn't hammered
+ * and the polling thread isn't held.
+ *
+ * Calls passing songs to a {@link SongHandler} are retried only if
+ * no songs were passed to the handler yet, so the handler never receives a song twice.
+ */
+/* package */ final class ResilientSongsApi extends ForwardingSongsApi {
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mCircuitBreaker;
+
+    /* package */ ResilientSongsApi(SongsApi delegate, RetryPolicy retryPolicy,
+                                    CircuitBreaker circuitBreaker){
+        super(delegate);
+        this.mRetryPolicy = retryPolicy;
+        this.mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public List<Song> getSongs() throws SongsApiException {
+        return execute(new Request<List<Song>>() {
+            @Override
+            public List<Song> execute() throws SongsApiException {
+                return getDelegate().getSongs();
+            }
+        });
+    }
+
+    @Override
+    public void getSongs(SongHandler handler) throws SongsApiException {
+        final CountingHandler countingHandler = new CountingHandler(handler);
+        execute(new Request<Void>() {
+            @Override
+            public Void execute() throws SongsApiException {
+                getDelegate().getSongs(countingHandler);
+                return null;
+            }
+
+            @Override
+            public boolean isRetriable() {
+                return countingHandler.mCount == 0;
+            }
+        });
+    }
+
+    @Override
+    public boolean getSongsIfModified(SongHandler handler) throws SongsApiException {
+        final CountingHandler countingHandler = new CountingHandler(handler);
+        return execute(new Request<Boolean>() {
+            @Override
+            public Boolean execute() throws SongsApiException {
+                return getDelegate().getSongsIfModified(countingHandler);
+            }
+
+            @Override
+            public boolean isRetriable() {
+                return countingHandler.mCount == 0;
+            }
+        });
+    }
+
+    @Override
+    public SongsDelta getChangesSince(final long watermark) throws SongsApiException {
+        return execute(new Request<SongsDelta>() {
+            @Override
+            public SongsDelta execute() throws SongsApiException {
+                return getDelegate().getChangesSince(watermark);
+            }
+        });
+    }
+
+    @Override
+    public SongsPage getSongsPage(final long afterId, final int limit) throws SongsApiException {
+        return execute(new Request<SongsPage>() {
+            @Override
+            public SongsPage execute() throws SongsApiException {
+                return getDelegate().getSongsPage(afterId, limit);
+            }
+        });
+    }
+
+    private <T> T execute(Request<T> request) throws SongsApiException {
+        long startedAt = System.nanoTime();
+        long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(mRetryPolicy.getDeadlineMillis());
+        int attempt = 0;
+
+        while (true){
+            if (!mCircuitBreaker.allowRequest()){
+                throw new SongsApiException("Songs api is unhealthy, failing fast",
+                        new IOException("Circuit breaker is open"));
+            }
+
+            attempt++;
+            // the last attempt must not outlive the deadline either
+            Long previousDeadline = SongsHttpClient.setThreadDeadline(startedAt + deadlineNanos);
+            boolean isOutcomeReported = false;
+            try {
+                T result = request.execute();
+                isOutcomeReported = true;
+                mCircuitBreaker.onSuccess();
+                return result;
+            } catch (SongsApiException e){
+                isOutcomeReported = true;
+                if (!e.isCausedByNetworkIssue()){
+                    // server is reachable, so it's not an availability problem
+                    mCircuitBreaker.onSuccess();
+                    throw e;
+                }
+                mCircuitBreaker.onFailure();
+
+                long delayMillis = mRetryPolicy.getDelayMillis(attempt);
+                long elapsedNanos = System.nanoTime() - startedAt;
+                if (attempt >= mRetryPolicy.getMaxAttempts()
+                        || !request.isRetriable()
+                        || elapsedNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadlineNanos){
+                    throw e;
+                }
+
+                sleep(delayMillis);
+            } finally {
+                if (!isOutcomeReported){
+                    // programming error, handler failure or Error, e.g. OutOfMemoryError,
+                    // don't keep trial slot of the breaker
+                    mCircuitBreaker.onSuccess();
+                }
+                SongsHttpClient.setThreadDeadline(previousDeadline);
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws SongsApiException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            InterruptedIOException cause = new InterruptedIOException("Interrupted while waiting to retry");
+            cause.initCause(e);
+            throw new SongsApiException(cause);
+        }
+    }
+
+    private static abstract class Request<T> {
+        abstract T execute() throws SongsApiException;
+
+        /**
+         * @return true if the request may be executed once more after failure
+         */
+        boolean isRetriable(){
+            return true;
+        }
+    }
+
+    /**
+     * Counts songs passed to the handler
+     */
+    private static final class CountingHandler implements SongHandler {
+        private final SongHandler mHandler;
+        private int mCount = 0;
+
+        private CountingHandler(SongHandler handler){
+            this.mHandler = handler;
+        }
+
+        @Override
+        public void onSong(Song song) {
+            mCount++;
+            mHandler.onSong(song);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.Random;
+
+/**
+ * Describes how failed requests are retried: how many attempts are made,
+ * how long to wait between them and when to give up.
+ *
+ * Delays grow exponentially from {@code baseDelayMillis} up to {@code maxDelayMillis}.
+ * Actual delay is picked uniformly from [0, delay] ("full jitter"),
+ * so clients failed at the same moment don't retry at the same moment.
+ */
+/* package */ final class RetryPolicy {
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final long mDeadlineMillis;
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts max number of attempts including the first one
+     * @param baseDelayMillis delay before the first retry, without jitter
+     * @param maxDelayMillis cap of the delay between attempts
+     * @param deadlineMillis time since the first attempt after which no more attempts are made
+     */
+    /* package */ RetryPolicy(int maxAttempts, long baseDelayMillis,
+                              long maxDelayMillis, long deadlineMillis){
+        this(maxAttempts, baseDelayMillis, maxDelayMillis, deadlineMillis, new Random());
+    }
+
+    /* package */ RetryPolicy(int maxAttempts, long baseDelayMillis,
+                              long maxDelayMillis, long deadlineMillis, Random random){
+        if (maxAttempts <= 0){
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.mMaxAttempts = maxAttempts;
+        this.mBaseDelayMillis = baseDelayMillis;
+        this.mMaxDelayMillis = maxDelayMillis;
+        this.mDeadlineMillis = deadlineMillis;
+        this.mRandom = random;
+    }
+
+    /* package */ int getMaxAttempts(){
+        return mMaxAttempts;
+    }
+
+    /* package */ long getDeadlineMillis(){
+        return mDeadlineMillis;
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting from 1
+     * @return delay in milliseconds before the next attempt
+     */
+    /* package */ long getDelayMillis(int attempt){
+        long delay = mBaseDelayMillis;
+        for (int i = 1; i < attempt && delay < mMaxDelayMillis; i++){
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelayMillis);
+        synchronized (mRandom){
+            return (long) (mRandom.nextDouble() * (delay + 1));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.caco3.testtask.songsApi;
+
+/**
+ * Receives {@link Song}s one by one as they are decoded from the server response.
+ * {@see {@link SongsApi#getSongs(SongHandler)}}
+ */
+public interface SongHandler {
+    /**
+     * Called for every song in the order they come from the server
+     * @param song decoded song
+     */
+    void onSong(Song song);
+}
@@ -4,6 +4,18 @@ import java.util.List;
 
 
 public interface SongsApi {
+    /**
+     * Watermark meaning that songs were never synced.
+     * {@see {@link #getChangesSince(long)}}
+     */
+    long NO_WATERMARK = 0;
+
+    /**
+     * Cursor to request the first page with.
+     * {@see {@link #getSongsPage(long, int)}}
+     */
+    long FIRST_PAGE_AFTER_ID = Long.MIN_VALUE;
+
     /**
      * Retrieves list of songs from the server
      * @return list of songs
@@ -12,4 +24,55 @@ public interface SongsApi {
      * {@see {@link SongsApiException }}
      */
     List<Song> getSongs() throws SongsApiException;
+
+    /**
+     * Retrieves songs from the server and passes them to the handler
+     * one by one while the response is being read.
+     * Unlike {@link #getSongs()} it doesn't collect the whole list in memory
+     * @param handler to pass songs to
+     * @throws SongsApiException if there was network problems during request
+     * or server returned invalid json. Some songs may have already been passed
+     * to the handler at that moment
+     * {@see {@link SongsApiException }}
+     */
+    void getSongs(SongHandler handler) throws SongsApiException;
+
+    /**
+     * Conditionally retrieves songs from the server.
+     * Validators (ETag and Last-Modified) of the last response fully passed to a handler
+     * are sent with the request. If the server replies that the songs weren't
+     * modified since then, nothing is read and the handler isn't called.
+     * @param handler to pass songs to
+     * @return true if songs were modified and passed to the handler, false otherwise
+     * @throws SongsApiException if there was network problems during request
+     * or server returned invalid json
+     * {@see {@link SongsApiException }}
+     */
+    boolean getSongsIfModified(SongHandler handler) throws SongsApiException;
+
+    /**
+     * Retrieves changes of the songs catalog made since the watermark
+     * returned by the previous call.
+     * @param watermark {@link SongsDelta#getWatermark()} of the previous delta,
+     *                  or {@link #NO_WATERMARK} if songs were never synced
+     * @return songs added, changed or removed since the watermark. If the server
+     * can't provide them {@link SongsDelta#isResyncRequired()} returns true
+     * @throws SongsApiException if there was network problems during request
+     * or server returned invalid json
+     * {@see {@link SongsApiException }}
+     */
+    SongsDelta getChangesSince(long watermark) throws SongsApiException;
+
+    /**
+     * Retrieves page of songs sorted by {@link Song#getId()}.
+     * {@see {@link SongsPageIterator}}
+     * @param afterId only songs with greater ids are returned,
+     *                {@link #FIRST_PAGE_AFTER_ID} to request the first page
+     * @param limit max number of songs in the page
+     * @return page of songs
+     * @throws SongsApiException if there was network problems during request
+     * or server returned invalid json
+     * {@see {@link SongsApiException }}
+     */
+    SongsPage getSongsPage(long afterId, int limit) throws SongsApiException;
 }
@@ -3,6 +3,7 @@ package com.caco3.testtask.songsApi;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 
 /**
  * Represents an exception which may be thrown by {@link SongsApi}.
@@ -26,7 +27,21 @@ public class SongsApiException extends Exception {
      * @return true if exception caused by network issue, false otherwise
      */
     public boolean isCausedByNetworkIssue(){
-        return getCause() instanceof IOException;
+        return getCause() instanceof IOException && !isCausedByUnsupportedRequest();
+    }
+
+    /**
+     * Tests whether the current exception was caused by the server which doesn't serve
+     * the request at all, i.e. responded with 404 Not Found or 501 Not Implemented.
+     * Such request fails the same way every time, so it isn't a network issue
+     * @return true if the server doesn't support the request, false otherwise
+     */
+    public boolean isCausedByUnsupportedRequest(){
+        if (!(getCause() instanceof SongsHttpClient.StatusException)){
+            return false;
+        }
+        int code = ((SongsHttpClient.StatusException) getCause()).getCode();
+        return code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_NOT_IMPLEMENTED;
     }
 
     /**
@@ -1,14 +1,145 @@
 package com.caco3.testtask.songsApi;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Controls creations of {@link SongsApi} instances.
- * Made for possible further extensions, but now it
- * just holds {@link SongsApiImpl} instance and
- * returns it by demand
+ * Holds {@link SongsApiImpl} instances, one per mirror, which talk
+ * to the servers through {@link SongsHttpClient} reusing connections,
+ * wrapped with {@link HedgingSongsApi}, so a slow mirror doesn't delay the response,
+ * with {@link ResilientSongsApi}, so transient failures are retried,
+ * with {@link InstrumentedSongsApi}, so latencies are recorded to {@link SongsApiMetrics},
+ * and with {@link CoalescingSongsApi}, so simultaneous refreshes
+ * share one request, and returns it by demand.
+ *
+ * {@link CachedSongs} keeping songs shown first on disk
+ * is created lazily, since it needs cache directory
  */
 public final class SongsApiFactory {
-    private static final SongsApi instance = new SongsApiImpl();
+    /**
+     * For how long result of completed request is returned to new callers
+     */
+    private static final long FRESHNESS_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Retry failed request up to 4 times in 3 minutes waiting
+     * from 1 up to 30 seconds between attempts
+     */
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(4,
+            TimeUnit.SECONDS.toMillis(1),
+            TimeUnit.SECONDS.toMillis(30),
+            TimeUnit.MINUTES.toMillis(3));
+
+    /**
+     * Fail fast for a minute after 5 consecutive network failures
+     */
+    private static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_BREAKER_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Equivalent servers serving songs api, the first ones are preferred
+     * until their latencies are known
+     */
+    private static final String[] SONGS_API_URLS = {
+            SongsApiImpl.SONGS_API_URL
+    };
+
+    /**
+     * Request is sent to one more mirror if it takes longer than
+     * 95% of recent requests, or longer than 3 seconds while latencies are unknown
+     */
+    private static final double HEDGE_PERCENTILE = 95;
+    private static final long INITIAL_HEDGE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(3);
+
+    private static final SongsApiMetrics sMetrics = new SongsApiMetrics();
+
+    private static final SongsApi instance = createApi(Arrays.asList(SONGS_API_URLS));
+
+    /**
+     * Cached songs are shown as is for an hour after the sync they were stored by
+     */
+    private static final long CACHE_FRESH_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Then they are shown for a week while songs are being synced
+     */
+    private static final long CACHE_MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * 256 Kb is plenty for songs filling the first screen
+     */
+    private static final long CACHE_MAX_BYTES = 256 * 1024;
+
+    private static final String CACHE_DIRECTORY = "songs";
+
+    private static CachedSongs sCachedSongs = null;
+
     public static SongsApi getApi(){
         return instance;
     }
+
+    /**
+     * @return metrics of all apis created by this factory
+     */
+    public static SongsApiMetrics getMetrics(){
+        return sMetrics;
+    }
+
+    /**
+     * Creates {@link SongsApi} talking to the given mirrors
+     * @param songsApiUrls urls of equivalent servers, the first ones are preferred
+     *                     until their latencies are known
+     * @return {@link SongsApi} created
+     */
+    public static SongsApi createApi(List<String> songsApiUrls){
+        List<SongsApi> mirrors = new ArrayList<>();
+        for (String url : songsApiUrls){
+            mirrors.add(new SongsApiImpl(url, SongsApiImpl.newHttpClient(), sMetrics));
+        }
+        SongsApi api = mirrors.size() == 1
+                ? mirrors.get(0)
+                : new HedgingSongsApi(mirrors,
+                        Executors.newCachedThreadPool(newDaemonThreadFactory("SongsApi-mirror")),
+                        HEDGE_PERCENTILE,
+                        INITIAL_HEDGE_DELAY_MILLIS);
+
+        return new CoalescingSongsApi(
+                new InstrumentedSongsApi(
+                        new ResilientSongsApi(api,
+                                RETRY_POLICY,
+                                new CircuitBreaker(CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                                        CIRCUIT_BREAKER_OPEN_MILLIS)),
+                        sMetrics),
+                FRESHNESS_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param cacheDir application cache directory
+     * @return songs shown first, kept on disk
+     */
+    public static synchronized CachedSongs getCachedSongs(File cacheDir){
+        if (sCachedSongs == null){
+            sCachedSongs = new CachedSongs(
+                    new SongsCache(new File(cacheDir, CACHE_DIRECTORY), CACHE_MAX_BYTES),
+                    CACHE_FRESH_MILLIS, CACHE_MAX_STALE_MILLIS);
+        }
+        return sCachedSongs;
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name){
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
 }
@@ -1,16 +1,15 @@
 package com.caco3.testtask.songsApi;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,7 +17,21 @@ import java.util.concurrent.TimeUnit;
  */
 
 /* package */ final class SongsApiImpl implements SongsApi {
-    private static final String SONGS_API_URL = "http://tomcat.kilograpp.com/songs/api/songs";
+    /* package */ static final String SONGS_API_URL = "http://tomcat.kilograpp.com/songs/api/songs";
+
+    /**
+     * Path of the changes endpoint relative to songs api url.
+     * It responds with json object like
+     * {@code {"watermark": 42, "resync": false, "changed": [songs...], "removed": [ids...]}}
+     */
+    private static final String CHANGES_PATH = "/changes?since=";
+
+    /**
+     * Path of the pages endpoint relative to songs api url.
+     * It responds with json object like
+     * {@code {"songs": [songs sorted by id...], "has_more": true}}
+     */
+    private static final String PAGE_PATH = "/page?limit=";
 
     /**
      * 40 seconds connection timeout
@@ -26,6 +39,71 @@ import java.util.concurrent.TimeUnit;
     private static final int CONNECTION_TIMEOUT
             = (int) TimeUnit.SECONDS.toMillis(40);
 
+    /**
+     * 20 seconds timeout of waiting for data while reading response
+     */
+    private static final int READ_TIMEOUT
+            = (int) TimeUnit.SECONDS.toMillis(20);
+
+    /**
+     * 2 minutes deadline of one request including reading the whole response
+     */
+    private static final long CALL_TIMEOUT
+            = TimeUnit.MINUTES.toMillis(2);
+
+    private final String mSongsApiUrl;
+
+    private final SongsHttpClient mHttpClient;
+
+    /**
+     * Receives latency of request phases, may be null
+     */
+    private final SongsApiMetrics mMetrics;
+
+    /**
+     * Validators of the last response received by conditional request.
+     * {@see {@link #getSongsIfModified(SongHandler)}}
+     */
+    private String mETag = null;
+    private String mLastModified = null;
+
+    /* package */ SongsApiImpl(){
+        this(SONGS_API_URL);
+    }
+
+    /**
+     * @param songsApiUrl url to retrieve songs from
+     */
+    /* package */ SongsApiImpl(String songsApiUrl){
+        this(songsApiUrl, newHttpClient());
+    }
+
+    /**
+     * @return transport with default timeouts
+     */
+    /* package */ static SongsHttpClient newHttpClient(){
+        return new SongsHttpClient(CONNECTION_TIMEOUT, READ_TIMEOUT, CALL_TIMEOUT);
+    }
+
+    /**
+     * @param songsApiUrl url to retrieve songs from
+     * @param httpClient transport to send requests with
+     */
+    /* package */ SongsApiImpl(String songsApiUrl, SongsHttpClient httpClient){
+        this(songsApiUrl, httpClient, null);
+    }
+
+    /**
+     * @param songsApiUrl url to retrieve songs from
+     * @param httpClient transport to send requests with
+     * @param metrics to record latency of request phases to, may be null
+     */
+    /* package */ SongsApiImpl(String songsApiUrl, SongsHttpClient httpClient, SongsApiMetrics metrics){
+        this.mSongsApiUrl = songsApiUrl;
+        this.mHttpClient = httpClient;
+        this.mMetrics = metrics;
+    }
+
     /**
      * Sends GET request to {@link SongsApiImpl#SONGS_API_URL}, receives response, parses it
      * and returns list of {@link Song} received
@@ -34,61 +112,282 @@ import java.util.concurrent.TimeUnit;
      */
     @Override
     public List<Song> getSongs() throws SongsApiException {
-        HttpURLConnection connection = null;
-        BufferedReader br = null;
+        final List<Song> result = new ArrayList<>();
+        getSongs(new SongHandler() {
+            @Override
+            public void onSong(Song song) {
+                result.add(song);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Sends GET request to {@link SongsApiImpl#SONGS_API_URL} and decodes response
+     * directly from the connection's stream using {@link SongsJsonReader}.
+     * Every decoded {@link Song} is passed to the handler immediately
+     * @param handler to pass songs to
+     * @throws SongsApiException if network problems occurred or server returned invalid json
+     */
+    @Override
+    public void getSongs(SongHandler handler) throws SongsApiException {
+        requestSongs(handler, false /* unconditional */);
+    }
+
+    /**
+     * Sends conditional GET request to {@link SongsApiImpl#SONGS_API_URL}
+     * with validators of the last response which was successfully passed to a handler.
+     * @param handler to pass songs to
+     * @return false if server responded with 304 Not Modified, true otherwise
+     * @throws SongsApiException if network problems occurred or server returned invalid json
+     */
+    @Override
+    public boolean getSongsIfModified(SongHandler handler) throws SongsApiException {
+        return requestSongs(handler, true /* conditional */);
+    }
+
+    /**
+     * Sends GET request to the changes endpoint and decodes the delta
+     * @param watermark to request changes since
+     * @return changes since the watermark
+     * @throws SongsApiException if network problems occurred or server returned invalid json
+     */
+    @Override
+    public SongsDelta getChangesSince(long watermark) throws SongsApiException {
+        SongsHttpClient.Response response = null;
+        SongsJsonReader reader = null;
+        long bodyStartedAt = 0;
 
         try {
-            URL url = new URL(SONGS_API_URL);
-            connection = (HttpURLConnection)url.openConnection();
-            // prepare connection
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(CONNECTION_TIMEOUT);
-            connection.setDoInput(true);
-
-            br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null){
-                sb.append(line);
+            response = mHttpClient.get(mSongsApiUrl + CHANGES_PATH + watermark, null);
+            bodyStartedAt = System.nanoTime();
+            reader = newReader(response);
+            return readDelta(reader, watermark);
+        } catch (IOException e){
+            throw new SongsApiException("Unable to get response from server", e);
+        } catch (JSONException e){
+            throw new SongsApiException("Unable to parse response", e);
+        } finally {
+            if (response != null){
+                recordMetrics(response, reader, bodyStartedAt);
+                response.close();
             }
+        }
+    }
 
-            return processSongsJsonResponse(sb.toString());
+    /**
+     * Sends GET request to the pages endpoint and decodes the page
+     * @param afterId to request songs after
+     * @param limit max number of songs in the page
+     * @return page received
+     * @throws SongsApiException if network problems occurred or server returned invalid json
+     */
+    @Override
+    public SongsPage getSongsPage(long afterId, int limit) throws SongsApiException {
+        SongsHttpClient.Response response = null;
+        String url = mSongsApiUrl + PAGE_PATH + limit;
+        if (afterId != FIRST_PAGE_AFTER_ID){
+            url += "&after_id=" + afterId;
+        }
+        SongsJsonReader reader = null;
+        long bodyStartedAt = 0;
+
+        try {
+            response = mHttpClient.get(url, null);
+            bodyStartedAt = System.nanoTime();
+            reader = newReader(response);
+            return readPage(reader, afterId);
         } catch (IOException e){
             throw new SongsApiException("Unable to get response from server", e);
         } catch (JSONException e){
             throw new SongsApiException("Unable to parse response", e);
-        }finally {
-            if (connection != null){
-                connection.disconnect();
+        } finally {
+            if (response != null){
+                recordMetrics(response, reader, bodyStartedAt);
+                response.close();
             }
+        }
+    }
+
+    /**
+     * Reads pages endpoint response
+     * @param reader to read from
+     * @param afterId the page was requested after
+     * @return page read
+     * @throws JSONException if response is malformed or songs aren't sorted by id
+     */
+    private static SongsPage readPage(SongsJsonReader reader, long afterId)
+            throws IOException, JSONException {
+        List<Song> songs = new ArrayList<>();
+        boolean hasMore = false;
 
-            if (br != null){
-                try {
-                    br.close();
-                } catch (IOException e){
-                    System.err.println("Unable to close br while retrieving response from the server");
-                    e.printStackTrace();
+        reader.beginObject();
+        while (reader.hasNext()){
+            String name = reader.nextName();
+            if ("songs".equals(name)){
+                long lastId = afterId;
+                reader.beginArray();
+                while (reader.hasNext()){
+                    Song song = reader.nextSong();
+                    // Keyset pagination relies on the order,
+                    // resuming from unordered page would lose songs
+                    if (song.getId() <= lastId){
+                        throw new JSONException("Songs in page aren't sorted by id: "
+                                + lastId + " followed by " + song.getId());
+                    }
+                    lastId = song.getId();
+                    songs.add(song);
                 }
+                reader.endArray();
+            } else if ("has_more".equals(name)){
+                hasMore = reader.nextBoolean();
+            } else {
+                reader.skipValue();
             }
         }
+        reader.endObject();
+
+        return new SongsPage(songs, afterId, hasMore);
     }
 
     /**
-     * Parses response from the server and returns list of {@link Song}s
-     * @param response to parse to
-     * @return list of {@link Song}
-     * @throws JSONException provided string is invalid json
+     * Reads changes endpoint response
+     * @param reader to read from
+     * @param requestedWatermark watermark changes were requested since
+     * @return delta read
+     * @throws JSONException if response is malformed
      */
-    private static List<Song> processSongsJsonResponse(String response) throws JSONException{
-        JSONArray songsJsonArray = new JSONArray(response);
-        List<Song> result = new ArrayList<>();
+    private static SongsDelta readDelta(SongsJsonReader reader, long requestedWatermark)
+            throws IOException, JSONException {
+        List<Song> changed = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+        boolean resync = false;
+        Long watermark = null;
+
+        reader.beginObject();
+        while (reader.hasNext()){
+            String name = reader.nextName();
+            if ("watermark".equals(name)){
+                watermark = reader.nextLong();
+            } else if ("resync".equals(name)){
+                resync = reader.nextBoolean();
+            } else if ("changed".equals(name)){
+                reader.beginArray();
+                while (reader.hasNext()){
+                    changed.add(reader.nextSong());
+                }
+                reader.endArray();
+            } else if ("removed".equals(name)){
+                reader.beginArray();
+                while (reader.hasNext()){
+                    removed.add(reader.nextLong());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        int length = songsJsonArray.length();
-        for(int i = 0; i < length; i++){
-            JSONObject songJson = songsJsonArray.getJSONObject(i);
-            result.add(Song.fromJson(songJson));
+        if (watermark == null){
+            if (resync){
+                // server doesn't know where to continue from
+                watermark = NO_WATERMARK;
+            } else {
+                throw new JSONException("JSONObject[\"watermark\"] not found.");
+            }
+        } else if (!resync && watermark < requestedWatermark){
+            throw new JSONException("Watermark went backwards: "
+                    + requestedWatermark + " -> " + watermark);
         }
 
-        return result;
+        return new SongsDelta(changed, removed, watermark, resync);
+    }
+
+    private synchronized void setValidators(String eTag, String lastModified){
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * Performs request and passes decoded songs to the handler.
+     * @param handler to pass songs to
+     * @param conditional whether to send validators of the last response
+     * @return false if server responded with 304 Not Modified, true otherwise
+     * @throws SongsApiException if network problems occurred or server returned invalid json
+     */
+    private boolean requestSongs(SongHandler handler, boolean conditional) throws SongsApiException {
+        SongsHttpClient.Response response = null;
+        SongsJsonReader reader = null;
+        long bodyStartedAt = 0;
+
+        try {
+            Map<String, String> headers = new HashMap<>();
+            if (conditional){
+                synchronized (this){
+                    if (mETag != null){
+                        headers.put("If-None-Match", mETag);
+                    }
+                    if (mLastModified != null){
+                        headers.put("If-Modified-Since", mLastModified);
+                    }
+                }
+            }
+            response = mHttpClient.get(mSongsApiUrl, headers);
+            if (conditional && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+                return false;
+            }
+
+            bodyStartedAt = System.nanoTime();
+            reader = newReader(response);
+            reader.beginArray();
+            while (reader.hasNext()){
+                handler.onSong(reader.nextSong());
+            }
+            reader.endArray();
+
+            if (conditional){
+                // remember validators only when the whole response was handled
+                setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+            }
+            return true;
+        } catch (IOException e){
+            throw new SongsApiException("Unable to get response from server", e);
+        } catch (JSONException e){
+            throw new SongsApiException("Unable to parse response", e);
+        } finally {
+            // Don't close the reader: it would close the body without reading it to the end.
+            // Closing the response drains the body and keeps the connection alive
+            if (response != null){
+                recordMetrics(response, reader, bodyStartedAt);
+                response.close();
+            }
+        }
+    }
+
+    private static SongsJsonReader newReader(SongsHttpClient.Response response) throws IOException {
+        return new SongsJsonReader(new BufferedReader(
+                new InputStreamReader(response.getBody(), "UTF-8")));
+    }
+
+    /**
+     * Records phases of the request to {@link #mMetrics}, if there are any
+     * @param response received
+     * @param reader body was read with, null if body wasn't read
+     * @param bodyStartedAt time reading of the body started at
+     */
+    private void recordMetrics(SongsHttpClient.Response response, SongsJsonReader reader,
+                               long bodyStartedAt){
+        if (mMetrics == null){
+            return;
+        }
+        mMetrics.recordResponse(response.getConnectNanos(), response.getTimeToFirstByteNanos());
+        if (reader != null){
+            long downloadNanos = response.getDownloadNanos();
+            long bodyNanos = System.nanoTime() - bodyStartedAt;
+            mMetrics.recordBody(downloadNanos, Math.max(bodyNanos - downloadNanos, 0),
+                    response.getBytesReceived(), reader.getSongsRead());
+        }
     }
 }
@@ -0,0 +1,292 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects latency and throughput of songs api calls in process.
+ *
+ * {@link InstrumentedSongsApi} records latency of every call as seen by its callers
+ * and errors by their cause. {@link SongsApiImpl} records latency of every phase
+ * of the requests it sends, bytes received and songs parsed.
+ *
+ * {@link #snapshot()} returns immutable copy of everything collected so far,
+ * so it can be logged or compared with the previous one.
+ *
+ * Thread safe
+ */
+public final class SongsApiMetrics {
+    /**
+     * Phases of one request
+     */
+    public enum Phase {
+        /**
+         * Establishing connection, near zero if pooled connection was reused
+         */
+        CONNECT,
+        /**
+         * From sending request till receiving response headers
+         */
+        FIRST_BYTE,
+        /**
+         * Waiting for body data
+         */
+        DOWNLOAD,
+        /**
+         * Decoding and parsing body, including time spent in handlers
+         */
+        PARSE
+    }
+
+    /**
+     * Causes of {@link SongsApiException}
+     */
+    public enum ErrorCause {
+        NETWORK,
+        JSON_PARSE,
+        OTHER;
+
+        /* package */ static ErrorCause of(SongsApiException e){
+            if (e.isCausedByNetworkIssue()){
+                return NETWORK;
+            } else if (e.isCausedByJsonParseErrors()){
+                return JSON_PARSE;
+            }
+            return OTHER;
+        }
+    }
+
+    private final Map<String, LatencyHistogram> mCallLatencies = new TreeMap<>();
+    private final Map<Phase, LatencyHistogram> mPhaseLatencies = new EnumMap<>(Phase.class);
+    private final Map<ErrorCause, Long> mErrors = new EnumMap<>(ErrorCause.class);
+    private long mBytesReceived = 0;
+    private long mSongsParsed = 0;
+    private long mParseNanos = 0;
+
+    /**
+     * Records latency of successful call
+     * @param operation name of the call, e.g. method name
+     * @param nanos latency
+     */
+    /* package */ synchronized void recordCall(String operation, long nanos){
+        LatencyHistogram histogram = mCallLatencies.get(operation);
+        if (histogram == null){
+            histogram = new LatencyHistogram();
+            mCallLatencies.put(operation, histogram);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records failed call
+     * @param e exception the call failed with
+     */
+    /* package */ synchronized void recordError(SongsApiException e){
+        ErrorCause cause = ErrorCause.of(e);
+        Long count = mErrors.get(cause);
+        mErrors.put(cause, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Records phases of one request preceding the body
+     * @param connectNanos time spent connecting
+     * @param firstByteNanos time spent waiting for response headers
+     */
+    /* package */ synchronized void recordResponse(long connectNanos, long firstByteNanos){
+        phase(Phase.CONNECT).record(connectNanos);
+        phase(Phase.FIRST_BYTE).record(firstByteNanos);
+    }
+
+    /**
+     * Records phases of reading one response body
+     * @param downloadNanos time spent waiting for body data
+     * @param parseNanos time spent parsing body
+     * @param bytesReceived body size before decompression
+     * @param songsParsed number of songs in body
+     */
+    /* package */ synchronized void recordBody(long downloadNanos, long parseNanos,
+                                               long bytesReceived, int songsParsed){
+        phase(Phase.DOWNLOAD).record(downloadNanos);
+        phase(Phase.PARSE).record(parseNanos);
+        mBytesReceived += bytesReceived;
+        mSongsParsed += songsParsed;
+        mParseNanos += parseNanos;
+    }
+
+    /**
+     * @return copy of metrics collected so far
+     */
+    public synchronized Snapshot snapshot(){
+        Map<String, Latency> calls = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mCallLatencies.entrySet()){
+            calls.put(entry.getKey(), new Latency(entry.getValue()));
+        }
+        Map<Phase, Latency> phases = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, LatencyHistogram> entry : mPhaseLatencies.entrySet()){
+            phases.put(entry.getKey(), new Latency(entry.getValue()));
+        }
+        return new Snapshot(calls, phases, new EnumMap<>(mErrors),
+                mBytesReceived, mSongsParsed, mParseNanos);
+    }
+
+    /**
+     * Forgets everything collected so far
+     */
+    public synchronized void reset(){
+        mCallLatencies.clear();
+        mPhaseLatencies.clear();
+        mErrors.clear();
+        mBytesReceived = 0;
+        mSongsParsed = 0;
+        mParseNanos = 0;
+    }
+
+    private LatencyHistogram phase(Phase phase){
+        LatencyHistogram histogram = mPhaseLatencies.get(phase);
+        if (histogram == null){
+            histogram = new LatencyHistogram();
+            mPhaseLatencies.put(phase, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Summary of latency histogram, all values are in milliseconds
+     */
+    public static final class Latency {
+        private final long mCount;
+        private final double mMean;
+        private final double mP50;
+        private final double mP90;
+        private final double mP99;
+        private final double mMax;
+
+        private Latency(LatencyHistogram histogram){
+            this.mCount = histogram.getCount();
+            this.mMean = mCount == 0 ? 0 : toMillis(histogram.getSumMicros()) / mCount;
+            this.mP50 = toMillis(histogram.getPercentileMicros(50));
+            this.mP90 = toMillis(histogram.getPercentileMicros(90));
+            this.mP99 = toMillis(histogram.getPercentileMicros(99));
+            this.mMax = toMillis(histogram.getMaxMicros());
+        }
+
+        private static double toMillis(long micros){
+            return micros / 1000.0;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public double getMean() {
+            return mMean;
+        }
+
+        public double getP50() {
+            return mP50;
+        }
+
+        public double getP90() {
+            return mP90;
+        }
+
+        public double getP99() {
+            return mP99;
+        }
+
+        public double getMax() {
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                    mCount, mMean, mP50, mP90, mP99, mMax);
+        }
+    }
+
+    /**
+     * Immutable copy of metrics
+     */
+    public static final class Snapshot {
+        private final Map<String, Latency> mCalls;
+        private final Map<Phase, Latency> mPhases;
+        private final Map<ErrorCause, Long> mErrors;
+        private final long mBytesReceived;
+        private final long mSongsParsed;
+        private final long mParseNanos;
+
+        private Snapshot(Map<String, Latency> calls, Map<Phase, Latency> phases,
+                         Map<ErrorCause, Long> errors,
+                         long bytesReceived, long songsParsed, long parseNanos){
+            this.mCalls = Collections.unmodifiableMap(calls);
+            this.mPhases = Collections.unmodifiableMap(phases);
+            this.mErrors = Collections.unmodifiableMap(errors);
+            this.mBytesReceived = bytesReceived;
+            this.mSongsParsed = songsParsed;
+            this.mParseNanos = parseNanos;
+        }
+
+        /**
+         * @return latencies of successful calls by operation name
+         */
+        public Map<String, Latency> getCallLatencies() {
+            return mCalls;
+        }
+
+        /**
+         * @param phase to get latency of
+         * @return latency of the phase or null if no requests were recorded
+         */
+        public Latency getPhaseLatency(Phase phase) {
+            return mPhases.get(phase);
+        }
+
+        public long getErrorCount(ErrorCause cause) {
+            Long count = mErrors.get(cause);
+            return count == null ? 0 : count;
+        }
+
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        public long getSongsParsed() {
+            return mSongsParsed;
+        }
+
+        /**
+         * @return parsing throughput, 0 if nothing was parsed
+         */
+        public double getSongsParsedPerSecond() {
+            if (mParseNanos == 0){
+                return 0;
+            }
+            return mSongsParsed / (mParseNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        /**
+         * @return multiline human readable dump
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("SongsApiMetrics");
+            for (Map.Entry<String, Latency> entry : mCalls.entrySet()){
+                builder.append("\n  call ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            for (Map.Entry<Phase, Latency> entry : mPhases.entrySet()){
+                builder.append("\n  phase ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            for (Map.Entry<ErrorCause, Long> entry : mErrors.entrySet()){
+                builder.append("\n  errors ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            builder.append(String.format(Locale.US, "\n  received %d bytes, parsed %d songs, %.0f songs/s",
+                    mBytesReceived, mSongsParsed, getSongsParsedPerSecond()));
+            return builder.toString();
+        }
+    }
+}
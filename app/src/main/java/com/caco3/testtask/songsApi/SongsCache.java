@@ -0,0 +1,243 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Disk cache of songs lists keyed by strings.
+ *
+ * Every entry is stored in its own file in the cache directory together with
+ * time it was stored at. Entries are written to a temporary file first and renamed,
+ * so a reader never sees a half written entry.
+ *
+ * Total size of entries is capped: when it's exceeded, least recently used entries
+ * are evicted. The entry just stored is never evicted, so it's kept even if alone
+ * it's bigger than the cap, evicting all the older ones.
+ *
+ * Corrupted or unreadable entries are deleted and treated as missing,
+ * the cache never fails callers because of its own problems
+ */
+/* package */ final class SongsCache {
+    private static final String ENTRY_SUFFIX = ".cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Bumped whenever entry format changes, so entries of older format are ignored
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * @param directory to store entries in, created if doesn't exist
+     * @param maxBytes max total size of entries
+     */
+    /* package */ SongsCache(File directory, long maxBytes){
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Cached songs list along with time it was stored at
+     */
+    /* package */ static final class Entry {
+        private final List<Song> mSongs;
+        private final long mStoredAtMillis;
+
+        private Entry(List<Song> songs, long storedAtMillis){
+            this.mSongs = songs;
+            this.mStoredAtMillis = storedAtMillis;
+        }
+
+        /* package */ List<Song> getSongs(){
+            return mSongs;
+        }
+
+        /* package */ long getStoredAtMillis(){
+            return mStoredAtMillis;
+        }
+    }
+
+    /**
+     * Reads entry and marks it as recently used
+     * @param key of entry
+     * @return entry read or null if there is no such entry or it can't be read
+     */
+    /* package */ synchronized Entry get(String key){
+        File file = entryFile(key);
+        if (!file.exists()){
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION){
+                throw new IOException("Unknown format of " + file);
+            }
+            long storedAtMillis = in.readLong();
+            int count = in.readInt();
+            if (count < 0){
+                throw new IOException("Corrupted " + file);
+            }
+            List<Song> songs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++){
+                long id = in.readLong();
+                int version = in.readInt();
+                String author = in.readUTF();
+                String name = in.readUTF();
+                songs.add(new Song(author, name, id, version));
+            }
+            // last modified time of entry is its last access time, it drives eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(Collections.unmodifiableList(songs), storedAtMillis);
+        } catch (IOException e){
+            System.err.println("Unable to read cache entry " + key + ", deleting it");
+            e.printStackTrace();
+            closeQuietly(in);
+            in = null;
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores entry replacing the existing one and evicts least recently used entries
+     * if the cache has grown over its size cap
+     * @param key of entry
+     * @param songs to store
+     * @param storedAtMillis time the songs were received at
+     */
+    /* package */ synchronized void put(String key, List<Song> songs, long storedAtMillis){
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()){
+            System.err.println("Unable to create cache directory " + mDirectory);
+            return;
+        }
+
+        File temp = new File(mDirectory, key + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(storedAtMillis);
+            out.writeInt(songs.size());
+            for (Song song : songs){
+                out.writeLong(song.getId());
+                out.writeInt(song.getVersion());
+                out.writeUTF(song.getAuthor());
+                out.writeUTF(song.getName());
+            }
+            out.close();
+            out = null;
+
+            File file = entryFile(key);
+            if (!temp.renameTo(file)){
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } catch (IOException e){
+            System.err.println("Unable to write cache entry " + key);
+            e.printStackTrace();
+            closeQuietly(out);
+            temp.delete();
+            return;
+        }
+
+        evictIfNeeded(entryFile(key));
+    }
+
+    /**
+     * Deletes entry
+     * @param key of entry
+     */
+    /* package */ synchronized void remove(String key){
+        entryFile(key).delete();
+    }
+
+    /**
+     * @return total size of all entries in bytes
+     */
+    /* package */ synchronized long size(){
+        long size = 0;
+        for (File file : listEntries()){
+            size += file.length();
+        }
+        return size;
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its cap
+     * @param stored entry just stored, it's never evicted
+     */
+    private void evictIfNeeded(File stored){
+        List<File> entries = listEntries();
+        long size = 0;
+        for (File file : entries){
+            size += file.length();
+        }
+        if (size <= mMaxBytes){
+            return;
+        }
+
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : entries){
+            if (size <= mMaxBytes){
+                break;
+            }
+            if (file.equals(stored)){
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()){
+                size -= length;
+            }
+        }
+    }
+
+    private List<File> listEntries(){
+        File[] files = mDirectory.listFiles();
+        List<File> entries = new ArrayList<>();
+        if (files != null){
+            for (File file : files){
+                if (file.getName().endsWith(ENTRY_SUFFIX)){
+                    entries.add(file);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private File entryFile(String key){
+        return new File(mDirectory, key + ENTRY_SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        if (closeable != null){
+            try {
+                closeable.close();
+            } catch (IOException e){
+                // ignore
+            }
+        }
+    }
+}
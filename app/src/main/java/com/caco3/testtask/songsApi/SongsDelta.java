@@ -0,0 +1,78 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable class representing changes of the songs catalog
+ * made on the server since some watermark.
+ * {@see {@link SongsApi#getChangesSince(long)}}
+ */
+public final class SongsDelta {
+    private final List<Song> changedSongs;
+    private final List<Long> removedSongIds;
+    private final long watermark;
+    private final boolean resyncRequired;
+
+    public SongsDelta(List<Song> changedSongs, List<Long> removedSongIds,
+                      long watermark, boolean resyncRequired) {
+        this.changedSongs = Collections.unmodifiableList(changedSongs);
+        this.removedSongIds = Collections.unmodifiableList(removedSongIds);
+        this.watermark = watermark;
+        this.resyncRequired = resyncRequired;
+    }
+
+
+    /**
+     * @return songs added or changed since the requested watermark
+     */
+    public List<Song> getChangedSongs() {
+        return changedSongs;
+    }
+
+
+    /**
+     * @return ids of songs removed since the requested watermark
+     */
+    public List<Long> getRemovedSongIds() {
+        return removedSongIds;
+    }
+
+
+    /**
+     * @return watermark to request the next changes since
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+
+    /**
+     * Tests whether the server can't provide changes since the requested watermark,
+     * e.g. it's too old. The client must fetch the full list with {@link SongsApi#getSongs()}
+     * and then continue from {@link #getWatermark()}
+     * @return true if full fetch is required, false otherwise
+     */
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+
+    /**
+     * @return true if nothing was changed since the requested watermark
+     */
+    public boolean isEmpty() {
+        return !resyncRequired && changedSongs.isEmpty() && removedSongIds.isEmpty();
+    }
+
+    // generated by ide
+    @Override
+    public String toString() {
+        return "SongsDelta{" +
+                "changedSongs=" + changedSongs.size() +
+                ", removedSongIds=" + removedSongIds.size() +
+                ", watermark=" + watermark +
+                ", resyncRequired=" + resyncRequired +
+                '}';
+    }
+}
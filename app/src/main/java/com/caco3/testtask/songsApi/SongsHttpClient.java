@@ -0,0 +1,431 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Transport used by {@link SongsApiImpl} to talk to the server.
+ *
+ * When a response is closed, a small unread remainder of its body is read
+ * till the end, which returns the connection to the {@link HttpURLConnection}'s
+ * keep-alive pool, so consecutive polls don't pay for TCP (and TLS) handshakes.
+ * If more than {@link #MAX_DRAIN_BYTES} are left, the connection is disconnected instead:
+ * downloading the rest of an abandoned catalog costs more than a new handshake.
+ *
+ * Responses are requested compressed with gzip or deflate and are decoded on the fly.
+ *
+ * Besides connect and read timeouts every call has a deadline: reading the body after
+ * the deadline or by interrupted thread fails. Read timeout bounds waiting for every chunk of data and the deadline
+ * bounds the whole call, so a server dripping the body slowly can't hold the caller forever.
+ * Read timeout can't be changed once the body is being read, so a watchdog disconnects
+ * the response which is still open at the deadline: HttpURLConnection of Android fails
+ * the read waiting for data then, so the read can't outlast the deadline.
+ * Connect and read timeouts never exceed the time left till the deadline, so connecting and
+ * waiting for response headers are bounded by it as well. A caller can shorten deadlines of
+ * all calls made by its thread with {@link #setThreadDeadline(Long)}, e.g. to keep retries within its budget.
+ *
+ * {@link Response} reports how long connecting, waiting for the first byte and downloading
+ * the body took and how many bytes were received, so callers can tell network time
+ * from their own processing time.
+ */
+/* package */ final class SongsHttpClient {
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /**
+     * Size of buffer used to drain unread response body
+     */
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Max number of unread bytes drained to keep the connection alive
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * Disconnects responses which weren't closed by their deadlines
+     */
+    private static final ScheduledExecutorService sWatchdog
+            = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SongsHttpClient-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * {@link System#nanoTime()} based deadline bounding calls made by the thread, if any
+     */
+    private static final ThreadLocal<Long> sThreadDeadlineNanos = new ThreadLocal<>();
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final long mCallTimeout;
+
+    /**
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout max time in milliseconds to wait for data while reading response
+     * @param callTimeout max time in milliseconds from sending request till closing the response
+     */
+    /* package */ SongsHttpClient(int connectTimeout, int readTimeout, long callTimeout){
+        this.mConnectTimeout = connectTimeout;
+        this.mReadTimeout = readTimeout;
+        this.mCallTimeout = callTimeout;
+    }
+
+    /**
+     * Bounds calls made by the current thread with the given deadline in addition to their own ones
+     * @param deadlineNanos {@link System#nanoTime()} based deadline, or null to remove it
+     * @return deadline set before, null if there was none
+     */
+    /* package */ static Long setThreadDeadline(Long deadlineNanos){
+        Long previous = sThreadDeadlineNanos.get();
+        if (deadlineNanos != null){
+            sThreadDeadlineNanos.set(deadlineNanos);
+        } else {
+            sThreadDeadlineNanos.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * @return deadline bounding calls made by the current thread, null if there is none
+     */
+    /* package */ static Long getThreadDeadline(){
+        return sThreadDeadlineNanos.get();
+    }
+
+    /**
+     * Sends GET request and returns response with decoded body.
+     * The response must be closed by the caller.
+     * @param url to send request to
+     * @param headers additional request headers, may be null
+     * @return response received
+     * @throws IOException if network problems occurred or server responded with error status
+     */
+    /* package */ Response get(String url, Map<String, String> headers) throws IOException {
+        long startedAtNanos = System.nanoTime();
+        long deadlineNanos = startedAtNanos + TimeUnit.MILLISECONDS.toNanos(mCallTimeout);
+        Long threadDeadlineNanos = sThreadDeadlineNanos.get();
+        if (threadDeadlineNanos != null && threadDeadlineNanos - deadlineNanos < 0){
+            deadlineNanos = threadDeadlineNanos;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(boundTimeout(mConnectTimeout, deadlineNanos));
+        connection.setReadTimeout(boundTimeout(mReadTimeout, deadlineNanos));
+        connection.setDoInput(true);
+        // we decode the body ourselves, so setting this header
+        // disables transparent gzip handling done by some HttpURLConnection implementations
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        if (headers != null){
+            for (Map.Entry<String, String> header : headers.entrySet()){
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        // connect explicitly to tell connecting time from waiting for response
+        connection.connect();
+        long connectedAtNanos = System.nanoTime();
+        try {
+            // connecting took a part of the time left for response headers
+            connection.setReadTimeout(boundTimeout(mReadTimeout, deadlineNanos));
+        } catch (InterruptedIOException e){
+            connection.disconnect();
+            throw e;
+        }
+        int responseCode = connection.getResponseCode();
+        long firstByteAtNanos = System.nanoTime();
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST){
+            // consume error body to keep connection reusable
+            release(connection, connection.getErrorStream());
+            throw new StatusException(responseCode, connection.getResponseMessage());
+        }
+
+        return new Response(connection, deadlineNanos,
+                connectedAtNanos - startedAtNanos, firstByteAtNanos - connectedAtNanos);
+    }
+
+    /**
+     * @param timeoutMillis timeout configured
+     * @param deadlineNanos deadline of the call
+     * @return the timeout, shortened to the time left till the deadline
+     * @throws InterruptedIOException if the deadline has passed
+     */
+    private static int boundTimeout(int timeoutMillis, long deadlineNanos) throws InterruptedIOException {
+        long leftMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (leftMillis <= 0){
+            throw new InterruptedIOException("Call exceeded its deadline");
+        }
+        // zero timeout means no timeout at all
+        return (int) Math.min(timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE, leftMillis);
+    }
+
+    /**
+     * Drains and closes the body, disconnects if the body is too long to drain
+     * @param connection body was received by
+     * @param in body to release, may be null
+     */
+    private static void release(HttpURLConnection connection, InputStream in){
+        if (in == null){
+            return;
+        }
+        boolean isDrained = drain(in);
+        closeQuietly(in);
+        if (!isDrained){
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads at most {@link #MAX_DRAIN_BYTES} from the stream
+     * @return true if the end of the stream was reached
+     */
+    private static boolean drain(InputStream in){
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            long drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1){
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES){
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e){
+            // connection won't be reused
+            return false;
+        }
+    }
+
+    private static void closeQuietly(InputStream in){
+        try {
+            in.close();
+        } catch (IOException e){
+            System.err.println("Unable to close response stream");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Thrown when the server responded with error status
+     */
+    /* package */ static final class StatusException extends IOException {
+        private final int mCode;
+
+        private StatusException(int code, String message){
+            super("Server responded with " + code + " " + message);
+            this.mCode = code;
+        }
+
+        /**
+         * @return status code of the response
+         */
+        /* package */ int getCode(){
+            return mCode;
+        }
+    }
+
+    /**
+     * Response received from the server
+     */
+    /* package */ static final class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final long mDeadlineNanos;
+        private final long mConnectNanos;
+        private final long mTimeToFirstByteNanos;
+        private final Future<?> mWatchdog;
+        private BodyInputStream mRawBody;
+        private InputStream mBody;
+
+        /* package */ Response(final HttpURLConnection connection, long deadlineNanos,
+                         long connectNanos, long timeToFirstByteNanos){
+            this.mConnection = connection;
+            this.mDeadlineNanos = deadlineNanos;
+            this.mConnectNanos = connectNanos;
+            this.mTimeToFirstByteNanos = timeToFirstByteNanos;
+            this.mWatchdog = sWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // fails the read waiting for data on another thread
+                    connection.disconnect();
+                }
+            }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return time spent establishing connection, near zero if pooled connection was reused
+         */
+        /* package */ long getConnectNanos(){
+            return mConnectNanos;
+        }
+
+        /**
+         * @return time from sending request till receiving response headers
+         */
+        /* package */ long getTimeToFirstByteNanos(){
+            return mTimeToFirstByteNanos;
+        }
+
+        /**
+         * @return time spent waiting for body data so far
+         */
+        /* package */ long getDownloadNanos(){
+            return mRawBody != null ? mRawBody.mReadNanos : 0;
+        }
+
+        /**
+         * @return number of body bytes received so far, before decompression
+         */
+        /* package */ long getBytesReceived(){
+            return mRawBody != null ? mRawBody.mBytesRead : 0;
+        }
+
+        /* package */ int getCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        /* package */ String getHeader(String name){
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return response body decoded according to its Content-Encoding
+         */
+        /* package */ InputStream getBody() throws IOException {
+            if (mBody == null){
+                mRawBody = new BodyInputStream(mConnection.getInputStream(), mDeadlineNanos);
+                String encoding = mConnection.getContentEncoding();
+                if ("gzip".equalsIgnoreCase(encoding)){
+                    mBody = new GZIPInputStream(mRawBody);
+                } else if ("deflate".equalsIgnoreCase(encoding)){
+                    mBody = new InflaterInputStream(mRawBody);
+                } else {
+                    mBody = mRawBody;
+                }
+            }
+            return mBody;
+        }
+
+        /**
+         * Reads the rest of the body and closes it, so the connection can be reused
+         * by the next request. Disconnects if too much of the body is left unread
+         */
+        @Override
+        public void close(){
+            try {
+                if (mRawBody == null){
+                    try {
+                        mRawBody = new BodyInputStream(mConnection.getInputStream(), mDeadlineNanos);
+                    } catch (IOException e){
+                        mConnection.disconnect();
+                        return;
+                    }
+                }
+                boolean isDrained = drain(mRawBody);
+                // closes raw body as well and releases inflater if there is one
+                closeQuietly(mBody != null ? mBody : mRawBody);
+                if (!isDrained){
+                    mConnection.disconnect();
+                }
+            } finally {
+                mWatchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Raw response body. Fails reads made after the deadline or by interrupted thread,
+     * so the caller can cancel the call it doesn't need anymore.
+     * Counts bytes read and time spent waiting for them
+     */
+    private static final class BodyInputStream extends FilterInputStream {
+        private final long mDeadlineNanos;
+        private long mBytesRead = 0;
+        private long mReadNanos = 0;
+
+        private BodyInputStream(InputStream in, long deadlineNanos){
+            super(in);
+            this.mDeadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+            long startedAt = System.nanoTime();
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e){
+                throw checkDisconnectedByWatchdog(e);
+            }
+            mReadNanos += System.nanoTime() - startedAt;
+            if (b != -1){
+                mBytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkDeadline();
+            long startedAt = System.nanoTime();
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e){
+                throw checkDisconnectedByWatchdog(e);
+            }
+            mReadNanos += System.nanoTime() - startedAt;
+            if (read > 0){
+                mBytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkDeadline();
+            return super.skip(n);
+        }
+
+        /**
+         * @param e thrown by read
+         * @return exception telling that the call exceeded its deadline if it did,
+         * read was failed by the watchdog then, the passed exception otherwise
+         */
+        private IOException checkDisconnectedByWatchdog(IOException e){
+            if (System.nanoTime() - mDeadlineNanos < 0){
+                return e;
+            }
+            InterruptedIOException deadlineExceeded = new InterruptedIOException("Call exceeded its deadline");
+            deadlineExceeded.initCause(e);
+            return deadlineExceeded;
+        }
+
+        private void checkDeadline() throws InterruptedIOException {
+            if (System.nanoTime() - mDeadlineNanos > 0){
+                throw new InterruptedIOException("Call exceeded its deadline");
+            }
+            if (Thread.currentThread().isInterrupted()){
+                throw new InterruptedIOException("Call was cancelled");
+            }
+        }
+    }
+}
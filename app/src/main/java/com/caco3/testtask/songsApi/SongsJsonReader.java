@@ -0,0 +1,459 @@
+package com.caco3.testtask.songsApi;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser reading json responses of songs api token by token.
+ *
+ * Unlike {@link org.json.JSONArray} it never holds the whole response in memory:
+ * each call of {@link #nextSong()} reads exactly one json object from the
+ * underlying {@link Reader} and maps it to {@link Song}.
+ * Unknown fields of song object are skipped.
+ *
+ * Malformed json is reported with {@link JSONException} so the callers
+ * can map it the same way as errors thrown by org.json classes.
+ *
+ * It doesn't delegate to android.util.JsonReader since android classes are stubs
+ * in JVM unit tests, while org.json is provided to them as a test dependency
+ */
+/* package */ final class SongsJsonReader implements Closeable {
+    private static final String KEY_NAME = "label";
+    private static final String KEY_AUTHOR = "author";
+    private static final String KEY_ID = "id";
+    private static final String KEY_VERSION = "version";
+
+    private final Reader mReader;
+
+    /**
+     * Character read ahead, or -2 if there is no such character
+     */
+    private int mPeeked = -2;
+
+    /**
+     * Reused to collect characters of strings and numbers
+     */
+    private final StringBuilder mBuffer = new StringBuilder();
+
+    /**
+     * Whether the next element of array or object opened at the given depth
+     * must be preceded by comma
+     */
+    private boolean[] mCommaExpected = new boolean[8];
+
+    /**
+     * Number of arrays and objects opened with {@link #beginArray()}
+     * and {@link #beginObject()} and not closed yet
+     */
+    private int mDepth = 0;
+
+    /**
+     * Number of songs read, used in error messages
+     */
+    private int mSongsRead = 0;
+
+    /* package */ SongsJsonReader(Reader reader){
+        this.mReader = reader;
+    }
+
+    /**
+     * Consumes opening bracket of an array
+     * @throws JSONException if the next token is not '['
+     */
+    /* package */ void beginArray() throws IOException, JSONException {
+        expect('[');
+        push();
+    }
+
+    /**
+     * Consumes closing bracket of the current array
+     * @throws JSONException if the next token is not ']'
+     */
+    /* package */ void endArray() throws IOException, JSONException {
+        expect(']');
+        pop();
+    }
+
+    /**
+     * Consumes opening brace of an object. Its fields are read with
+     * {@link #nextName()} followed by one of value reading methods
+     * @throws JSONException if the next token is not '{'
+     */
+    /* package */ void beginObject() throws IOException, JSONException {
+        expect('{');
+        push();
+    }
+
+    /**
+     * Consumes closing brace of the current object
+     * @throws JSONException if the next token is not '}'
+     */
+    /* package */ void endObject() throws IOException, JSONException {
+        expect('}');
+        pop();
+    }
+
+    /**
+     * Tests whether the current array or object has more elements
+     * @return true if there is one more element to read, false if the array or object is over
+     */
+    /* package */ boolean hasNext() throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c == ']' || c == '}') {
+            return false;
+        }
+        if (mDepth > 0 && mCommaExpected[mDepth - 1]) {
+            if (c != ',') {
+                throw syntaxError("Expected ',' or end of " + (c == -1 ? "input" : "container"));
+            }
+            read();
+            mCommaExpected[mDepth - 1] = false;
+            c = peekNonWhitespace();
+            if (c == ']' || c == '}') {
+                throw syntaxError("Unexpected '" + (char) c + "'");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads name of the next field of the current object
+     * @return name of the field
+     */
+    /* package */ String nextName() throws IOException, JSONException {
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Reads number value
+     * @return the value converted to long
+     * @throws JSONException if the value is not a number
+     */
+    /* package */ long nextLong() throws IOException, JSONException {
+        long value = nextNumber("value");
+        valueRead();
+        return value;
+    }
+
+    /**
+     * Reads boolean value
+     * @return the value read
+     * @throws JSONException if the value is not a boolean
+     */
+    /* package */ boolean nextBoolean() throws IOException, JSONException {
+        String literal = nextLiteral();
+        valueRead();
+        if ("true".equals(literal)) {
+            return true;
+        } else if ("false".equals(literal)) {
+            return false;
+        }
+        throw syntaxError("Expected boolean");
+    }
+
+    /**
+     * Skips the next value of any type
+     */
+    /* package */ void skipValue() throws IOException, JSONException {
+        skip();
+        valueRead();
+    }
+
+    /**
+     * Reads next json object and maps it to {@link Song}
+     * @return {@link Song} read
+     * @throws JSONException if json is malformed or some of song fields is missing
+     */
+    /* package */ Song nextSong() throws IOException, JSONException {
+        String name = null;
+        String author = null;
+        Long id = null;
+        Long version = null;
+
+        expect('{');
+        if (peekNonWhitespace() == '}') {
+            read();
+        } else {
+            while (true) {
+                String key = readString();
+                expect(':');
+                if (KEY_NAME.equals(key)) {
+                    name = nextPrimitiveAsString(key);
+                } else if (KEY_AUTHOR.equals(key)) {
+                    author = nextPrimitiveAsString(key);
+                } else if (KEY_ID.equals(key)) {
+                    id = nextNumber(key);
+                } else if (KEY_VERSION.equals(key)) {
+                    version = nextNumber(key);
+                } else {
+                    skip();
+                }
+
+                int c = readNonWhitespace();
+                if (c == '}') {
+                    break;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+            }
+        }
+        mSongsRead++;
+        valueRead();
+
+        if (name == null) {
+            throw missingKey(KEY_NAME);
+        }
+        if (author == null) {
+            throw missingKey(KEY_AUTHOR);
+        }
+        if (id == null) {
+            throw missingKey(KEY_ID);
+        }
+        if (version == null) {
+            throw missingKey(KEY_VERSION);
+        }
+        if (version > Integer.MAX_VALUE || version < Integer.MIN_VALUE) {
+            throw new JSONException("JSONObject[\"" + KEY_VERSION + "\"] is not an int.");
+        }
+
+        return new Song(author, name, id, (int) version.longValue());
+    }
+
+    /**
+     * @return number of songs read with {@link #nextSong()}
+     */
+    /* package */ int getSongsRead(){
+        return mSongsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Reads string, number or boolean and returns its textual representation
+     * the same way {@code JSONObject#getString(String)} does
+     */
+    private String nextPrimitiveAsString(String key) throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            return readString();
+        } else if (c == '{' || c == '[') {
+            throw new JSONException("JSONObject[\"" + key + "\"] not a string.");
+        }
+        String literal = nextLiteral();
+        if ("null".equals(literal)) {
+            throw new JSONException("JSONObject[\"" + key + "\"] not a string.");
+        }
+        return literal;
+    }
+
+    /**
+     * Reads number (or string containing number) and converts it to long
+     * the same way {@code JSONObject#getLong(String)} does
+     */
+    private Long nextNumber(String key) throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        String value;
+        if (c == '"') {
+            value = readString();
+        } else if (c == '{' || c == '[') {
+            throw new JSONException("JSONObject[\"" + key + "\"] is not a number.");
+        } else {
+            value = nextLiteral();
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(value);
+            } catch (NumberFormatException e1) {
+                throw new JSONException("JSONObject[\"" + key + "\"] is not a number.");
+            }
+        }
+    }
+
+    /**
+     * Reads quoted string handling escape sequences
+     */
+    private String readString() throws IOException, JSONException {
+        if (readNonWhitespace() != '"') {
+            throw syntaxError("Expected string");
+        }
+        mBuffer.setLength(0);
+        while (true) {
+            int c = read();
+            switch (c) {
+                case -1:
+                    throw syntaxError("Unterminated string");
+                case '"':
+                    return mBuffer.toString();
+                case '\\':
+                    mBuffer.append(readEscapedChar());
+                    break;
+                default:
+                    mBuffer.append((char) c);
+            }
+        }
+    }
+
+    private char readEscapedChar() throws IOException, JSONException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1) {
+                        throw syntaxError("Illegal escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Illegal escape");
+        }
+    }
+
+    /**
+     * Reads unquoted token: number, true, false or null
+     */
+    private String nextLiteral() throws IOException, JSONException {
+        peekNonWhitespace();
+        mBuffer.setLength(0);
+        while (true) {
+            int c = peek();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':'
+                    || c == '{' || c == '[' || c == '"' || isWhitespace(c)) {
+                break;
+            }
+            mBuffer.append((char) read());
+        }
+        if (mBuffer.length() == 0) {
+            throw syntaxError("Expected value");
+        }
+        return mBuffer.toString();
+    }
+
+    /**
+     * Skips value of any type including nested objects and arrays
+     */
+    private void skip() throws IOException, JSONException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            read();
+            int close = c == '{' ? '}' : ']';
+            if (peekNonWhitespace() == close) {
+                read();
+                return;
+            }
+            while (true) {
+                if (c == '{') {
+                    readString();
+                    expect(':');
+                }
+                skip();
+                int next = readNonWhitespace();
+                if (next == close) {
+                    return;
+                } else if (next != ',') {
+                    throw syntaxError("Expected ',' or '" + (char) close + "'");
+                }
+            }
+        } else {
+            nextLiteral();
+        }
+    }
+
+    private void push() {
+        if (mDepth == mCommaExpected.length) {
+            boolean[] grown = new boolean[mDepth * 2];
+            System.arraycopy(mCommaExpected, 0, grown, 0, mDepth);
+            mCommaExpected = grown;
+        }
+        mCommaExpected[mDepth++] = false;
+    }
+
+    private void pop() {
+        mDepth--;
+        valueRead();
+    }
+
+    /**
+     * Called when a value was consumed, so the next one must be preceded by comma
+     */
+    private void valueRead() {
+        if (mDepth > 0) {
+            mCommaExpected[mDepth - 1] = true;
+        }
+    }
+
+    private void expect(char expected) throws IOException, JSONException {
+        if (readNonWhitespace() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        int c = peek();
+        while (isWhitespace(c)) {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int readNonWhitespace() throws IOException {
+        peekNonWhitespace();
+        return read();
+    }
+
+    private int peek() throws IOException {
+        if (mPeeked == -2) {
+            mPeeked = mReader.read();
+        }
+        return mPeeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        mPeeked = -2;
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " after " + mSongsRead + " songs");
+    }
+
+    private static JSONException missingKey(String key) {
+        return new JSONException("JSONObject[\"" + key + "\"] not found.");
+    }
+}
@@ -0,0 +1,62 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable class representing one page of songs sorted by {@link Song#getId()}.
+ * {@see {@link SongsApi#getSongsPage(long, int)}}
+ */
+public final class SongsPage {
+    private final List<Song> songs;
+    private final long afterId;
+    private final boolean hasMore;
+
+    public SongsPage(List<Song> songs, long afterId, boolean hasMore) {
+        this.songs = Collections.unmodifiableList(songs);
+        this.afterId = afterId;
+        this.hasMore = hasMore;
+    }
+
+
+    /**
+     * @return songs of this page sorted by id
+     */
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+
+    /**
+     * @return id this page was requested after
+     */
+    public long getAfterId() {
+        return afterId;
+    }
+
+
+    /**
+     * @return id to request the next page after
+     */
+    public long getNextAfterId() {
+        return songs.isEmpty() ? afterId : songs.get(songs.size() - 1).getId();
+    }
+
+
+    /**
+     * @return true if there are songs after this page, false if this page is the last one
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    // generated by ide
+    @Override
+    public String toString() {
+        return "SongsPage{" +
+                "songs=" + songs.size() +
+                ", afterId=" + afterId +
+                ", hasMore=" + hasMore +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.caco3.testtask.songsApi;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Pulls pages of songs from {@link SongsApi} one by one.
+ * Only the page returned by {@link #next()} is held in memory,
+ * so memory needed to walk the whole catalog is bounded by the page size.
+ *
+ * Iteration may be resumed later by creating new iterator
+ * starting after {@link #getAfterId()} of this one
+ */
+public final class SongsPageIterator {
+    private final SongsApi mSongsApi;
+    private final int mPageSize;
+    private long mAfterId;
+    private boolean mHasNext = true;
+
+    /**
+     * @param songsApi to retrieve pages from
+     * @param afterId id to start after, {@link SongsApi#FIRST_PAGE_AFTER_ID}
+     *                to start from the first song
+     * @param pageSize max number of songs in one page
+     */
+    public SongsPageIterator(SongsApi songsApi, long afterId, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.mSongsApi = songsApi;
+        this.mAfterId = afterId;
+        this.mPageSize = pageSize;
+    }
+
+    /**
+     * @return true if there may be more pages, false if the last page was already returned
+     */
+    public boolean hasNext() {
+        return mHasNext;
+    }
+
+    /**
+     * Retrieves the next page. If retrieving fails, the same page
+     * will be requested by the next call
+     * @return next page
+     * @throws SongsApiException if the page can't be retrieved
+     */
+    public SongsPage next() throws SongsApiException {
+        if (!mHasNext) {
+            throw new NoSuchElementException();
+        }
+        SongsPage page = mSongsApi.getSongsPage(mAfterId, mPageSize);
+        mAfterId = page.getNextAfterId();
+        mHasNext = page.hasMore() && !page.getSongs().isEmpty();
+        return page;
+    }
+
+    /**
+     * @return id of the last song returned, i.e. the cursor to resume iteration from
+     */
+    public long getAfterId() {
+        return mAfterId;
+    }
+}
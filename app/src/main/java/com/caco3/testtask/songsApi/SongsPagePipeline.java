@@ -0,0 +1,249 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the catalog page by page in two overlapping stages:
+ * pages are downloaded and parsed on the fetch thread while pages fetched before
+ * are written on the thread calling {@link #run(PageWriter)}.
+ *
+ * Stages are connected by a bounded queue. When the writer falls behind,
+ * the fetch thread waits for a free slot, so at most capacity + 2 pages
+ * are held in memory no matter how slow the writer is.
+ *
+ * Pages are written in order. If fetching fails, pages fetched before the failure
+ * are written and then the error is thrown, so the caller can resume after the last page written
+ */
+public final class SongsPagePipeline {
+    /**
+     * Writes pages on the thread running the pipeline
+     */
+    public interface PageWriter {
+        /**
+         * @param page the next page
+         * @return true if the page changed what readers see
+         */
+        boolean write(SongsPage page);
+    }
+
+    /**
+     * Time spent in every stage of one run
+     */
+    public static final class Stats {
+        private final int mPages;
+        private final long mFetchNanos;
+        private final long mFetchBlockedNanos;
+        private final long mWriteNanos;
+        private final long mWriteIdleNanos;
+        private final long mTotalNanos;
+
+        private Stats(int pages, long fetchNanos, long fetchBlockedNanos,
+                      long writeNanos, long writeIdleNanos, long totalNanos){
+            this.mPages = pages;
+            this.mFetchNanos = fetchNanos;
+            this.mFetchBlockedNanos = fetchBlockedNanos;
+            this.mWriteNanos = writeNanos;
+            this.mWriteIdleNanos = writeIdleNanos;
+            this.mTotalNanos = totalNanos;
+        }
+
+        /**
+         * @return number of pages written
+         */
+        public int getPages() {
+            return mPages;
+        }
+
+        /**
+         * @return time spent downloading and parsing pages
+         */
+        public long getFetchMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mFetchNanos);
+        }
+
+        /**
+         * @return time the fetch thread waited for the writer to free a slot in the queue
+         */
+        public long getFetchBlockedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mFetchBlockedNanos);
+        }
+
+        /**
+         * @return time spent writing pages
+         */
+        public long getWriteMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mWriteNanos);
+        }
+
+        /**
+         * @return time the writer waited for pages to be fetched
+         */
+        public long getWriteIdleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mWriteIdleNanos);
+        }
+
+        /**
+         * @return time from the start till the last page written,
+         * less than fetch and write time together if stages overlapped
+         */
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mTotalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "SongsPagePipeline: %d pages in %dms, "
+                            + "fetch %dms (blocked %dms), write %dms (idle %dms)",
+                    mPages, getTotalMillis(), getFetchMillis(), getFetchBlockedMillis(),
+                    getWriteMillis(), getWriteIdleMillis());
+        }
+    }
+
+    /**
+     * Element of the queue: the next page or the end of pages
+     */
+    private static final class Item {
+        private static final Item END = new Item(null, null);
+
+        private final SongsPage mPage;
+        /**
+         * {@link SongsApiException} or {@link RuntimeException} fetching failed with
+         */
+        private final Exception mError;
+
+        private Item(SongsPage page, Exception error){
+            this.mPage = page;
+            this.mError = error;
+        }
+    }
+
+    private final SongsPageIterator mPages;
+    private final BlockingQueue<Item> mQueue;
+
+    /**
+     * Written by the fetch thread only
+     */
+    private volatile long mFetchNanos = 0;
+    private volatile long mFetchBlockedNanos = 0;
+
+    private Stats mStats;
+    private boolean mIsStarted = false;
+
+    /**
+     * @param pages to fetch
+     * @param capacity max number of pages fetched ahead of the writer
+     */
+    public SongsPagePipeline(SongsPageIterator pages, int capacity){
+        if (capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.mPages = pages;
+        this.mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Fetches all pages and passes them to the writer on the calling thread.
+     * Fetching is stopped if the writer throws
+     * @param writer to write pages with
+     * @return true if any page written changed what readers see
+     * @throws SongsApiException if a page can't be retrieved or the calling thread is interrupted
+     * @throws IllegalStateException if the pipeline was already run
+     */
+    public boolean run(PageWriter writer) throws SongsApiException {
+        if (mIsStarted){
+            throw new IllegalStateException("Pipeline can be run only once");
+        }
+        mIsStarted = true;
+
+        long startedAt = System.nanoTime();
+        Thread fetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        }, "SongsPagePipeline-fetch");
+        fetchThread.setDaemon(true);
+        fetchThread.start();
+
+        boolean modified = false;
+        int pages = 0;
+        long writeNanos = 0;
+        long writeIdleNanos = 0;
+        boolean isFinished = false;
+        try {
+            while (true){
+                long takeStartedAt = System.nanoTime();
+                Item item = mQueue.take();
+                long writeStartedAt = System.nanoTime();
+                writeIdleNanos += writeStartedAt - takeStartedAt;
+                if (item == Item.END){
+                    break;
+                }
+                if (item.mError instanceof SongsApiException){
+                    throw (SongsApiException) item.mError;
+                } else if (item.mError != null){
+                    throw (RuntimeException) item.mError;
+                }
+                modified |= writer.write(item.mPage);
+                pages++;
+                writeNanos += System.nanoTime() - writeStartedAt;
+            }
+            isFinished = true;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            InterruptedIOException cause = new InterruptedIOException("Interrupted while waiting for pages");
+            cause.initCause(e);
+            throw new SongsApiException(cause);
+        } finally {
+            if (!isFinished){
+                // pages left won't be written, wake the fetch thread up if it waits for a slot
+                fetchThread.interrupt();
+            }
+            mStats = new Stats(pages, mFetchNanos, mFetchBlockedNanos,
+                    writeNanos, writeIdleNanos, System.nanoTime() - startedAt);
+        }
+
+        return modified;
+    }
+
+    /**
+     * @return time spent in stages by the last run, or null if the pipeline wasn't run.
+     * Fetch time is complete only if the run completed without errors
+     */
+    public Stats getStats(){
+        return mStats;
+    }
+
+    /**
+     * Runs on the fetch thread until all pages are queued, fetching fails or the thread is interrupted
+     */
+    private void fetch(){
+        try {
+            while (mPages.hasNext() && !Thread.currentThread().isInterrupted()){
+                long fetchStartedAt = System.nanoTime();
+                Item item;
+                try {
+                    item = new Item(mPages.next(), null);
+                } catch (SongsApiException e){
+                    item = new Item(null, e);
+                } catch (RuntimeException e){
+                    item = new Item(null, e);
+                }
+                long putStartedAt = System.nanoTime();
+                mFetchNanos += putStartedAt - fetchStartedAt;
+                mQueue.put(item);
+                mFetchBlockedNanos += System.nanoTime() - putStartedAt;
+                if (item.mError != null){
+                    return;
+                }
+            }
+            mQueue.put(Item.END);
+        } catch (InterruptedException e){
+            // the writer has stopped, nobody takes pages anymore
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.caco3.testtask.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts lists on several threads: equal parts are sorted concurrently
+ * and then merged pairwise, pairs of every round are merged concurrently too.
+ *
+ * Parts are sorted with stable {@link Arrays#sort(Object[], int, int, Comparator)}
+ * and merging takes the left item of equal ones, so the result is exactly the same
+ * as of {@link Collections#sort(List, Comparator)}
+ */
+public final class ParallelSort {
+    /**
+     * Parts shorter than this aren't worth a task
+     */
+    private static final int MIN_PART_SIZE = 1 << 12;
+
+    /**
+     * @param list to sort in place
+     * @param comparator to sort with
+     * @param executor to sort and merge parts on
+     * @param parallelism max number of parts, 1 sorts on the calling thread
+     */
+    public static <T> void sort(List<T> list, Comparator<? super T> comparator,
+                                ExecutorService executor, int parallelism){
+        if (parallelism <= 0){
+            throw new IllegalArgumentException("parallelism must be positive, was " + parallelism);
+        }
+        int size = list.size();
+        int parts = Math.min(parallelism, size / MIN_PART_SIZE);
+        if (parts <= 1){
+            Collections.sort(list, comparator);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        T[] items = (T[]) list.toArray();
+        T[] sorted = sort(items, comparator, executor, parts);
+
+        ListIterator<T> iterator = list.listIterator();
+        for (T item : sorted){
+            iterator.next();
+            iterator.set(item);
+        }
+    }
+
+    /**
+     * @return items or the buffer of the same size, whichever keeps the sorted items
+     */
+    private static <T> T[] sort(final T[] items, final Comparator<? super T> comparator,
+                                ExecutorService executor, int parts){
+        // run i is [bounds[i], bounds[i + 1])
+        int[] bounds = new int[parts + 1];
+        for (int i = 0; i <= parts; i++){
+            bounds[i] = (int) ((long) items.length * i / parts);
+        }
+
+        List<Future<Void>> futures = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++){
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Arrays.sort(items, from, to, comparator);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(futures);
+
+        T[] source = items;
+        T[] target = Arrays.copyOf(items, items.length);
+        while (bounds.length > 2){
+            int runs = bounds.length - 1;
+            int[] merged = new int[(runs + 1) / 2 + 1];
+            futures.clear();
+            for (int i = 0; i < runs; i += 2){
+                final T[] from = source;
+                final T[] to = target;
+                final int leftFrom = bounds[i];
+                final int rightFrom = bounds[i + 1];
+                final int rightTo = i + 2 < bounds.length ? bounds[i + 2] : rightFrom;
+                merged[i / 2] = leftFrom;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        merge(from, leftFrom, rightFrom, rightTo, to, comparator);
+                        return null;
+                    }
+                }));
+            }
+            merged[merged.length - 1] = items.length;
+            awaitAll(futures);
+            bounds = merged;
+            T[] swap = source;
+            source = target;
+            target = swap;
+        }
+        return source;
+    }
+
+    /**
+     * Merges sorted [leftFrom, rightFrom) and [rightFrom, rightTo) ranges of source
+     * to the same range of target, equal items are taken from the left range first
+     */
+    private static <T> void merge(T[] source, int leftFrom, int rightFrom, int rightTo,
+                                  T[] target, Comparator<? super T> comparator){
+        int left = leftFrom;
+        int right = rightFrom;
+        int to = leftFrom;
+        while (left < rightFrom && right < rightTo){
+            if (comparator.compare(source[right], source[left]) < 0){
+                target[to++] = source[right++];
+            } else {
+                target[to++] = source[left++];
+            }
+        }
+        System.arraycopy(source, left, target, to, rightFrom - left);
+        System.arraycopy(source, right, target, to + rightFrom - left, rightTo - right);
+    }
+
+    private static void awaitAll(List<Future<Void>> futures){
+        try {
+            for (Future<Void> future : futures){
+                ParallelUtils.getUninterruptibly(future);
+            }
+        } finally {
+            for (Future<Void> future : futures){
+                future.cancel(true);
+            }
+        }
+    }
+
+    private ParallelSort(){
+        throw new AssertionError(ParallelSort.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
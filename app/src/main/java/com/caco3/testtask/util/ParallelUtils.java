@@ -0,0 +1,73 @@
+package com.caco3.testtask.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared pool for splitting CPU bound work across cores
+ * {@see {@link ParallelSort}, {@link SortedDiff#diff(SortedDiff.Callback, boolean, ExecutorService, int)}}
+ */
+public final class ParallelUtils {
+    private static ExecutorService sExecutor;
+
+    /**
+     * @return number of cores, i.e. how many parts work should be split to
+     */
+    public static int getParallelism(){
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return pool having a thread for every core. Its threads are daemons, so it's never shut down
+     */
+    public static synchronized ExecutorService getExecutor(){
+        if (sExecutor == null){
+            sExecutor = Executors.newFixedThreadPool(getParallelism(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Parallel");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Waits for the task even if the calling thread is interrupted, the interrupt is restored then
+     * @return result of the task
+     * @throws RuntimeException the task has thrown
+     */
+    /* package */ static <T> T getUninterruptibly(Future<T> future){
+        boolean interrupted = false;
+        try {
+            while (true){
+                try {
+                    return future.get();
+                } catch (InterruptedException e){
+                    interrupted = true;
+                } catch (ExecutionException e){
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException){
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error){
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ParallelUtils(){
+        throw new AssertionError(ParallelUtils.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
@@ -0,0 +1,370 @@
+package com.caco3.testtask.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes difference between two sequences of items sorted by unique ids
+ * in one merge pass, i.e. in O(n + m) time and O(1) memory.
+ *
+ * Ids are unique, so the script is minimal: items present only in the old sequence are removed,
+ * items present only in the new one are inserted and items present in both
+ * are changed if their contents differ.
+ *
+ * Operations are reported in order with positions in the list being transformed,
+ * i.e. the old list with all previous operations applied, so they can be applied
+ * to the list or passed to RecyclerView.Adapter notifications as they come
+ */
+public final class SortedDiff {
+    /**
+     * Gives access to sequences being compared and receives operations
+     */
+    public static abstract class Callback {
+        public abstract int getOldSize();
+
+        public abstract int getNewSize();
+
+        public abstract long getOldId(int oldIndex);
+
+        public abstract long getNewId(int newIndex);
+
+        /**
+         * Called for items having the same id
+         * @return true if the item wasn't changed
+         */
+        public abstract boolean areContentsTheSame(int oldIndex, int newIndex);
+
+        /**
+         * @param position where the new item is inserted
+         * @param newIndex of the item in the new sequence
+         */
+        public void onInserted(int position, int newIndex){
+        }
+
+        /**
+         * @param position of the old item removed
+         * @param oldIndex of the item in the old sequence
+         */
+        public void onRemoved(int position, int oldIndex){
+        }
+
+        /**
+         * @param position of the item changed
+         * @param oldIndex of the item in the old sequence
+         * @param newIndex of the item in the new sequence
+         */
+        public void onChanged(int position, int oldIndex, int newIndex){
+        }
+    }
+
+    /**
+     * Diffs sequences sorted by id ascending
+     * {@see {@link #diff(Callback, boolean)}}
+     */
+    public static int diff(Callback callback){
+        return diff(callback, false);
+    }
+
+    /**
+     * @param callback to get items from and pass operations to
+     * @param descending true if sequences are sorted by id descending
+     * @return number of operations reported
+     * @throws IllegalArgumentException if a sequence isn't sorted or has repeated ids,
+     * operations before the item out of order may be already reported
+     */
+    public static int diff(Callback callback, boolean descending){
+        return diffRange(callback, 0, callback.getOldSize(), 0, callback.getNewSize(), 0,
+                descending ? -1 : 1);
+    }
+
+    /**
+     * Diffs partitions of sequences concurrently and then reports operations
+     * of every partition on the calling thread, in the same order and with the same positions
+     * as {@link #diff(Callback, boolean)} does.
+     *
+     * Sequences are split at ids of the new sequence into equal parts,
+     * the old sequence is split at the same ids found by binary search.
+     * Getters of the callback are called from threads of the executor concurrently,
+     * so they must be safe to call concurrently while the sequences aren't modified.
+     * Operations of a partition are buffered until it's reported,
+     * so it needs memory for every operation of the script
+     *
+     * @param callback to get items from and pass operations to
+     * @param descending true if sequences are sorted by id descending
+     * @param executor to diff partitions on
+     * @param parallelism number of partitions, 1 diffs on the calling thread
+     * @return number of operations reported
+     * @throws IllegalArgumentException if a sequence isn't sorted or has repeated ids,
+     * operations before the item out of order may be already reported
+     */
+    public static int diff(final Callback callback, boolean descending,
+                           ExecutorService executor, int parallelism){
+        if (parallelism <= 0){
+            throw new IllegalArgumentException("parallelism must be positive, was " + parallelism);
+        }
+        final int sign = descending ? -1 : 1;
+        int newSize = callback.getNewSize();
+        int partitions = Math.min(parallelism, newSize);
+        if (partitions <= 1){
+            return diff(callback, descending);
+        }
+
+        // partition i covers [oldFrom[i], oldFrom[i + 1]) and [newFrom[i], newFrom[i + 1])
+        int[] oldFrom = new int[partitions + 1];
+        int[] newFrom = new int[partitions + 1];
+        oldFrom[partitions] = callback.getOldSize();
+        newFrom[partitions] = newSize;
+        for (int i = 1; i < partitions; i++){
+            newFrom[i] = (int) ((long) newSize * i / partitions);
+            // binary search over unsorted ids may go back, the order check will throw then
+            oldFrom[i] = Math.max(oldFrom[i - 1],
+                    lowerBound(callback, oldFrom[i - 1], oldFrom[partitions], callback.getNewId(newFrom[i]), sign));
+        }
+
+        List<Future<Recorder>> futures = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++){
+            final Recorder recorder = new Recorder(callback, oldFrom[i], oldFrom[i + 1],
+                    newFrom[i], newFrom[i + 1]);
+            futures.add(executor.submit(new Callable<Recorder>() {
+                @Override
+                public Recorder call() throws Exception {
+                    try {
+                        diffRange(recorder, recorder.mOldFrom, recorder.mOldTo,
+                                recorder.mNewFrom, recorder.mNewTo, recorder.mNewFrom, sign);
+                    } catch (IllegalArgumentException e){
+                        recorder.mError = e;
+                    }
+                    return recorder;
+                }
+            }));
+        }
+
+        int operations = 0;
+        try {
+            for (Future<Recorder> future : futures){
+                Recorder recorder = ParallelUtils.getUninterruptibly(future);
+                operations += recorder.replayTo(callback);
+                if (recorder.mError != null){
+                    throw recorder.mError;
+                }
+            }
+        } finally {
+            for (Future<Recorder> future : futures){
+                future.cancel(true);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Merges [oldFrom, oldTo) and [newFrom, newTo) ranges of sequences
+     * @param position of the item at newFrom in the list being transformed
+     */
+    private static int diffRange(Callback callback, int oldFrom, int oldTo, int newFrom, int newTo,
+                                 int position, int sign){
+        int oldIdx = oldFrom;
+        int newIdx = newFrom;
+        int operations = 0;
+        while (oldIdx < oldTo || newIdx < newTo){
+            int order;
+            if (oldIdx == oldTo){
+                order = 1;
+            } else if (newIdx == newTo){
+                order = -1;
+            } else {
+                order = sign * compare(callback.getOldId(oldIdx), callback.getNewId(newIdx));
+            }
+            if (order < 0){
+                checkOldOrder(callback, oldIdx, sign);
+                callback.onRemoved(position, oldIdx);
+                oldIdx++;
+                operations++;
+            } else if (order > 0){
+                checkNewOrder(callback, newIdx, sign);
+                callback.onInserted(position, newIdx);
+                newIdx++;
+                position++;
+                operations++;
+            } else {
+                checkOldOrder(callback, oldIdx, sign);
+                checkNewOrder(callback, newIdx, sign);
+                if (!callback.areContentsTheSame(oldIdx, newIdx)){
+                    callback.onChanged(position, oldIdx, newIdx);
+                    operations++;
+                }
+                oldIdx++;
+                newIdx++;
+                position++;
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * @return index of the first old item in [from, to) not preceding the id
+     */
+    private static int lowerBound(Callback callback, int from, int to, long id, int sign){
+        int low = from;
+        int high = to;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (sign * compare(callback.getOldId(middle), id) < 0){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Buffers operations of one partition, reads items from the callback it records for
+     */
+    private static final class Recorder extends Callback {
+        private static final int INSERTED = 0;
+        private static final int REMOVED = 1;
+        private static final int CHANGED = 2;
+
+        private final Callback mCallback;
+        private final int mOldFrom;
+        private final int mOldTo;
+        private final int mNewFrom;
+        private final int mNewTo;
+
+        /**
+         * Operation i is (mTypes[i], mPositions[i], mOldIndices[i], mNewIndices[i])
+         */
+        private byte[] mTypes = new byte[16];
+        private int[] mPositions = new int[16];
+        private int[] mOldIndices = new int[16];
+        private int[] mNewIndices = new int[16];
+        private int mSize = 0;
+
+        /**
+         * Thrown by the diff of the partition after operations recorded are reported
+         */
+        private IllegalArgumentException mError;
+
+        private Recorder(Callback callback, int oldFrom, int oldTo, int newFrom, int newTo){
+            this.mCallback = callback;
+            this.mOldFrom = oldFrom;
+            this.mOldTo = oldTo;
+            this.mNewFrom = newFrom;
+            this.mNewTo = newTo;
+        }
+
+        @Override
+        public int getOldSize() {
+            return mCallback.getOldSize();
+        }
+
+        @Override
+        public int getNewSize() {
+            return mCallback.getNewSize();
+        }
+
+        @Override
+        public long getOldId(int oldIndex) {
+            return mCallback.getOldId(oldIndex);
+        }
+
+        @Override
+        public long getNewId(int newIndex) {
+            return mCallback.getNewId(newIndex);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldIndex, int newIndex) {
+            return mCallback.areContentsTheSame(oldIndex, newIndex);
+        }
+
+        @Override
+        public void onInserted(int position, int newIndex) {
+            record(INSERTED, position, -1, newIndex);
+        }
+
+        @Override
+        public void onRemoved(int position, int oldIndex) {
+            record(REMOVED, position, oldIndex, -1);
+        }
+
+        @Override
+        public void onChanged(int position, int oldIndex, int newIndex) {
+            record(CHANGED, position, oldIndex, newIndex);
+        }
+
+        private void record(int type, int position, int oldIndex, int newIndex){
+            if (mSize == mTypes.length){
+                mTypes = Arrays.copyOf(mTypes, mSize * 2);
+                mPositions = Arrays.copyOf(mPositions, mSize * 2);
+                mOldIndices = Arrays.copyOf(mOldIndices, mSize * 2);
+                mNewIndices = Arrays.copyOf(mNewIndices, mSize * 2);
+            }
+            mTypes[mSize] = (byte) type;
+            mPositions[mSize] = position;
+            mOldIndices[mSize] = oldIndex;
+            mNewIndices[mSize] = newIndex;
+            mSize++;
+        }
+
+        /**
+         * Partitions before this one are reported, so they are replaced with the new items
+         * before {@link #mNewFrom} and positions recorded from it are the positions in the list
+         * @return number of operations reported
+         */
+        private int replayTo(Callback callback){
+            for (int i = 0; i < mSize; i++){
+                switch (mTypes[i]){
+                    case INSERTED:
+                        callback.onInserted(mPositions[i], mNewIndices[i]);
+                        break;
+                    case REMOVED:
+                        callback.onRemoved(mPositions[i], mOldIndices[i]);
+                        break;
+                    case CHANGED:
+                        callback.onChanged(mPositions[i], mOldIndices[i], mNewIndices[i]);
+                        break;
+                }
+            }
+            return mSize;
+        }
+    }
+
+    /**
+     * Can't delegate it to {@link Long#compare(long, long)}
+     * since minApiLevel for this app is 15
+     */
+    private static int compare(long a, long b){
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Checks that the item is followed by the greater one (or the lower one if sorted descending)
+     */
+    private static void checkOldOrder(Callback callback, int oldIdx, int sign){
+        if (oldIdx + 1 < callback.getOldSize()){
+            checkOrder(callback.getOldId(oldIdx), callback.getOldId(oldIdx + 1), sign, "old");
+        }
+    }
+
+    private static void checkNewOrder(Callback callback, int newIdx, int sign){
+        if (newIdx + 1 < callback.getNewSize()){
+            checkOrder(callback.getNewId(newIdx), callback.getNewId(newIdx + 1), sign, "new");
+        }
+    }
+
+    private static void checkOrder(long id, long nextId, int sign, String sequence){
+        if (sign * compare(id, nextId) >= 0){
+            throw new IllegalArgumentException("Ids of the " + sequence + " sequence aren't sorted: "
+                    + nextId + " follows " + id);
+        }
+    }
+
+    private SortedDiff(){
+        throw new AssertionError(SortedDiff.class.getCanonicalName() + " not intended to be instantiated");
+    }
+}
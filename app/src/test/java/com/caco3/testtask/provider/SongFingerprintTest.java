@@ -0,0 +1,35 @@
+package com.caco3.testtask.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class SongFingerprintTest {
+    @Test
+    public void sameContent_hasSameFingerprint() {
+        assertEquals(SongFingerprint.of("Queen", "Innuendo", 1),
+                SongFingerprint.of(new String("Queen"), new String("Innuendo"), 1));
+    }
+
+    @Test
+    public void everyField_changesFingerprint() {
+        long fingerprint = SongFingerprint.of("Queen", "Innuendo", 1);
+
+        assertNotEquals(fingerprint, SongFingerprint.of("Queen!", "Innuendo", 1));
+        assertNotEquals(fingerprint, SongFingerprint.of("Queen", "innuendo", 1));
+        assertNotEquals(fingerprint, SongFingerprint.of("Queen", "Innuendo", 2));
+    }
+
+    @Test
+    public void fieldBoundaries_changeFingerprint() {
+        assertNotEquals(SongFingerprint.of("ab", "c", 1), SongFingerprint.of("a", "bc", 1));
+        assertNotEquals(SongFingerprint.of("", "ab", 1), SongFingerprint.of("ab", "", 1));
+    }
+
+    @Test
+    public void nullFields_differFromEmptyOnes() {
+        assertNotEquals(SongFingerprint.of(null, "name", 1), SongFingerprint.of("", "name", 1));
+        assertNotEquals(SongFingerprint.of(null, "name", 1), SongFingerprint.of("name", null, 1));
+    }
+}
@@ -0,0 +1,43 @@
+package com.caco3.testtask.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SongsSearchQueryTest {
+    @Test
+    public void words_areMatchedAsPrefixes() {
+        SongsSearchQuery query = new SongsSearchQuery("Yellow Sub");
+
+        assertFalse(query.isEmpty());
+        assertEquals("yellow* sub*", query.matchAll());
+        assertEquals("name:yellow* name:sub*", query.matchColumn("name"));
+    }
+
+    @Test
+    public void querySyntax_isDropped() {
+        SongsSearchQuery query = new SongsSearchQuery("\"rock\" OR -roll* NEAR(x)");
+
+        assertEquals("rock* or* roll* near* x*", query.matchAll());
+    }
+
+    @Test
+    public void textWithoutWords_isEmpty() {
+        assertTrue(new SongsSearchQuery("").isEmpty());
+        assertTrue(new SongsSearchQuery("  -*\"() ").isEmpty());
+    }
+
+    @Test
+    public void nonAsciiLetters_areKeptAsTyped() {
+        assertEquals("caf\u00c9*", new SongsSearchQuery("Caf\u00c9!").matchAll());
+    }
+
+    @Test
+    public void capitalizedNonAsciiTerm_isNotLowerCased() {
+        // the default tokenizer indexes it as is, lower cased term would never match it
+        assertEquals("\u041a\u0438\u043d\u043e* abc*",
+                new SongsSearchQuery("\u041a\u0438\u043d\u043e ABC").matchAll());
+    }
+}
@@ -0,0 +1,138 @@
+package com.caco3.testtask.service;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.caco3.testtask.service.SyncScheduler.MAX_INTERVAL_MILLIS;
+import static com.caco3.testtask.service.SyncScheduler.MIN_INTERVAL_MILLIS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncSchedulerTest {
+    private static class FakeClock implements SyncScheduler.Clock {
+        long mNowMillis = TimeUnit.DAYS.toMillis(10000);
+
+        @Override
+        public long currentTimeMillis() {
+            return mNowMillis;
+        }
+    }
+
+    /**
+     * Random returning the middle of the range, so intervals have no jitter
+     */
+    private static class NoJitterRandom extends Random {
+        @Override
+        public double nextDouble() {
+            return 0.5;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+
+    private long interval(SyncScheduler scheduler, SyncScheduler.Result result) {
+        long nextSyncAt = scheduler.onSyncFinished(result);
+        long interval = nextSyncAt - mClock.mNowMillis;
+        mClock.mNowMillis = nextSyncAt;
+        return interval;
+    }
+
+    @Test
+    public void newScheduler_syncsAtOnce() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new NoJitterRandom());
+        assertTrue(scheduler.getNextSyncAtMillis() <= mClock.currentTimeMillis());
+    }
+
+    @Test
+    public void interval_followsChangeRate() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new NoJitterRandom());
+
+        for (int i = 0; i < SyncScheduler.HISTORY_SIZE; i++) {
+            interval(scheduler, SyncScheduler.Result.CHANGED);
+        }
+        assertEquals(MIN_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.CHANGED));
+
+        // intervals grow while the catalog doesn't change
+        long previous = MIN_INTERVAL_MILLIS;
+        for (int i = 0; i < SyncScheduler.HISTORY_SIZE; i++) {
+            long interval = interval(scheduler, SyncScheduler.Result.NOT_CHANGED);
+            assertTrue(interval > previous);
+            previous = interval;
+        }
+        assertEquals(MAX_INTERVAL_MILLIS, previous);
+
+        // half of syncs changed songs: the geometric mean of the bounds
+        for (int i = 0; i < SyncScheduler.HISTORY_SIZE / 2; i++) {
+            interval(scheduler, SyncScheduler.Result.CHANGED);
+        }
+        assertEquals(Math.round(Math.sqrt((double) MIN_INTERVAL_MILLIS * MAX_INTERVAL_MILLIS)),
+                scheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void failures_backOffExponentially() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new NoJitterRandom());
+        for (int i = 0; i < SyncScheduler.HISTORY_SIZE; i++) {
+            interval(scheduler, SyncScheduler.Result.NOT_CHANGED);
+        }
+
+        assertEquals(MIN_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.FAILED));
+        assertEquals(2 * MIN_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.FAILED));
+        assertEquals(4 * MIN_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.FAILED));
+        for (int i = 0; i < 100; i++) {
+            interval(scheduler, SyncScheduler.Result.FAILED);
+        }
+        assertEquals(MAX_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.FAILED));
+
+        // success resets the backoff, history is kept
+        assertEquals(MAX_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.NOT_CHANGED));
+        assertEquals(0, scheduler.getConsecutiveFailures());
+    }
+
+    @Test
+    public void noNetwork_retriesSoonWithoutChangingHistory() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new NoJitterRandom());
+        interval(scheduler, SyncScheduler.Result.NOT_CHANGED);
+        interval(scheduler, SyncScheduler.Result.FAILED);
+
+        assertEquals(MIN_INTERVAL_MILLIS, interval(scheduler, SyncScheduler.Result.NO_NETWORK));
+        assertEquals(1, scheduler.getHistorySize());
+        assertEquals(1, scheduler.getConsecutiveFailures());
+    }
+
+    @Test
+    public void jitter_spreadsSyncs() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new Random(42));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long interval = interval(scheduler, SyncScheduler.Result.CHANGED);
+            min = Math.min(min, interval);
+            max = Math.max(max, interval);
+        }
+
+        assertTrue(min >= Math.round(MIN_INTERVAL_MILLIS * (1 - SyncScheduler.JITTER)));
+        assertTrue(max <= Math.round(MIN_INTERVAL_MILLIS * (1 + SyncScheduler.JITTER)));
+        // spread over most of the range
+        assertTrue(max - min > MIN_INTERVAL_MILLIS * SyncScheduler.JITTER * 1.8);
+    }
+
+    @Test
+    public void restoredScheduler_continuesFromSavedState() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, new NoJitterRandom());
+        interval(scheduler, SyncScheduler.Result.CHANGED);
+        interval(scheduler, SyncScheduler.Result.NOT_CHANGED);
+        interval(scheduler, SyncScheduler.Result.FAILED);
+
+        SyncScheduler restored = new SyncScheduler(mClock, new NoJitterRandom(),
+                scheduler.getHistory(), scheduler.getHistorySize(),
+                scheduler.getConsecutiveFailures(), scheduler.getNextSyncAtMillis());
+
+        assertEquals(scheduler.getNextSyncAtMillis(), restored.getNextSyncAtMillis());
+        assertEquals(scheduler.getIntervalMillis(), restored.getIntervalMillis());
+        assertEquals(scheduler.onSyncFinished(SyncScheduler.Result.CHANGED),
+                restored.onSyncFinished(SyncScheduler.Result.CHANGED));
+    }
+}
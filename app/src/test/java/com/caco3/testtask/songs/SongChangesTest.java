@@ -0,0 +1,59 @@
+package com.caco3.testtask.songs;
+
+import com.caco3.testtask.songsApi.Song;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SongChangesTest {
+    private static Song song(long id, int version) {
+        return new Song("author", "name " + id, id, version);
+    }
+
+    @Test
+    public void changes_areAppliedKeepingDescendingOrder() {
+        List<Song> songs = Arrays.asList(song(9, 1), song(7, 1), song(5, 1), song(3, 1));
+        SongChanges changes = new SongChanges(
+                Arrays.asList(song(8, 1), song(5, 2), song(1, 1), song(10, 1)),
+                Arrays.asList(7L, 3L, 42L),
+                100);
+
+        assertEquals(Arrays.asList(song(10, 1), song(9, 1), song(8, 1), song(5, 2), song(1, 1)),
+                changes.applyTo(songs));
+        assertEquals(4, songs.size());
+    }
+
+    @Test
+    public void changes_areAppliedToEmptyList() {
+        SongChanges changes = new SongChanges(Arrays.asList(song(1, 1), song(2, 1)),
+                Collections.<Long>emptyList(), 2);
+
+        assertEquals(Arrays.asList(song(2, 1), song(1, 1)), changes.applyTo(Collections.<Song>emptyList()));
+    }
+
+    @Test
+    public void changesBelowLoadedSongs_areLeftForNextPages() {
+        List<Song> songs = Arrays.asList(song(9, 1), song(7, 1), song(5, 1));
+        SongChanges changes = new SongChanges(
+                Arrays.asList(song(10, 1), song(6, 1), song(5, 2), song(4, 1)),
+                Arrays.asList(9L, 2L),
+                100);
+
+        assertEquals(Arrays.asList(song(10, 1), song(7, 1), song(6, 1), song(5, 2)),
+                changes.applyTo(songs, 5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resetChanges_cantBeApplied() {
+        SongChanges changes = SongChanges.reset(100);
+
+        assertTrue(changes.isReset());
+        changes.applyTo(Collections.<Song>emptyList());
+    }
+}
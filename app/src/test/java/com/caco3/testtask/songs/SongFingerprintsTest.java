@@ -0,0 +1,47 @@
+package com.caco3.testtask.songs;
+
+import com.caco3.testtask.provider.SongFingerprint;
+import com.caco3.testtask.songsApi.Song;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SongFingerprintsTest {
+    private static long fingerprint(Song song) {
+        return SongFingerprint.of(song.getAuthor(), song.getName(), song.getVersion());
+    }
+
+    @Test
+    public void songs_areFoundById() {
+        SongFingerprints fingerprints = new SongFingerprints(1);
+        for (long id = 0; id < 100; id += 2) {
+            fingerprints.add(id, id * 10);
+        }
+
+        assertEquals(50, fingerprints.size());
+        assertEquals(21, fingerprints.indexOf(42));
+        assertEquals(420, fingerprints.fingerprintAt(21));
+        assertTrue(fingerprints.indexOf(43) < 0);
+    }
+
+    @Test
+    public void changedSongs_areDetected() {
+        Song song = new Song("Queen", "Innuendo", 1, 1);
+        SongFingerprints fingerprints = new SongFingerprints(1);
+        fingerprints.add(1, fingerprint(song));
+
+        assertTrue(fingerprints.isUnchanged(song));
+        assertFalse(fingerprints.isUnchanged(new Song("Queen", "Innuendo", 1, 2)));
+        assertFalse(fingerprints.isUnchanged(new Song("Queen", "Innuendo", 2, 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void descendingIds_areRejected() {
+        SongFingerprints fingerprints = new SongFingerprints(2);
+        fingerprints.add(2, 0);
+        fingerprints.add(1, 0);
+    }
+}
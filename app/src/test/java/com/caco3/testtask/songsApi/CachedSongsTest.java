@@ -0,0 +1,97 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachedSongsTest {
+    private static final long FRESH = TimeUnit.HOURS.toMillis(1);
+    private static final long MAX_STALE = TimeUnit.DAYS.toMillis(7);
+    private static final String KEY_SONGS = "songs";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SongsCache mCache;
+    private CachedSongs mCachedSongs;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new SongsCache(mFolder.newFolder("cache"), 1024 * 1024);
+        mCachedSongs = new CachedSongs(mCache, FRESH, MAX_STALE);
+    }
+
+    private void cacheSongsStored(long agoMillis, int version) {
+        mCache.put(KEY_SONGS, Collections.singletonList(new Song("author", "name", 1, version)),
+                System.currentTimeMillis() - agoMillis);
+    }
+
+    @Test
+    public void missingSnapshot_isNull() {
+        assertNull(mCachedSongs.get());
+    }
+
+    @Test
+    public void snapshot_isReadBackInOrder() {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 10; i > 0; i--) {
+            songs.add(new Song("author " + i, "name " + i, i, 1));
+        }
+
+        mCachedSongs.put(songs);
+
+        assertEquals(songs, mCachedSongs.get().getSongs());
+    }
+
+    @Test
+    public void freshSnapshot_isReturnedAsIs() {
+        cacheSongsStored(FRESH - TimeUnit.MINUTES.toMillis(1), 7);
+
+        CachedSongs.Snapshot snapshot = mCachedSongs.get();
+        assertEquals(7, snapshot.getSongs().get(0).getVersion());
+        assertFalse(snapshot.isStale());
+    }
+
+    @Test
+    public void snapshotWithinMaxStale_isReturnedAsStale() {
+        cacheSongsStored(FRESH + MAX_STALE - TimeUnit.MINUTES.toMillis(1), 7);
+
+        CachedSongs.Snapshot snapshot = mCachedSongs.get();
+        assertEquals(7, snapshot.getSongs().get(0).getVersion());
+        assertTrue(snapshot.isStale());
+    }
+
+    @Test
+    public void expiredSnapshot_isNotReturned() {
+        cacheSongsStored(FRESH + MAX_STALE + TimeUnit.MINUTES.toMillis(1), 7);
+
+        assertNull(mCachedSongs.get());
+    }
+
+    @Test
+    public void snapshotFromFuture_isNotReturned() {
+        cacheSongsStored(-TimeUnit.HOURS.toMillis(1), 7);
+
+        assertNull(mCachedSongs.get());
+    }
+
+    @Test
+    public void snapshot_survivesRestart() {
+        mCachedSongs.put(Collections.singletonList(new Song("author", "name", 1, 3)));
+
+        CachedSongs restarted = new CachedSongs(mCache, FRESH, MAX_STALE);
+        assertEquals(3, restarted.get().getSongs().get(0).getVersion());
+    }
+}
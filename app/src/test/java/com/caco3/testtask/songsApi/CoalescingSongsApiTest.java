@@ -0,0 +1,185 @@
+package com.caco3.testtask.songsApi;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingSongsApiTest {
+    private static final int CALLERS = 16;
+
+    /**
+     * Fake api blocking every request until released and counting requests
+     */
+    private static final class BlockingSongsApi extends ForwardingSongsApi {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile SongsApiException failure;
+
+        BlockingSongsApi() {
+            super(null);
+        }
+
+        @Override
+        public List<Song> getSongs() throws SongsApiException {
+            requests.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            List<Song> songs = new ArrayList<>();
+            songs.add(new Song("a", "b", 1, 1));
+            return songs;
+        }
+
+        @Override
+        public SongsDelta getChangesSince(long watermark) {
+            requests.incrementAndGet();
+            return new SongsDelta(Collections.<Song>emptyList(), Collections.<Long>emptyList(),
+                    watermark, false);
+        }
+    }
+
+    private static List<Future<List<Song>>> callConcurrently(ExecutorService executor,
+                                                             final SongsApi api) {
+        List<Future<List<Song>>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(new Callable<List<Song>>() {
+                @Override
+                public List<Song> call() throws Exception {
+                    return api.getSongs();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Gives callers time to join the request in flight
+     */
+    private static void awaitCallersBlocked() throws InterruptedException {
+        Thread.sleep(200);
+    }
+
+    @Test
+    public void parallelCallers_causeExactlyOneRequest() throws Exception {
+        BlockingSongsApi delegate = new BlockingSongsApi();
+        SongsApi api = new CoalescingSongsApi(delegate, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+        List<Future<List<Song>>> futures = callConcurrently(executor, api);
+        assertTrue(delegate.started.await(5, TimeUnit.SECONDS));
+        awaitCallersBlocked();
+        delegate.release.countDown();
+
+        List<Song> first = futures.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<List<Song>> future : futures) {
+            List<Song> songs = future.get(5, TimeUnit.SECONDS);
+            assertEquals(first, songs);
+        }
+        assertNotSame(first, futures.get(1).get());
+        assertEquals(1, delegate.requests.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void parallelCallers_shareException() throws Exception {
+        BlockingSongsApi delegate = new BlockingSongsApi();
+        delegate.failure = new SongsApiException("broken", new JSONException("broken"));
+        SongsApi api = new CoalescingSongsApi(delegate, TimeUnit.MINUTES.toMillis(1));
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+        List<Future<List<Song>>> futures = callConcurrently(executor, api);
+        assertTrue(delegate.started.await(5, TimeUnit.SECONDS));
+        awaitCallersBlocked();
+        delegate.release.countDown();
+
+        for (Future<List<Song>> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(((SongsApiException) e.getCause()).isCausedByJsonParseErrors());
+            }
+        }
+        assertEquals(1, delegate.requests.get());
+
+        // failures are not reused even within freshness window
+        delegate.failure = null;
+        assertEquals(1, api.getSongs().size());
+        assertEquals(2, delegate.requests.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void freshResult_isReturnedWithoutRequest() throws Exception {
+        BlockingSongsApi delegate = new BlockingSongsApi();
+        delegate.release.countDown();
+        SongsApi api = new CoalescingSongsApi(delegate, TimeUnit.MINUTES.toMillis(1));
+
+        api.getSongs();
+        api.getSongs();
+        api.getChangesSince(1);
+        api.getChangesSince(1);
+        api.getChangesSince(2);
+
+        assertEquals(3, delegate.requests.get());
+    }
+
+    @Test
+    public void withoutFreshnessWindow_sequentialCallsAreNotShared() throws Exception {
+        BlockingSongsApi delegate = new BlockingSongsApi();
+        delegate.release.countDown();
+        SongsApi api = new CoalescingSongsApi(delegate, 0);
+
+        api.getSongs();
+        api.getSongs();
+
+        assertEquals(2, delegate.requests.get());
+    }
+
+    @Test
+    public void parallelSyncsAgainstServer_causeOneHttpRequest() throws Exception {
+        // slow response keeps the request in flight while other callers join it
+        StubSongsServer server = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(100)).delay(300);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            SongsApi api = new CoalescingSongsApi(new SongsApiImpl(server.url()), 0);
+
+            for (Future<List<Song>> future : callConcurrently(executor, api)) {
+                assertEquals(100, future.get(5, TimeUnit.SECONDS).size());
+            }
+
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            executor.shutdown();
+            server.shutdown();
+        }
+    }
+}
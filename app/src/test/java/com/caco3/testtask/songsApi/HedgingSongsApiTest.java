@@ -0,0 +1,169 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgingSongsApiTest {
+    private static final long HEDGE_DELAY = 300;
+
+    private final List<StubSongsServer> mServers = new ArrayList<>();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        for (StubSongsServer server : mServers) {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Starts mirror responding with songs after the given delay
+     */
+    private StubSongsServer mirror(final long delayMillis) throws IOException {
+        StubSongsServer server = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(10)).delay(delayMillis);
+            }
+        });
+        mServers.add(server);
+        return server;
+    }
+
+    private StubSongsServer failingMirror() throws IOException {
+        StubSongsServer server = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return new StubSongsServer.Response(503);
+            }
+        });
+        mServers.add(server);
+        return server;
+    }
+
+    private HedgingSongsApi hedgingApi(StubSongsServer... servers) {
+        List<SongsApi> mirrors = new ArrayList<>();
+        for (StubSongsServer server : servers) {
+            mirrors.add(new SongsApiImpl(server.url()));
+        }
+        return new HedgingSongsApi(mirrors, mExecutor, 95, HEDGE_DELAY);
+    }
+
+    private static long elapsedMillis(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    @Test
+    public void fastMirror_isNotHedged() throws Exception {
+        StubSongsServer fast = mirror(0);
+        StubSongsServer slow = mirror(TimeUnit.SECONDS.toMillis(2));
+        SongsApi api = hedgingApi(fast, slow);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(10, api.getSongs().size());
+        }
+
+        assertEquals(5, fast.getRequestCount());
+        assertEquals(0, slow.getRequestCount());
+    }
+
+    @Test
+    public void slowMirror_isHedgedAndThenAvoided() throws Exception {
+        StubSongsServer slow = mirror(TimeUnit.SECONDS.toMillis(2));
+        StubSongsServer fast = mirror(0);
+        HedgingSongsApi api = hedgingApi(slow, fast);
+
+        long startedAt = System.nanoTime();
+        assertEquals(10, api.getSongs().size());
+        assertTrue(elapsedMillis(startedAt) < 1000);
+        assertEquals(1, slow.getRequestCount());
+        assertEquals(1, fast.getRequestCount());
+
+        // the fast mirror is preferred from now on
+        assertEquals(1, api.rankMirrors().get(0).getIndex());
+        for (int i = 0; i < 5; i++) {
+            startedAt = System.nanoTime();
+            api.getSongs();
+            assertTrue(elapsedMillis(startedAt) < HEDGE_DELAY);
+        }
+        assertEquals(1, slow.getRequestCount());
+    }
+
+    @Test
+    public void hedgeLoser_isCancelled() throws Exception {
+        StubSongsServer dripping = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                // takes minutes to send
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(100)).byteDelay(20);
+            }
+        });
+        mServers.add(dripping);
+        StubSongsServer fast = mirror(300);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<SongsApi> mirrors = new ArrayList<>();
+        mirrors.add(new SongsApiImpl(dripping.url()));
+        mirrors.add(new SongsApiImpl(fast.url()));
+        SongsApi api = new HedgingSongsApi(mirrors, executor, 95, HEDGE_DELAY);
+
+        assertEquals(10, api.getSongs().size());
+
+        // the loser stops reading the response and frees its thread
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedMirror_isReplacedImmediately() throws Exception {
+        StubSongsServer failing = failingMirror();
+        StubSongsServer fast = mirror(0);
+        HedgingSongsApi api = hedgingApi(failing, fast);
+
+        long startedAt = System.nanoTime();
+        assertEquals(10, api.getSongs().size());
+
+        assertTrue(elapsedMillis(startedAt) < HEDGE_DELAY);
+        assertEquals(1, failing.getRequestCount());
+        assertEquals(1, api.rankMirrors().get(0).getIndex());
+    }
+
+    @Test
+    public void allMirrorsFailed_failsWithNetworkIssue() throws Exception {
+        SongsApi api = hedgingApi(failingMirror(), failingMirror());
+
+        try {
+            api.getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+        assertEquals(1, mServers.get(0).getRequestCount());
+        assertEquals(1, mServers.get(1).getRequestCount());
+    }
+
+    @Test
+    public void hedgeDelay_followsLatencyPercentile() throws Exception {
+        StubSongsServer server = mirror(50);
+        HedgingSongsApi api = hedgingApi(server, mirror(50));
+        assertEquals(HEDGE_DELAY, api.getHedgeDelayMillis());
+
+        for (int i = 0; i < 10; i++) {
+            api.getSongs();
+        }
+
+        long hedgeDelay = api.getHedgeDelayMillis();
+        assertTrue("hedge delay " + hedgeDelay, hedgeDelay >= 50 && hedgeDelay < HEDGE_DELAY);
+    }
+}
@@ -0,0 +1,155 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InstrumentedSongsApiTest {
+    private static final long DELAY = 100;
+
+    private StubSongsServer mServer;
+    private final SongsApiMetrics mMetrics = new SongsApiMetrics();
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    private SongsApi instrumentedApi() {
+        return new InstrumentedSongsApi(
+                new SongsApiImpl(mServer.url(), SongsApiImpl.newHttpClient(), mMetrics), mMetrics);
+    }
+
+    @Test
+    public void phases_areRecorded() throws Exception {
+        final String json = SongsApiImplTest.songsJson(50);
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return StubSongsServer.Response.ok(json).delay(DELAY).bodyDelay(DELAY);
+            }
+        });
+        SongsApi api = instrumentedApi();
+
+        api.getSongs();
+        api.getSongs();
+
+        SongsApiMetrics.Snapshot snapshot = mMetrics.snapshot();
+        SongsApiMetrics.Latency call = snapshot.getCallLatencies().get("getSongs");
+        assertEquals(2, call.getCount());
+        assertTrue(call.toString(), call.getP50() >= 2 * DELAY);
+
+        SongsApiMetrics.Latency firstByte = snapshot.getPhaseLatency(SongsApiMetrics.Phase.FIRST_BYTE);
+        assertEquals(2, firstByte.getCount());
+        assertTrue(firstByte.toString(), firstByte.getP50() >= DELAY && firstByte.getP50() < 2 * DELAY);
+        SongsApiMetrics.Latency download = snapshot.getPhaseLatency(SongsApiMetrics.Phase.DOWNLOAD);
+        assertTrue(download.toString(), download.getP50() >= DELAY * 0.75);
+        SongsApiMetrics.Latency parse = snapshot.getPhaseLatency(SongsApiMetrics.Phase.PARSE);
+        assertTrue(parse.toString(), parse.getP99() < DELAY);
+
+        assertEquals(2 * json.length(), snapshot.getBytesReceived());
+        assertEquals(100, snapshot.getSongsParsed());
+        assertTrue(snapshot.getSongsParsedPerSecond() > 0);
+        assertTrue(snapshot.toString().contains("phase DOWNLOAD"));
+    }
+
+    @Test
+    public void notModifiedResponse_hasNoBodyPhases() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return new StubSongsServer.Response(304);
+            }
+        });
+
+        instrumentedApi().getSongsIfModified(new SongHandler() {
+            @Override
+            public void onSong(Song song) {
+            }
+        });
+
+        SongsApiMetrics.Snapshot snapshot = mMetrics.snapshot();
+        assertEquals(1, snapshot.getPhaseLatency(SongsApiMetrics.Phase.FIRST_BYTE).getCount());
+        assertNull(snapshot.getPhaseLatency(SongsApiMetrics.Phase.PARSE));
+    }
+
+    @Test
+    public void errors_areCountedByCause() throws Exception {
+        mServer = StubSongsServer.serving("[{]");
+        SongsApi api = instrumentedApi();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                api.getSongs();
+                fail();
+            } catch (SongsApiException expected) {
+            }
+        }
+        mServer.shutdown();
+        try {
+            api.getSongs();
+            fail();
+        } catch (SongsApiException expected) {
+        }
+        mServer = null;
+
+        SongsApiMetrics.Snapshot snapshot = mMetrics.snapshot();
+        assertEquals(2, snapshot.getErrorCount(SongsApiMetrics.ErrorCause.JSON_PARSE));
+        assertEquals(1, snapshot.getErrorCount(SongsApiMetrics.ErrorCause.NETWORK));
+        assertEquals(0, snapshot.getErrorCount(SongsApiMetrics.ErrorCause.OTHER));
+        assertTrue(snapshot.getCallLatencies().isEmpty());
+    }
+
+    @Test
+    public void reset_forgetsEverything() throws Exception {
+        mServer = StubSongsServer.serving(SongsApiImplTest.songsJson(1));
+        instrumentedApi().getSongs();
+
+        mMetrics.reset();
+
+        SongsApiMetrics.Snapshot snapshot = mMetrics.snapshot();
+        assertTrue(snapshot.getCallLatencies().isEmpty());
+        assertEquals(0, snapshot.getSongsParsed());
+        assertNull(snapshot.getPhaseLatency(SongsApiMetrics.Phase.CONNECT));
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxMicros());
+        assertWithin(500000, histogram.getPercentileMicros(50));
+        assertWithin(990000, histogram.getPercentileMicros(99));
+        assertEquals(1000000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void histogram_bucketsCoverAllValues() {
+        long previousBound = -1;
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            long bound = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(micros <= bound);
+            assertTrue(bound >= previousBound);
+            previousBound = bound;
+        }
+        assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) >= LatencyHistogram.bucketOf(1L << 32));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.25);
+    }
+}
@@ -0,0 +1,35 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyTrackerTest {
+    @Test
+    public void percentiles_ofRecordedSamples() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        assertEquals(-1, tracker.getPercentile(50));
+        for (int i = 100; i >= 1; i--) {
+            tracker.record(i);
+        }
+
+        assertEquals(1, tracker.getPercentile(0));
+        assertEquals(50, tracker.getPercentile(50));
+        assertEquals(95, tracker.getPercentile(95));
+        assertEquals(100, tracker.getPercentile(100));
+    }
+
+    @Test
+    public void oldSamples_areOverwritten() {
+        LatencyTracker tracker = new LatencyTracker(4);
+        for (int i = 0; i < 4; i++) {
+            tracker.record(1000);
+        }
+        for (int i = 0; i < 4; i++) {
+            tracker.record(10);
+        }
+
+        assertEquals(4, tracker.getCount());
+        assertEquals(10, tracker.getPercentile(100));
+    }
+}
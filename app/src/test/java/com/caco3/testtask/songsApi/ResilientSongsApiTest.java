@@ -0,0 +1,226 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResilientSongsApiTest {
+    private StubSongsServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    /**
+     * Stub failing with 503 the given number of times before responding with songs
+     */
+    private static StubSongsServer.Handler failingHandler(final AtomicInteger failuresLeft) {
+        return new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                if (failuresLeft.getAndDecrement() > 0) {
+                    return new StubSongsServer.Response(503);
+                }
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(5));
+            }
+        };
+    }
+
+    private static SongsApi resilientApi(String url, int maxAttempts, CircuitBreaker breaker) {
+        return new ResilientSongsApi(new SongsApiImpl(url),
+                new RetryPolicy(maxAttempts, 10, 40, TimeUnit.SECONDS.toMillis(10)),
+                breaker);
+    }
+
+    private static void assertFailsWithNetworkIssue(SongsApi api) {
+        try {
+            api.getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+    }
+
+    @Test
+    public void stalledServer_isCutByReadTimeout() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return StubSongsServer.Response.ok("[]").delay(TimeUnit.SECONDS.toMillis(10));
+            }
+        });
+        SongsApi api = new SongsApiImpl(mServer.url(), new SongsHttpClient(1000, 200, 10000));
+
+        long startedAt = System.nanoTime();
+        assertFailsWithNetworkIssue(api);
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void drippingBody_isCutByCallDeadline() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                // ~50 seconds to send the whole body, but read timeout never fires
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(20)).byteDelay(50);
+            }
+        });
+        SongsApi api = new SongsApiImpl(mServer.url(), new SongsHttpClient(1000, 1000, 300));
+
+        long startedAt = System.nanoTime();
+        assertFailsWithNetworkIssue(api);
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void slowResponseHeaders_areCutByRetryDeadline() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return StubSongsServer.Response.ok("[]").delay(TimeUnit.SECONDS.toMillis(10));
+            }
+        });
+        SongsApi api = new ResilientSongsApi(
+                new SongsApiImpl(mServer.url(), new SongsHttpClient(1000, 20000, 60000)),
+                new RetryPolicy(3, 10, 40, 300),
+                new CircuitBreaker(10, 1000));
+
+        long startedAt = System.nanoTime();
+        assertFailsWithNetworkIssue(api);
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void transientFailures_areRetried() throws Exception {
+        mServer = new StubSongsServer(failingHandler(new AtomicInteger(2)));
+        SongsApi api = resilientApi(mServer.url(), 3, new CircuitBreaker(10, 1000));
+
+        assertEquals(5, api.getSongs().size());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retries_stopAfterMaxAttempts() throws Exception {
+        mServer = new StubSongsServer(failingHandler(new AtomicInteger(100)));
+        SongsApi api = resilientApi(mServer.url(), 3, new CircuitBreaker(10, 1000));
+
+        assertFailsWithNetworkIssue(api);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void parseErrors_areNotRetried() throws Exception {
+        mServer = StubSongsServer.serving("[{");
+        SongsApi api = resilientApi(mServer.url(), 3, new CircuitBreaker(10, 1000));
+
+        try {
+            api.getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByJsonParseErrors());
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void unsupportedRequests_areNotRetried() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return new StubSongsServer.Response(404);
+            }
+        });
+        SongsApi api = resilientApi(mServer.url(), 3, new CircuitBreaker(10, 1000));
+
+        try {
+            api.getChangesSince(1);
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByUnsupportedRequest());
+        }
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void errorInTrialRequest_releasesCircuitBreaker() throws Exception {
+        mServer = new StubSongsServer(failingHandler(new AtomicInteger(1)));
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        SongsApi api = resilientApi(mServer.url(), 1, breaker);
+        assertFailsWithNetworkIssue(api);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+
+        try {
+            api.getSongs(new SongHandler() {
+                @Override
+                public void onSong(Song song) {
+                    throw new OutOfMemoryError("handler failed");
+                }
+            });
+            fail();
+        } catch (OutOfMemoryError expected) {
+            // thrown by the handler
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(5, api.getSongs().size());
+    }
+
+    @Test
+    public void openCircuitBreaker_failsFastAndRecovers() throws Exception {
+        AtomicInteger failuresLeft = new AtomicInteger(2);
+        mServer = new StubSongsServer(failingHandler(failuresLeft));
+        CircuitBreaker breaker = new CircuitBreaker(2, 300);
+        SongsApi api = resilientApi(mServer.url(), 1, breaker);
+
+        assertFailsWithNetworkIssue(api);
+        assertFailsWithNetworkIssue(api);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // fails without reaching the server
+        assertFailsWithNetworkIssue(api);
+        assertEquals(2, mServer.getRequestCount());
+
+        Thread.sleep(400);
+        assertEquals(5, api.getSongs().size());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failedTrialRequest_reopensCircuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void retryDelays_growExponentiallyWithinCap() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 60000, new Random(42));
+
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long cap = Math.min(1000, 100L << (attempt - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getDelayMillis(attempt);
+                assertTrue(delay >= 0 && delay <= cap);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SongsApiImplTest {
+    private StubSongsServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    /**
+     * Builds json array of songs with ids from 1 to count
+     */
+    /* package */ static String songsJson(int count) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 1; i <= count; i++) {
+            if (i > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"label\":\"Song ").append(i)
+                    .append("\",\"author\":\"Author ").append(i % 10)
+                    .append("\",\"version\":1}");
+        }
+        return sb.append(']').toString();
+    }
+
+    @Test
+    public void getSongs_returnsAllSongs() throws Exception {
+        mServer = StubSongsServer.serving(songsJson(1000));
+
+        List<Song> songs = new SongsApiImpl(mServer.url()).getSongs();
+
+        assertEquals(1000, songs.size());
+        assertEquals(new Song("Author 1", "Song 1", 1, 1), songs.get(0));
+        assertEquals(new Song("Author 0", "Song 1000", 1000, 1), songs.get(999));
+    }
+
+    @Test
+    public void getSongsWithHandler_emitsSongsOneByOne() throws Exception {
+        mServer = StubSongsServer.serving(songsJson(50));
+        final List<Long> ids = new ArrayList<>();
+
+        new SongsApiImpl(mServer.url()).getSongs(new SongHandler() {
+            @Override
+            public void onSong(Song song) {
+                ids.add(song.getId());
+            }
+        });
+
+        assertEquals(50, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1, (long) ids.get(i));
+        }
+    }
+
+    @Test
+    public void invalidJson_isReportedAsParseError() throws Exception {
+        mServer = StubSongsServer.serving("[{\"id\":1,");
+
+        try {
+            new SongsApiImpl(mServer.url()).getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByJsonParseErrors());
+        }
+    }
+
+    @Test
+    public void serverError_isReportedAsNetworkIssue() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return new StubSongsServer.Response(500);
+            }
+        });
+
+        try {
+            new SongsApiImpl(mServer.url()).getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+    }
+
+    /**
+     * Stub replying 304 when request carries validators of the current catalog
+     */
+    private static StubSongsServer.Handler conditionalHandler(final String body, final String eTag) {
+        return new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                if (eTag.equals(request.header("If-None-Match"))) {
+                    return new StubSongsServer.Response(304);
+                }
+                return StubSongsServer.Response.ok(body)
+                        .header("ETag", eTag)
+                        .header("Last-Modified", "Sat, 17 Oct 2026 10:00:00 GMT");
+            }
+        };
+    }
+
+    @Test
+    public void getSongsIfModified_sendsValidatorsAndShortCircuitsOn304() throws Exception {
+        mServer = new StubSongsServer(conditionalHandler(songsJson(10), "\"v1\""));
+        SongsApiImpl api = new SongsApiImpl(mServer.url());
+        final List<Song> songs = new ArrayList<>();
+        SongHandler handler = new SongHandler() {
+            @Override
+            public void onSong(Song song) {
+                songs.add(song);
+            }
+        };
+
+        assertTrue(api.getSongsIfModified(handler));
+        assertEquals(10, songs.size());
+
+        songs.clear();
+        assertFalse(api.getSongsIfModified(handler));
+        assertTrue(songs.isEmpty());
+
+        StubSongsServer.Request second = mServer.getRequests().get(1);
+        assertEquals("\"v1\"", second.header("If-None-Match"));
+        assertEquals("Sat, 17 Oct 2026 10:00:00 GMT", second.header("If-Modified-Since"));
+    }
+
+    @Test
+    public void getSongsIfModified_doesNotKeepValidatorsOfBrokenResponse() throws Exception {
+        mServer = new StubSongsServer(conditionalHandler("[{\"id\":1", "\"v1\""));
+        SongsApiImpl api = new SongsApiImpl(mServer.url());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                api.getSongsIfModified(new SongHandler() {
+                    @Override
+                    public void onSong(Song song) {
+                    }
+                });
+                fail();
+            } catch (SongsApiException e) {
+                assertTrue(e.isCausedByJsonParseErrors());
+            }
+        }
+        assertNull(mServer.getRequests().get(1).header("If-None-Match"));
+    }
+
+    @Test
+    public void getChangesSince_requestsDeltaAndDecodesIt() throws Exception {
+        mServer = StubSongsServer.serving("{\"watermark\": 57, \"resync\": false,"
+                + " \"changed\": [{\"id\":3,\"label\":\"New\",\"author\":\"A\",\"version\":57}],"
+                + " \"removed\": [1, 2], \"extra\": {\"ignored\": [true]}}");
+
+        SongsDelta delta = new SongsApiImpl(mServer.url()).getChangesSince(42);
+
+        assertEquals("/songs/changes?since=42", mServer.getRequests().get(0).path);
+        assertFalse(delta.isResyncRequired());
+        assertEquals(57, delta.getWatermark());
+        assertEquals(1, delta.getChangedSongs().size());
+        assertEquals(new Song("A", "New", 3, 57), delta.getChangedSongs().get(0));
+        assertEquals(2, delta.getRemovedSongIds().size());
+        assertEquals(2L, (long) delta.getRemovedSongIds().get(1));
+    }
+
+    @Test
+    public void getChangesSince_reportsResync() throws Exception {
+        mServer = StubSongsServer.serving("{\"resync\": true, \"watermark\": 100}");
+
+        SongsDelta delta = new SongsApiImpl(mServer.url()).getChangesSince(SongsApi.NO_WATERMARK);
+
+        assertTrue(delta.isResyncRequired());
+        assertFalse(delta.isEmpty());
+        assertEquals(100, delta.getWatermark());
+    }
+
+    @Test
+    public void getChangesSince_withoutWatermark_isParseError() throws Exception {
+        mServer = StubSongsServer.serving("{\"changed\": [], \"removed\": []}");
+
+        try {
+            new SongsApiImpl(mServer.url()).getChangesSince(1);
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByJsonParseErrors());
+        }
+    }
+
+    @Test
+    public void getChangesSince_notServed_isUnsupportedRequest() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                return new StubSongsServer.Response(404);
+            }
+        });
+
+        try {
+            new SongsApiImpl(mServer.url()).getChangesSince(1);
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByUnsupportedRequest());
+            assertFalse(e.isCausedByNetworkIssue());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SongsCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static List<Song> songs(int count) {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            songs.add(new Song("author " + i, "name \u00e9 " + i, i, i + 1));
+        }
+        return songs;
+    }
+
+    @Test
+    public void storedEntry_isReadBack() throws Exception {
+        SongsCache cache = new SongsCache(new File(mFolder.getRoot(), "not-created-yet"), 1024 * 1024);
+
+        cache.put("songs", songs(100), 42);
+        SongsCache.Entry entry = cache.get("songs");
+
+        assertEquals(songs(100), entry.getSongs());
+        assertEquals(42, entry.getStoredAtMillis());
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void corruptedEntry_isDeleted() throws Exception {
+        File directory = mFolder.newFolder();
+        SongsCache cache = new SongsCache(directory, 1024 * 1024);
+        cache.put("songs", songs(10), 42);
+        File file = new File(directory, "songs.cache");
+        byte[] truncated = new byte[(int) file.length() / 2];
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(truncated);
+        out.close();
+
+        assertNull(cache.get("songs"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntries_areEvicted() throws Exception {
+        File directory = mFolder.newFolder();
+        SongsCache cache = new SongsCache(directory, 1024 * 1024);
+        cache.put("probe", songs(100), 0);
+        long entrySize = cache.size();
+        cache.remove("probe");
+
+        cache = new SongsCache(directory, entrySize * 2);
+        cache.put("first", songs(100), 0);
+        cache.put("second", songs(100), 0);
+        // file times may have coarse granularity
+        new File(directory, "first.cache").setLastModified(System.currentTimeMillis() - 10000);
+        new File(directory, "second.cache").setLastModified(System.currentTimeMillis() - 20000);
+        assertNotNull(cache.get("second"));
+
+        cache.put("third", songs(100), 0);
+
+        assertTrue(cache.size() <= entrySize * 2);
+        assertNull(cache.get("first"));
+        assertNotNull(cache.get("second"));
+        assertNotNull(cache.get("third"));
+    }
+
+    @Test
+    public void entryBiggerThanCap_evictsOlderEntries() throws Exception {
+        SongsCache cache = new SongsCache(mFolder.newFolder(), 1024);
+        cache.put("old", songs(1), 0);
+        cache.put("songs", songs(1), 0);
+        assertNotNull(cache.get("songs"));
+
+        cache.put("songs", songs(1000), 0);
+
+        assertEquals(songs(1000), cache.get("songs").getSongs());
+        assertNull(cache.get("old"));
+    }
+}
@@ -0,0 +1,207 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SongsHttpClientTest {
+    private static final int SYNCS = 5;
+
+    private StubSongsServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    /**
+     * Stub compressing body with the first encoding accepted by the client
+     */
+    private static StubSongsServer.Handler compressingHandler(final String body) {
+        return new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) throws IOException {
+                String acceptEncoding = request.header("Accept-Encoding");
+                byte[] bytes = body.getBytes("UTF-8");
+                if (acceptEncoding == null) {
+                    return StubSongsServer.Response.ok(body);
+                }
+                String encoding = acceptEncoding.split(",")[0].trim();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                OutputStream out = "gzip".equals(encoding)
+                        ? new GZIPOutputStream(compressed)
+                        : new DeflaterOutputStream(compressed);
+                out.write(bytes);
+                out.close();
+                return new StubSongsServer.Response(200)
+                        .header("Content-Encoding", encoding)
+                        .body(compressed.toByteArray());
+            }
+        };
+    }
+
+    @Test
+    public void consecutiveSyncs_reuseOneConnection() throws Exception {
+        mServer = StubSongsServer.serving(SongsApiImplTest.songsJson(100));
+        SongsApi api = new SongsApiImpl(mServer.url());
+
+        for (int i = 0; i < SYNCS; i++) {
+            assertEquals(100, api.getSongs().size());
+        }
+
+        assertEquals(SYNCS, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void errorResponse_doesNotBreakConnectionReuse() throws Exception {
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            private int mRequests = 0;
+
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                if (mRequests++ == 0) {
+                    return new StubSongsServer.Response(503).body("try later");
+                }
+                return StubSongsServer.Response.ok(SongsApiImplTest.songsJson(3));
+            }
+        });
+        SongsApi api = new SongsApiImpl(mServer.url());
+
+        try {
+            api.getSongs();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+        assertEquals(3, api.getSongs().size());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void smallUnreadRemainder_isDrainedToReuseConnection() throws Exception {
+        mServer = StubSongsServer.serving(SongsApiImplTest.songsJson(100));
+        SongsHttpClient client = new SongsHttpClient(1000, 1000, 10000);
+
+        for (int i = 0; i < SYNCS; i++) {
+            SongsHttpClient.Response response = client.get(mServer.url(), null);
+            response.getBody().read();
+            response.close();
+        }
+
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void largeUnreadRemainder_isNotDownloaded() throws Exception {
+        String json = SongsApiImplTest.songsJson(50000);
+        mServer = StubSongsServer.serving(json);
+        SongsHttpClient client = new SongsHttpClient(1000, 1000, 10000);
+
+        SongsHttpClient.Response response = client.get(mServer.url(), null);
+        response.getBody().read();
+        response.close();
+
+        assertTrue("drained " + response.getBytesReceived() + " bytes of " + json.length(),
+                response.getBytesReceived() < json.length() / 4);
+        assertEquals(50000, new SongsApiImpl(mServer.url(), client).getSongs().size());
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void gzipBody_isRequestedAndDecoded() throws Exception {
+        String json = SongsApiImplTest.songsJson(2000);
+        mServer = new StubSongsServer(compressingHandler(json));
+        SongsApi api = new SongsApiImpl(mServer.url());
+
+        for (int i = 0; i < SYNCS; i++) {
+            assertEquals(2000, api.getSongs().size());
+        }
+
+        assertEquals("gzip, deflate", mServer.getRequests().get(0).header("Accept-Encoding"));
+        long bytesPerSync = mServer.getBytesWritten() / SYNCS;
+        assertTrue("expected compressed body, got " + bytesPerSync + " bytes per sync",
+                bytesPerSync * 4 < json.length());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void deflateBody_isDecoded() throws Exception {
+        final String json = SongsApiImplTest.songsJson(10);
+        final StubSongsServer.Handler compressing = compressingHandler(json);
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) throws Exception {
+                request.headers.put("accept-encoding", "deflate");
+                return compressing.handle(request);
+            }
+        });
+
+        assertEquals(10, new SongsApiImpl(mServer.url()).getSongs().size());
+    }
+
+    @Test(timeout = 5000)
+    public void readWaitingPastDeadline_isFailedByWatchdog() throws Exception {
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        HttpURLConnection connection = new HttpURLConnection(new URL("http://localhost/")) {
+            @Override
+            public InputStream getInputStream() {
+                return new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        // like HttpURLConnection of Android, blocked read fails when disconnected
+                        try {
+                            disconnected.await();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        throw new SocketException("Socket closed");
+                    }
+                };
+            }
+
+            @Override
+            public void disconnect() {
+                disconnected.countDown();
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() {
+            }
+        };
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        SongsHttpClient.Response response = new SongsHttpClient.Response(connection, deadlineNanos, 0, 0);
+
+        try {
+            response.getBody().read();
+            fail();
+        } catch (InterruptedIOException expected) {
+            assertTrue(System.nanoTime() - deadlineNanos >= 0);
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.caco3.testtask.songsApi;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SongsJsonReaderTest {
+
+    private static List<Song> readAll(String json) throws IOException, JSONException {
+        SongsJsonReader reader = new SongsJsonReader(new StringReader(json));
+        List<Song> result = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            result.add(reader.nextSong());
+        }
+        reader.endArray();
+        return result;
+    }
+
+    @Test
+    public void emptyArray_producesNoSongs() throws Exception {
+        assertTrue(readAll(" [ ] ").isEmpty());
+    }
+
+    @Test
+    public void songs_areDecodedInOrder() throws Exception {
+        List<Song> songs = readAll("[{\"id\":2,\"label\":\"Yesterday\",\"author\":\"The Beatles\",\"version\":1},"
+                + "\n {\"author\":\"Queen\", \"version\": 3, \"id\": 1, \"label\": \"Bohemian Rhapsody\"}]");
+
+        assertEquals(2, songs.size());
+        assertEquals(new Song("The Beatles", "Yesterday", 2, 1), songs.get(0));
+        assertEquals(new Song("Queen", "Bohemian Rhapsody", 1, 3), songs.get(1));
+    }
+
+    @Test
+    public void escapesAndUnknownFields_areHandled() throws Exception {
+        List<Song> songs = readAll("[{\"id\":\"7\",\"label\":\"Caf\\u00e9 \\\"Noir\\\"\",\"author\":\"A\\/B\","
+                + "\"tags\":[\"x\",{\"nested\":[1,2,null]}],\"rating\":4.5,\"explicit\":false,\"version\":2.0}]");
+
+        assertEquals(new Song("A/B", "Caf\u00e9 \"Noir\"", 7, 2), songs.get(0));
+    }
+
+    @Test
+    public void streamingDecoding_matchesOrgJsonDecoding() throws Exception {
+        String json = "[{\"id\":10,\"label\":\"a\",\"author\":\"b\",\"version\":5},"
+                + "{\"id\":11,\"label\":\"\",\"author\":\"c\\nd\",\"version\":0}]";
+        org.json.JSONArray array = new org.json.JSONArray(json);
+        List<Song> songs = readAll(json);
+
+        for (int i = 0; i < array.length(); i++) {
+            assertEquals(Song.fromJson(array.getJSONObject(i)), songs.get(i));
+        }
+    }
+
+    @Test(expected = JSONException.class)
+    public void missingField_throwsJsonException() throws Exception {
+        readAll("[{\"id\":1,\"label\":\"a\",\"version\":1}]");
+    }
+
+    @Test(expected = JSONException.class)
+    public void truncatedResponse_throwsJsonException() throws Exception {
+        readAll("[{\"id\":1,\"label\":\"a\",\"author\":\"b\",\"version\":1},{\"id\":2,\"lab");
+    }
+
+    @Test(expected = JSONException.class)
+    public void versionOutOfIntRange_throwsJsonException() throws Exception {
+        readAll("[{\"id\":1,\"label\":\"a\",\"author\":\"b\",\"version\":2147483648}]");
+    }
+
+    @Test(expected = JSONException.class)
+    public void notAnArray_throwsJsonException() throws Exception {
+        readAll("{\"id\":1}");
+    }
+}
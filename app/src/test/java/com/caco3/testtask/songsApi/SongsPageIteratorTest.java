@@ -0,0 +1,131 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SongsPageIteratorTest {
+    private static final int CATALOG_SIZE = 1050;
+    private static final int PAGE_SIZE = 100;
+
+    private StubSongsServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    /**
+     * Stub serving songs with ids 1..catalogSize using keyset pagination
+     */
+    /* package */ static StubSongsServer.Handler pagingHandler(final int catalogSize, final AtomicBoolean failing) {
+        return new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) {
+                if (failing.get()) {
+                    return new StubSongsServer.Response(503);
+                }
+                long afterId = 0;
+                int limit = 0;
+                for (String param : request.path.substring(request.path.indexOf('?') + 1).split("&")) {
+                    String[] pair = param.split("=");
+                    if ("after_id".equals(pair[0])) {
+                        afterId = Long.parseLong(pair[1]);
+                    } else if ("limit".equals(pair[0])) {
+                        limit = Integer.parseInt(pair[1]);
+                    }
+                }
+                StringBuilder sb = new StringBuilder("{\"songs\":[");
+                long id = afterId + 1;
+                for (int i = 0; i < limit && id <= catalogSize; i++, id++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append("{\"id\":").append(id)
+                            .append(",\"label\":\"s\",\"author\":\"a\",\"version\":1}");
+                }
+                sb.append("],\"has_more\":").append(id <= catalogSize).append('}');
+                return StubSongsServer.Response.ok(sb.toString());
+            }
+        };
+    }
+
+    @Test
+    public void iterator_walksWholeCatalogInBoundedPages() throws Exception {
+        mServer = new StubSongsServer(pagingHandler(CATALOG_SIZE, new AtomicBoolean()));
+        SongsPageIterator pages = new SongsPageIterator(new SongsApiImpl(mServer.url()),
+                SongsApi.FIRST_PAGE_AFTER_ID, PAGE_SIZE);
+
+        long expectedId = 1;
+        int pagesCount = 0;
+        while (pages.hasNext()) {
+            SongsPage page = pages.next();
+            assertTrue(page.getSongs().size() <= PAGE_SIZE);
+            for (Song song : page.getSongs()) {
+                assertEquals(expectedId++, song.getId());
+            }
+            pagesCount++;
+        }
+
+        assertEquals(CATALOG_SIZE + 1, expectedId);
+        assertEquals(11, pagesCount);
+        assertEquals("/songs/page?limit=100", mServer.getRequests().get(0).path);
+    }
+
+    @Test
+    public void interruptedIteration_resumesFromLastPage() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        mServer = new StubSongsServer(pagingHandler(CATALOG_SIZE, failing));
+        SongsApi api = new SongsApiImpl(mServer.url());
+        SongsPageIterator pages = new SongsPageIterator(api, SongsApi.FIRST_PAGE_AFTER_ID, PAGE_SIZE);
+
+        pages.next();
+        pages.next();
+        failing.set(true);
+        try {
+            pages.next();
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+        assertEquals(200, pages.getAfterId());
+
+        failing.set(false);
+        SongsPageIterator resumed = new SongsPageIterator(api, pages.getAfterId(), PAGE_SIZE);
+        assertEquals(201, resumed.next().getSongs().get(0).getId());
+    }
+
+    @Test
+    public void emptyCatalog_hasSingleEmptyPage() throws Exception {
+        mServer = new StubSongsServer(pagingHandler(0, new AtomicBoolean()));
+        SongsPageIterator pages = new SongsPageIterator(new SongsApiImpl(mServer.url()),
+                SongsApi.FIRST_PAGE_AFTER_ID, PAGE_SIZE);
+
+        SongsPage page = pages.next();
+
+        assertTrue(page.getSongs().isEmpty());
+        assertFalse(page.hasMore());
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void unsortedPage_isParseError() throws Exception {
+        mServer = StubSongsServer.serving("{\"songs\":[{\"id\":2,\"label\":\"s\",\"author\":\"a\",\"version\":1},"
+                + "{\"id\":1,\"label\":\"s\",\"author\":\"a\",\"version\":1}],\"has_more\":false}");
+
+        try {
+            new SongsApiImpl(mServer.url()).getSongsPage(SongsApi.FIRST_PAGE_AFTER_ID, 10);
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByJsonParseErrors());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.caco3.testtask.songsApi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SongsPagePipelineTest {
+    private static final int CATALOG_SIZE = 20000;
+    private static final int PAGE_SIZE = 1000;
+    private static final int PAGES = CATALOG_SIZE / PAGE_SIZE;
+    private static final long NETWORK_DELAY_MILLIS = 80;
+    private static final long WRITE_MILLIS = 80;
+
+    private StubSongsServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    /**
+     * Stub paging the catalog, responding after the network delay
+     */
+    private static StubSongsServer.Handler slowPagingHandler(final AtomicBoolean failing) {
+        final StubSongsServer.Handler handler = SongsPageIteratorTest.pagingHandler(CATALOG_SIZE, failing);
+        return new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) throws Exception {
+                return handler.handle(request).delay(NETWORK_DELAY_MILLIS);
+            }
+        };
+    }
+
+    private SongsPageIterator newPages() {
+        return new SongsPageIterator(new SongsApiImpl(mServer.url()), SongsApi.FIRST_PAGE_AFTER_ID, PAGE_SIZE);
+    }
+
+    /**
+     * Collects ids of songs written, taking as much time as a db write
+     */
+    private static class SlowWriter implements SongsPagePipeline.PageWriter {
+        final List<Long> mIds = new ArrayList<>();
+
+        @Override
+        public boolean write(SongsPage page) {
+            for (Song song : page.getSongs()) {
+                mIds.add(song.getId());
+            }
+            try {
+                Thread.sleep(WRITE_MILLIS);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return !page.hasMore();
+        }
+    }
+
+    private static void assertWholeCatalog(List<Long> ids) {
+        assertEquals(CATALOG_SIZE, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1, (long) ids.get(i));
+        }
+    }
+
+    @Test
+    public void pipeline_writesAllPagesInOrder() throws Exception {
+        mServer = new StubSongsServer(SongsPageIteratorTest.pagingHandler(CATALOG_SIZE, new AtomicBoolean()));
+        SlowWriter writer = new SlowWriter();
+        SongsPagePipeline pipeline = new SongsPagePipeline(newPages(), 2);
+
+        assertTrue(pipeline.run(writer));
+
+        assertWholeCatalog(writer.mIds);
+        assertEquals(PAGES, pipeline.getStats().getPages());
+    }
+
+    /**
+     * Fetching the next page overlaps with writing the previous one:
+     * the first page isn't written until the second one is requested
+     */
+    @Test
+    public void pipeline_fetchesNextPageWhileWriting() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+        final StubSongsServer.Handler handler = slowPagingHandler(new AtomicBoolean());
+        mServer = new StubSongsServer(new StubSongsServer.Handler() {
+            @Override
+            public StubSongsServer.Response handle(StubSongsServer.Request request) throws Exception {
+                if (requests.incrementAndGet() == 2) {
+                    secondPageRequested.countDown();
+                }
+                return handler.handle(request);
+            }
+        });
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        SlowWriter writer = new SlowWriter() {
+            @Override
+            public boolean write(SongsPage page) {
+                if (mIds.isEmpty()) {
+                    try {
+                        // a sequential sync would never request it, so the wait would time out
+                        overlapped.set(secondPageRequested.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return super.write(page);
+            }
+        };
+        SongsPagePipeline pipeline = new SongsPagePipeline(newPages(), 2);
+
+        assertTrue(pipeline.run(writer));
+
+        assertTrue(overlapped.get());
+        assertWholeCatalog(writer.mIds);
+        assertEquals(PAGES, requests.get());
+    }
+
+    @Test
+    public void fetchFailure_isThrownAfterPagesFetchedBefore() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean();
+        mServer = new StubSongsServer(SongsPageIteratorTest.pagingHandler(CATALOG_SIZE, failing));
+        final List<Long> ids = new ArrayList<>();
+        SongsPagePipeline pipeline = new SongsPagePipeline(newPages(), 1);
+
+        try {
+            pipeline.run(new SongsPagePipeline.PageWriter() {
+                @Override
+                public boolean write(SongsPage page) {
+                    ids.add(page.getSongs().get(0).getId());
+                    failing.set(true);
+                    return false;
+                }
+            });
+            fail();
+        } catch (SongsApiException e) {
+            assertTrue(e.isCausedByNetworkIssue());
+        }
+
+        // pages fetched before the failure are written in order
+        assertTrue(!ids.isEmpty());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i * PAGE_SIZE + 1, (long) ids.get(i));
+        }
+    }
+
+    /**
+     * The fetch thread waits while the queue is full and stops when the writer fails
+     */
+    @Test
+    public void slowWriter_holdsFetching() throws Exception {
+        mServer = new StubSongsServer(SongsPageIteratorTest.pagingHandler(CATALOG_SIZE, new AtomicBoolean()));
+        SongsPagePipeline pipeline = new SongsPagePipeline(newPages(), 2);
+
+        try {
+            pipeline.run(new SongsPagePipeline.PageWriter() {
+                @Override
+                public boolean write(SongsPage page) {
+                    try {
+                        Thread.sleep(400);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    throw new IllegalStateException("disk is full");
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        Thread.sleep(100);
+
+        // one page was being written, two were queued and one waited for a slot
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(0, pipeline.getStats().getPages());
+    }
+}
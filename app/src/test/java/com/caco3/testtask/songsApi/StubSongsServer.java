@@ -0,0 +1,301 @@
+package com.caco3.testtask.songsApi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal HTTP/1.1 server serving songs api responses in tests.
+ * Supports keep-alive connections and counts accepted connections,
+ * handled requests and bytes written so tests can check the transport behaviour
+ */
+/* package */ final class StubSongsServer {
+    /**
+     * Produces response for every request received by the server
+     */
+    /* package */ interface Handler {
+        Response handle(Request request) throws Exception;
+    }
+
+    /* package */ static final class Request {
+        final String method;
+        final String path;
+        /**
+         * Header names are lower-cased
+         */
+        final Map<String, String> headers;
+
+        private Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /* package */ static final class Response {
+        final int status;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        byte[] body = new byte[0];
+        /**
+         * Time to wait before sending the response
+         */
+        long delayMillis = 0;
+        /**
+         * Time to wait after sending headers before sending the body
+         */
+        long bodyDelayMillis = 0;
+        /**
+         * Time to wait after sending every byte of the body
+         */
+        long byteDelayMillis = 0;
+
+        Response(int status) {
+            this.status = status;
+        }
+
+        static Response ok(String body) {
+            return new Response(200).body(body);
+        }
+
+        Response body(String body) {
+            try {
+                return body(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        Response delay(long millis) {
+            this.delayMillis = millis;
+            return this;
+        }
+
+        Response bodyDelay(long millis) {
+            this.bodyDelayMillis = millis;
+            return this;
+        }
+
+        Response byteDelay(long millis) {
+            this.byteDelayMillis = millis;
+            return this;
+        }
+    }
+
+    private final Handler mHandler;
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private volatile boolean mShutdown = false;
+
+    /* package */ StubSongsServer(Handler handler) throws IOException {
+        this.mHandler = handler;
+        this.mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StubSongsServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Creates server returning the same response for all requests
+     */
+    /* package */ static StubSongsServer serving(final String body) throws IOException {
+        return new StubSongsServer(new Handler() {
+            @Override
+            public Response handle(Request request) {
+                return Response.ok(body);
+            }
+        });
+    }
+
+    /* package */ String url(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    /* package */ String url() {
+        return url("/songs");
+    }
+
+    /* package */ int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /* package */ int getRequestCount() {
+        return mRequests.size();
+    }
+
+    /* package */ List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    /* package */ long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    /* package */ void shutdown() {
+        mShutdown = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mShutdown) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mSockets.add(socket);
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            }, "StubSongsServer-connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (!mShutdown) {
+                Request request = readRequest(in);
+                if (request == null) {
+                    return;
+                }
+                mRequests.add(request);
+                Response response;
+                try {
+                    response = mHandler.handle(request);
+                } catch (Exception e) {
+                    response = new Response(500).body(String.valueOf(e));
+                }
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(request.header("Connection"))) {
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // client has gone or server was shut down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                    line.substring(colon + 1).trim());
+        }
+        return new Request(parts[0], parts[1], headers);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+
+    private void writeResponse(OutputStream out, Response response)
+            throws IOException, InterruptedException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(" Stub\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes("US-ASCII");
+        out.write(headBytes);
+        out.flush();
+        if (response.bodyDelayMillis > 0) {
+            Thread.sleep(response.bodyDelayMillis);
+        }
+        if (response.byteDelayMillis > 0) {
+            for (byte b : response.body) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(response.byteDelayMillis);
+            }
+        } else {
+            out.write(response.body);
+            out.flush();
+        }
+        mBytesWritten.addAndGet(headBytes.length + response.body.length);
+    }
+}
@@ -0,0 +1,79 @@
+package com.caco3.testtask.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ParallelSortTest {
+    /**
+     * Compares by the key only, so the order of equal items tells whether sorting is stable
+     */
+    private static final Comparator<long[]> sByKey = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] o1, long[] o2) {
+            return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+        }
+    };
+
+    private static List<long[]> randomItems(Random random, int size) {
+        List<long[]> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new long[]{random.nextInt(size / 4 + 1), i});
+        }
+        return items;
+    }
+
+    private static void assertSameOrder(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void sort_isTheSameAsCollectionsSort() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random random = new Random(42);
+            for (int parallelism = 1; parallelism <= 8; parallelism++) {
+                for (int size : new int[]{0, 1, 1000, 4096 * 3 + 7, 100000}) {
+                    List<long[]> items = randomItems(random, size);
+                    List<long[]> expected = new ArrayList<>(items);
+                    Collections.sort(expected, sByKey);
+
+                    ParallelSort.sort(items, sByKey, executor, parallelism);
+
+                    assertSameOrder(expected, items);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sort_ofLinkedList_sortsInPlace() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<long[]> items = new LinkedList<>(randomItems(new Random(42), 20000));
+            List<long[]> expected = new ArrayList<>(items);
+            Collections.sort(expected, sByKey);
+
+            ParallelSort.sort(items, sByKey, executor, 2);
+
+            assertSameOrder(expected, items);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.caco3.testtask.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SortedDiffTest {
+    /**
+     * Items are (id, content) pairs. Applies reported operations to a copy of the old items
+     */
+    private static class ApplyingCallback extends SortedDiff.Callback {
+        private final List<long[]> mOld;
+        private final List<long[]> mNew;
+        private final List<long[]> mTransformed;
+        private int mInserted = 0;
+        private int mRemoved = 0;
+        private int mChanged = 0;
+        /**
+         * Operations as they were reported
+         */
+        private final List<String> mScript = new ArrayList<>();
+
+        ApplyingCallback(List<long[]> oldItems, List<long[]> newItems) {
+            this.mOld = oldItems;
+            this.mNew = newItems;
+            this.mTransformed = new ArrayList<>(oldItems);
+        }
+
+        @Override
+        public int getOldSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public long getOldId(int oldIndex) {
+            return mOld.get(oldIndex)[0];
+        }
+
+        @Override
+        public long getNewId(int newIndex) {
+            return mNew.get(newIndex)[0];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldIndex, int newIndex) {
+            return mOld.get(oldIndex)[1] == mNew.get(newIndex)[1];
+        }
+
+        @Override
+        public void onInserted(int position, int newIndex) {
+            mTransformed.add(position, mNew.get(newIndex));
+            mInserted++;
+            mScript.add("insert " + position + " " + newIndex);
+        }
+
+        @Override
+        public void onRemoved(int position, int oldIndex) {
+            assertEquals(mOld.get(oldIndex), mTransformed.remove(position));
+            mRemoved++;
+            mScript.add("remove " + position + " " + oldIndex);
+        }
+
+        @Override
+        public void onChanged(int position, int oldIndex, int newIndex) {
+            assertEquals(mOld.get(oldIndex), mTransformed.set(position, mNew.get(newIndex)));
+            mChanged++;
+            mScript.add("change " + position + " " + oldIndex + " " + newIndex);
+        }
+    }
+
+    private static List<long[]> items(long... idsAndContents) {
+        List<long[]> result = new ArrayList<>();
+        for (int i = 0; i < idsAndContents.length; i += 2) {
+            result.add(new long[]{idsAndContents[i], idsAndContents[i + 1]});
+        }
+        return result;
+    }
+
+    private static void assertSameItems(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(Arrays.toString(expected.get(i)), Arrays.toString(actual.get(i)));
+        }
+    }
+
+    @Test
+    public void diff_reportsMinimalScript() {
+        ApplyingCallback callback = new ApplyingCallback(
+                items(1, 0, 2, 0, 4, 0, 5, 0),
+                items(0, 0, 2, 1, 3, 0, 5, 0, 6, 0));
+
+        assertEquals(6, SortedDiff.diff(callback));
+        assertEquals(3, callback.mInserted);
+        assertEquals(2, callback.mRemoved);
+        assertEquals(1, callback.mChanged);
+        assertSameItems(callback.mNew, callback.mTransformed);
+    }
+
+    @Test
+    public void diff_ofEmptySequences_reportsNothing() {
+        ApplyingCallback callback = new ApplyingCallback(items(), items());
+        assertEquals(0, SortedDiff.diff(callback));
+    }
+
+    private static List<long[]> randomItems(Random random, int maxSize, boolean descending) {
+        List<long[]> items = new ArrayList<>();
+        for (int i = 0; i < maxSize; i++) {
+            if (random.nextInt(3) > 0) {
+                items.add(new long[]{descending ? maxSize - i : i, random.nextInt(2)});
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Compares the script with the one computed by brute force:
+     * every id missing in the new sequence is removed, every id missing in the old one
+     * is inserted and every id with a different content is changed
+     */
+    @Test
+    public void diff_ofRandomSequences_matchesBruteForce() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            boolean descending = random.nextBoolean();
+            List<long[]> oldItems = new ArrayList<>();
+            List<long[]> newItems = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                long id = descending ? 60 - i : i;
+                if (random.nextInt(3) > 0) {
+                    oldItems.add(new long[]{id, random.nextInt(2)});
+                }
+                if (random.nextInt(3) > 0) {
+                    newItems.add(new long[]{id, random.nextInt(2)});
+                }
+            }
+
+            Map<Long, Long> oldContents = new HashMap<>();
+            for (long[] item : oldItems) {
+                oldContents.put(item[0], item[1]);
+            }
+            int inserted = 0;
+            int changed = 0;
+            for (long[] item : newItems) {
+                Long content = oldContents.remove(item[0]);
+                if (content == null) {
+                    inserted++;
+                } else if (content != item[1]) {
+                    changed++;
+                }
+            }
+            int removed = oldContents.size();
+
+            ApplyingCallback callback = new ApplyingCallback(oldItems, newItems);
+            assertEquals(inserted + removed + changed, SortedDiff.diff(callback, descending));
+            assertEquals(inserted, callback.mInserted);
+            assertEquals(removed, callback.mRemoved);
+            assertEquals(changed, callback.mChanged);
+            assertSameItems(newItems, callback.mTransformed);
+        }
+    }
+
+    @Test
+    public void parallelDiff_reportsTheSameScript() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random random = new Random(42);
+            for (int iteration = 0; iteration < 300; iteration++) {
+                boolean descending = random.nextBoolean();
+                int maxSize = random.nextInt(100);
+                List<long[]> oldItems = randomItems(random, maxSize, descending);
+                List<long[]> newItems = randomItems(random, maxSize, descending);
+                ApplyingCallback serial = new ApplyingCallback(oldItems, newItems);
+                ApplyingCallback parallel = new ApplyingCallback(oldItems, newItems);
+
+                int operations = SortedDiff.diff(serial, descending);
+
+                assertEquals(operations, SortedDiff.diff(parallel, descending, executor, 1 + random.nextInt(8)));
+                assertEquals(serial.mScript, parallel.mScript);
+                assertSameItems(newItems, parallel.mTransformed);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelDiff_rejectsUnsortedSequences() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<long[]> sorted = items(1, 0, 2, 0, 3, 0, 4, 0, 5, 0, 6, 0, 7, 0, 8, 0);
+            List<long[]> unsorted = items(1, 0, 2, 0, 3, 0, 5, 0, 4, 0, 6, 0, 7, 0, 8, 0);
+            try {
+                SortedDiff.diff(new ApplyingCallback(unsorted, sorted), false, executor, 4);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                SortedDiff.diff(new ApplyingCallback(sorted, unsorted), false, executor, 4);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void unsortedSequences_areRejected() {
+        List<List<long[]>> unsorted = Arrays.asList(items(2, 0, 1, 0), items(1, 0, 1, 0));
+        for (List<long[]> items : unsorted) {
+            try {
+                SortedDiff.diff(new ApplyingCallback(items, items()));
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                SortedDiff.diff(new ApplyingCallback(items(), items));
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            SortedDiff.diff(new ApplyingCallback(items(1, 0, 2, 0), items()), true /* descending */);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}